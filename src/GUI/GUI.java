@@ -4,17 +4,42 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.*;
 import Constants.CONSTANTS;
+import Processing.CachingProcessor;
+import Processing.BufferPool;
+import Processing.FilterPipeline;
+import Processing.GrayImage;
 import Processing.IMGProcessor;
+import Processing.ImageDecoder;
+import Processing.Kernel;
+import Processing.RgbImage;
+import metrics.Metrics;
 
 public class GUI {
-    private final JLabel originalImageLabel;
+    private final JLabel originalImageLabel;   // captions under the viewers
     private final JLabel processedImageLabel;
+    private final ImageViewer originalViewer;
+    private final ImageViewer processedViewer;
     private final JPanel imageDisplayPanel;
     private final JLabel runtimeLabel;
+    private final StatsPanel statsPanel = new StatsPanel();
+    private JDialog statsDialog;           // created the first time it is opened
     private final IMGProcessor processor;
+    private final JPanel kernelPanel;
+    private final JSpinner kernelRowsSpinner;
+    private final JSpinner kernelColsSpinner;
+    private JTextField[][] kernelFields; // rebuilt whenever the kernel size changes
+    private final JTextField divisorField;
+    private final JTextField offsetField;
+    private boolean populatingKernel;    // spinner updates made by populateKernelFields itself
+    private static final int MAX_KERNEL_SIZE = 63;
+    private static final int DISPLAY_WIDTH = 300;
+    private static final int DISPLAY_HEIGHT = 300;
     private File selectedImageFile; // currently selected image file
     private static final CountDownLatch latch = new CountDownLatch(1);
 
@@ -64,49 +89,69 @@ public class GUI {
         JLabel labelKernel = new JLabel("Kernel Type: ");
         labelKernel.setFont(new Font("Courier", Font.BOLD, 18));
 
-        JPanel kernelPanel = new JPanel();
+        kernelPanel = new JPanel();
         kernelPanel.setLayout(new BoxLayout(kernelPanel, BoxLayout.Y_AXIS));
+        kernelFields = new JTextField[0][0];
 
-        JTextField[][] kernelFields = new JTextField[3][3];
-
-        String[] kernelOptions = {"Ridge Detection", "Edge Detection", "Identity", "Sharpen", "Custom"};
+        String[] kernelOptions = {"Ridge Detection", "Edge Detection", "Identity", "Sharpen", "Box Blur", "Gaussian Blur", "Custom"};
         JComboBox<String> kernelComboBox = new JComboBox<>(kernelOptions);
         kernelComboBox.setFont(new Font("Courier", Font.BOLD, 16));
 
-        // Initialize kernel fields
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                kernelFields[i][j] = new JTextField(4);
-                kernelFields[i][j].setFont(new Font("Courier", Font.BOLD, 16));
-                kernelFields[i][j].setHorizontalAlignment(JTextField.CENTER);
-            }
-        }
-
-        populateKernelFields(kernelFields, CONSTANTS.RIDGE_DETECTION_KERNEL, false);
-
-        for (int i = 0; i < 3; i++) {
-            JPanel rowPanel = new JPanel();
-            rowPanel.setLayout(new BoxLayout(rowPanel, BoxLayout.X_AXIS));
-            for (int j = 0; j < 3; j++) {
-                rowPanel.add(kernelFields[i][j]);
-            }
-            kernelPanel.add(rowPanel);
-        }
+        // Custom kernels can be any N x M size; presets are all 3 x 3
+        kernelRowsSpinner = new JSpinner(new SpinnerNumberModel(3, 1, MAX_KERNEL_SIZE, 1));
+        kernelColsSpinner = new JSpinner(new SpinnerNumberModel(3, 1, MAX_KERNEL_SIZE, 1));
+        JPanel kernelSizePanel = new JPanel(new FlowLayout());
+        kernelSizePanel.add(new JLabel("Size:"));
+        kernelSizePanel.add(kernelRowsSpinner);
+        kernelSizePanel.add(new JLabel("x"));
+        kernelSizePanel.add(kernelColsSpinner);
+
+        // output = sum / divisor + offset; weights may be decimals too
+        divisorField = new JTextField(4);
+        offsetField = new JTextField(4);
+        JPanel kernelScalePanel = new JPanel(new FlowLayout());
+        kernelScalePanel.add(new JLabel("Divisor:"));
+        kernelScalePanel.add(divisorField);
+        kernelScalePanel.add(new JLabel("Offset:"));
+        kernelScalePanel.add(offsetField);
+
+        populateKernelFields(Kernel.of(CONSTANTS.RIDGE_DETECTION_KERNEL), false);
+
+        // large kernels get scroll bars instead of pushing the rest of the window away
+        JScrollPane kernelScrollPane = new JScrollPane(kernelPanel);
+        kernelScrollPane.setBorder(null);
+        kernelScrollPane.setPreferredSize(new Dimension(320, 110));
 
         kernelComboBox.addActionListener(e -> {
             String selectedKernel = (String) kernelComboBox.getSelectedItem();
             switch (selectedKernel) {
-                case "Ridge Detection" -> populateKernelFields(kernelFields, CONSTANTS.RIDGE_DETECTION_KERNEL, false);
-                case "Edge Detection" -> populateKernelFields(kernelFields, CONSTANTS.EDGE_DETECTION_KERNEL, false);
-                case "Identity" -> populateKernelFields(kernelFields, CONSTANTS.IDENTITY_KERNEL, false);
-                case "Sharpen" -> populateKernelFields(kernelFields, CONSTANTS.SHARPEN_KERNEL, false);
-                case "Custom" -> populateKernelFields(kernelFields, CONSTANTS.DEFAULT_KERNEL, true);
+                case "Ridge Detection" -> populateKernelFields(Kernel.of(CONSTANTS.RIDGE_DETECTION_KERNEL), false);
+                case "Edge Detection" -> populateKernelFields(Kernel.of(CONSTANTS.EDGE_DETECTION_KERNEL), false);
+                case "Identity" -> populateKernelFields(Kernel.of(CONSTANTS.IDENTITY_KERNEL), false);
+                case "Sharpen" -> populateKernelFields(Kernel.of(CONSTANTS.SHARPEN_KERNEL), false);
+                case "Box Blur" -> populateKernelFields(Kernel.box(3), false);
+                case "Gaussian Blur" -> populateKernelFields(Kernel.gaussian(5, 1.0), false);
+                // all ones divided by the tap count, so it averages instead of saturating
+                case "Custom" -> populateKernelFields(Kernel.of(CONSTANTS.DEFAULT_KERNEL, 9, 0), true);
             }
         });
 
+        // resizing only applies to custom kernels; the new grid starts as a mean filter
+        javax.swing.event.ChangeListener resizeKernel = e -> {
+            if (populatingKernel || !"Custom".equals(kernelComboBox.getSelectedItem())) return;
+            int rows = (Integer) kernelRowsSpinner.getValue();
+            int cols = (Integer) kernelColsSpinner.getValue();
+            if (rows == kernelFields.length && cols == kernelFields[0].length) return;
+            populateKernelFields(Kernel.of(GUImethods.filledKernel(rows, cols, 1), rows * cols, 0), true);
+        };
+        kernelRowsSpinner.addChangeListener(resizeKernel);
+        kernelColsSpinner.addChangeListener(resizeKernel);
+
         kernelModificationPanel.add(labelKernel);
         kernelModificationPanel.add(kernelComboBox);
-        kernelModificationPanel.add(kernelPanel);
+        kernelModificationPanel.add(kernelSizePanel);
+        kernelModificationPanel.add(kernelScrollPane);
+        kernelModificationPanel.add(kernelScalePanel);
 
         mainPanel.add(kernelModificationPanel, gbc);
         gbc.gridy++;
@@ -117,16 +162,52 @@ public class GUI {
         processButton.setFont(new Font("Courier", Font.BOLD, 16));
         processButtonPanel.add(processButton);
 
+        // fused = grayscale and convolution in one streaming pass, no full gray intermediate
+        JCheckBox fusedCheckBox = new JCheckBox("Fused");
+        fusedCheckBox.setFont(new Font("Courier", Font.BOLD, 14));
+        processButtonPanel.add(fusedCheckBox);
+
+        // progressive = low-res preview first, then the result band by band as it is computed; it streams
+        // through the pipeline path, so Fused is greyed out while it is on
+        JCheckBox progressiveCheckBox = new JCheckBox("Progressive", true);
+        progressiveCheckBox.setFont(new Font("Courier", Font.BOLD, 14));
+        processButtonPanel.add(progressiveCheckBox);
+        Runnable syncFused = () -> {
+            boolean progressive = progressiveCheckBox.isSelected();
+            fusedCheckBox.setEnabled(!progressive);
+            fusedCheckBox.setToolTipText(progressive ? "Not available with Progressive, which shows bands as they finish" : null);
+        };
+        progressiveCheckBox.addItemListener(e -> syncFused.run());
+        syncFused.run();
+
+        // per-stage timings of the last run (decode, grayscale, convolution, MPI traffic, workers)
+        JButton statsButton = new JButton("Stats");
+        statsButton.setFont(new Font("Courier", Font.BOLD, 14));
+        statsButton.addActionListener(e -> showStats());
+        processButtonPanel.add(statsButton);
+
         mainPanel.add(processButtonPanel, gbc);
         gbc.gridy++;
 
         imageDisplayPanel = new JPanel(new FlowLayout());
 
-        originalImageLabel = new JLabel();
-        processedImageLabel = new JLabel();
+        originalImageLabel = new JLabel("", JLabel.CENTER);
+        processedImageLabel = new JLabel("", JLabel.CENTER);
+        originalViewer = new ImageViewer(DISPLAY_WIDTH, DISPLAY_HEIGHT);
+        processedViewer = new ImageViewer(DISPLAY_WIDTH, DISPLAY_HEIGHT);
+        originalViewer.linkWith(processedViewer);
+        for (ImageViewer viewer : new ImageViewer[]{originalViewer, processedViewer}) {
+            viewer.setToolTipText("Wheel to zoom, drag to pan, double-click to fit");
+        }
 
-        imageDisplayPanel.add(originalImageLabel);
-        imageDisplayPanel.add(processedImageLabel);
+        JPanel originalPanel = new JPanel(new BorderLayout());
+        originalPanel.add(originalViewer, BorderLayout.CENTER);
+        originalPanel.add(originalImageLabel, BorderLayout.SOUTH);
+        JPanel processedPanel = new JPanel(new BorderLayout());
+        processedPanel.add(processedViewer, BorderLayout.CENTER);
+        processedPanel.add(processedImageLabel, BorderLayout.SOUTH);
+        imageDisplayPanel.add(originalPanel);
+        imageDisplayPanel.add(processedPanel);
 
         mainPanel.add(imageDisplayPanel, gbc);
         gbc.gridy++;
@@ -170,27 +251,65 @@ public class GUI {
                 return;
             }
 
-            int[][] customKernel = GUImethods.getCustomKernel(kernelFields);
+            Kernel kernel = GUImethods.getKernel(kernelFields, divisorField, offsetField);
             String inputPath = selectedImageFile.getAbsolutePath();
+            boolean fused = fusedCheckBox.isEnabled() && fusedCheckBox.isSelected();
+            FilterPipeline pipeline;
+            try {
+                // fractional weights, divisor or offset compile to a fixed-point kernel here
+                pipeline = kernel.isInteger()
+                        ? FilterPipeline.of(kernel.toIntKernel())
+                        : FilterPipeline.empty().convolve(kernel);
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(frame, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
-            BufferedImage inputImage = GUImethods.loadImage(inputPath);
-            if (inputImage == null) {
+            // only the header here; the image itself is decoded once, off the EDT, and shared
+            // with the processor through ImageDecoder
+            Dimension imageSize = GUImethods.imageSize(selectedImageFile);
+            if (imageSize == null) {
                 JOptionPane.showMessageDialog(frame, "Failed to load the selected image.", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
 
             processButton.setEnabled(false);
             runtimeLabel.setText("Processing...");
+            Metrics.SHARED.reset();
+
+            if (progressiveCheckBox.isSelected()) {
+                processProgressively(inputPath, imageSize, pipeline, processButton);
+                return;
+            }
 
             new SwingWorker<BufferedImage, Void>() {
                 long startTime;
                 long endTime;
+                String cacheLookup = "";
+                ImagePyramid inputPyramid;
+                ImagePyramid outputPyramid;
 
                 @Override
                 protected BufferedImage doInBackground() throws Exception {
                     startTime = System.currentTimeMillis();
-                    BufferedImage outputImage = processor.processImage(inputPath, customKernel);
+                    BufferedImage inputImage = ImageDecoder.read(inputPath);
+                    if (inputImage == null) throw new IOException("No reader for " + inputPath);
+                    BufferedImage outputImage;
+                    if (!kernel.isInteger()) {
+                        // fractional weights, divisor or offset: fixed-point kernel through the pipeline path
+                        outputImage = processor.processImage(inputPath, pipeline);
+                    } else if (fused) {
+                        outputImage = processor.processImageFused(inputPath, kernel.toIntKernel());
+                    } else {
+                        outputImage = processor.processImage(inputPath, kernel.toIntKernel());
+                    }
                     endTime = System.currentTimeMillis();
+                    if (processor instanceof CachingProcessor cache) {
+                        cacheLookup = " (" + cache.lastLookup() + ")";
+                    }
+                    // display levels are built here, off the EDT, and not counted in the runtime
+                    inputPyramid = ImagePyramid.build(inputImage);
+                    outputPyramid = outputImage == null ? null : ImagePyramid.build(outputImage);
                     return outputImage;
                 }
 
@@ -200,35 +319,14 @@ public class GUI {
                         BufferedImage outputImage = get(); // get processed image from doInBackground
                         long runtime = endTime - startTime;
 
-                        int width = inputImage.getWidth();
-                        int height = inputImage.getHeight();
-
-                        runtimeLabel.setText(processor.toString() + " Runtime: " + runtime + " ms for Image Size: " + width + " x " + height);
-                        System.out.println(processor.toString() + " Runtime: " + runtime + " ms for Image Size: " + width + " x " + height);
-
-                        // Scale and display input and output images
-                        int displayWidth = 300;
-                        int displayHeight = 300;
-
-                        Image scaledInput = inputImage.getScaledInstance(displayWidth, displayHeight, Image.SCALE_SMOOTH);
-                        ImageIcon inputIcon = new ImageIcon(scaledInput);
+                        int width = imageSize.width;
+                        int height = imageSize.height;
 
-                        Image scaledOutput = outputImage.getScaledInstance(displayWidth, displayHeight, Image.SCALE_SMOOTH);
-                        ImageIcon outputIcon = new ImageIcon(scaledOutput);
+                        runtimeLabel.setText(processor.toString() + " Runtime: " + runtime + " ms" + cacheLookup + " for Image Size: " + width + " x " + height);
+                        System.out.println(processor.toString() + " Runtime: " + runtime + " ms" + cacheLookup + " for Image Size: " + width + " x " + height);
 
-                        originalImageLabel.setIcon(inputIcon);
-                        processedImageLabel.setIcon(outputIcon);
-
-                        originalImageLabel.setText("Original (rescaled)");
-                        originalImageLabel.setHorizontalTextPosition(JLabel.CENTER);
-                        originalImageLabel.setVerticalTextPosition(JLabel.BOTTOM);
-
-                        processedImageLabel.setText("Processed (rescaled)");
-                        processedImageLabel.setHorizontalTextPosition(JLabel.CENTER);
-                        processedImageLabel.setVerticalTextPosition(JLabel.BOTTOM);
-
-                        imageDisplayPanel.revalidate();
-                        imageDisplayPanel.repaint();
+                        showImages(inputPyramid, outputPyramid);
+                        statsPanel.refresh();
                     } catch (Exception ex) {
                         ex.printStackTrace();
                         JOptionPane.showMessageDialog(frame, "Error during image processing.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -256,24 +354,203 @@ public class GUI {
         frame.setVisible(true);
     }
 
-    private void populateKernelFields(JTextField[][] kernelFields, int[][] matrix, boolean editable) {
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                kernelFields[i][j].setText(String.valueOf(matrix[i][j]));
+    // one piece of a progressive result: final rows [y0, y1) of the full-size output, or the
+    // preview with the shrunk input it was computed from
+    private record Band(GrayImage output, int y0, int y1, BufferedImage previewInput) {
+    }
+
+    /**
+     * Progressive processing: the pipeline first runs on a subsampled decode of the image shrunk
+     * to the display size, which is shown at once, then the processor reports the full-size result band by band
+     * and each band replaces its rows of the preview. Both show through stand-in pyramids until
+     * the real ones are built at the end. Time to first pixel (the preview, or the first band when
+     * the image is too small to be worth a preview) and to the first full-size band go in the
+     * runtime label next to the total.
+     */
+    private void processProgressively(String inputPath, Dimension imageSize, FilterPipeline pipeline,
+                                      JButton processButton) {
+        int fullWidth = imageSize.width;
+        int fullHeight = imageSize.height;
+        Dimension size = displaySize(fullWidth, fullHeight);
+        BufferedImage view = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        processedViewer.setPyramid(ImagePyramid.standIn(view, fullWidth, fullHeight));
+        processedImageLabel.setText("Processing...");
+
+        new SwingWorker<BufferedImage, Band>() {
+            long startTime;
+            long endTime;
+            final AtomicLong firstPixel = new AtomicLong();
+            final AtomicLong firstBand = new AtomicLong();
+            String cacheLookup = "";
+            ImagePyramid inputPyramid;
+            ImagePyramid outputPyramid;
+
+            @Override
+            protected BufferedImage doInBackground() throws Exception {
+                startTime = System.nanoTime();
+                // a subsampled decode for the preview, so it does not wait for the full-size one;
+                // not worth it when the image is not much bigger than the display
+                if ((long) fullWidth * fullHeight > 4L * size.width * size.height) {
+                    int factor = ImageDecoder.subsamplingFor(fullWidth, fullHeight, size.width, size.height);
+                    BufferedImage small = shrink(ImageDecoder.readSubsampled(new File(inputPath), factor), size);
+                    GrayImage grayImage = processor.convertToGrayscale(RgbImage.wrap(small));
+                    GrayImage preview = processor.applyPipeline(grayImage, pipeline);
+                    BufferPool.SHARED.release(grayImage);
+                    firstPixel.compareAndSet(0, System.nanoTime() - startTime);
+                    publish(new Band(preview, 0, preview.height, small));
+                }
+                // called from whichever threads finish bands; publish is safe from any of them
+                BufferedImage outputImage = processor.processImage(inputPath, pipeline, (output, y0, y1) -> {
+                    long now = System.nanoTime() - startTime;
+                    firstPixel.compareAndSet(0, now);
+                    firstBand.compareAndSet(0, now);
+                    publish(new Band(output, y0, y1, null));
+                });
+                endTime = System.nanoTime();
+                if (processor instanceof CachingProcessor cache) {
+                    cacheLookup = " (" + cache.lastLookup() + ")";
+                }
+                // usually the image the processor just decoded, unless its cache had the result
+                BufferedImage inputImage = ImageDecoder.read(inputPath);
+                inputPyramid = inputImage == null ? null : ImagePyramid.build(inputImage);
+                outputPyramid = outputImage == null ? null : ImagePyramid.build(outputImage);
+                return outputImage;
+            }
+
+            @Override
+            protected void process(List<Band> bands) {
+                Graphics2D g = view.createGraphics();
+                for (Band band : bands) {
+                    BufferedImage image = band.output().toBufferedImage();
+                    int height = band.output().height;
+                    if (band.previewInput() != null) {
+                        g.drawImage(image, 0, 0, null); // same size as the view
+                        BufferPool.SHARED.release(band.output());
+                        originalViewer.setPyramid(ImagePyramid.standIn(band.previewInput(), fullWidth, fullHeight));
+                        originalImageLabel.setText("Original");
+                    } else {
+                        // nearest neighbour, so a band never smears into rows that are not done yet
+                        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+                        int dy0 = (int) ((long) band.y0() * view.getHeight() / height);
+                        int dy1 = (int) (((long) band.y1() * view.getHeight() + height - 1) / height);
+                        g.drawImage(image, 0, dy0, view.getWidth(), dy1, 0, band.y0(), image.getWidth(), band.y1(), null);
+                    }
+                }
+                g.dispose();
+                processedViewer.repaint();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    BufferedImage outputImage = get();
+                    String timing = String.format(" Runtime: %d ms (first pixel %d ms, first full-size band %d ms)",
+                            (endTime - startTime) / 1_000_000, firstPixel.get() / 1_000_000, firstBand.get() / 1_000_000);
+                    String text = processor.toString() + timing + cacheLookup
+                            + " for Image Size: " + fullWidth + " x " + fullHeight;
+                    runtimeLabel.setText(text);
+                    System.out.println(text);
+                    showImages(inputPyramid, outputPyramid);
+                    statsPanel.refresh();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(frame, "Error during image processing.", "Error", JOptionPane.ERROR_MESSAGE);
+                } finally {
+                    processButton.setEnabled(true);
+                }
+            }
+        }.execute();
+    }
+
+    private void showStats() {
+        if (statsDialog == null) {
+            statsDialog = new JDialog(frame, "Stage statistics", false);
+            statsDialog.add(statsPanel);
+            statsDialog.pack();
+            statsDialog.setLocationRelativeTo(frame);
+        }
+        statsPanel.refresh();
+        statsDialog.setVisible(true);
+    }
+
+    // the image's size scaled down to fit the display area, aspect ratio kept
+    private static Dimension displaySize(int width, int height) {
+        double scale = Math.min(1.0, Math.min((double) DISPLAY_WIDTH / width, (double) DISPLAY_HEIGHT / height));
+        return new Dimension(Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale)));
+    }
+
+    // the (subsampled) input scaled to the preview's size
+    private static BufferedImage shrink(BufferedImage inputImage, Dimension size) {
+        BufferedImage small = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = small.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(inputImage, 0, 0, size.width, size.height, null);
+        g.dispose();
+        return small;
+    }
+
+    private void showImages(ImagePyramid inputPyramid, ImagePyramid outputPyramid) {
+        originalViewer.setPyramid(inputPyramid);
+        processedViewer.setPyramid(outputPyramid);
+        originalImageLabel.setText("Original " + inputPyramid.width() + " x " + inputPyramid.height());
+        processedImageLabel.setText("Processed");
+        imageDisplayPanel.revalidate();
+        imageDisplayPanel.repaint();
+    }
+
+    // shows the matrix in the grid, rebuilding the grid when the matrix has another size
+    private void populateKernelFields(Kernel kernel, boolean editable) {
+        int rows = kernel.rows();
+        int cols = kernel.cols();
+        if (kernelFields.length != rows || kernelFields[0].length != cols) {
+            rebuildKernelGrid(rows, cols);
+        }
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                kernelFields[i][j].setText(GUImethods.formatWeight(kernel.weight(i, j)));
                 kernelFields[i][j].setEditable(editable);
             }
         }
+        divisorField.setText(GUImethods.formatWeight(kernel.divisor()));
+        divisorField.setEditable(editable);
+        offsetField.setText(GUImethods.formatWeight(kernel.offset()));
+        offsetField.setEditable(editable);
+        populatingKernel = true;
+        kernelRowsSpinner.setValue(rows);
+        kernelColsSpinner.setValue(cols);
+        populatingKernel = false;
+        kernelRowsSpinner.setEnabled(editable);
+        kernelColsSpinner.setEnabled(editable);
+    }
+
+    private void rebuildKernelGrid(int rows, int cols) {
+        kernelPanel.removeAll();
+        kernelFields = new JTextField[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            JPanel rowPanel = new JPanel();
+            rowPanel.setLayout(new BoxLayout(rowPanel, BoxLayout.X_AXIS));
+            for (int j = 0; j < cols; j++) {
+                kernelFields[i][j] = new JTextField(4);
+                kernelFields[i][j].setFont(new Font("Courier", Font.BOLD, 16));
+                kernelFields[i][j].setHorizontalAlignment(JTextField.CENTER);
+                rowPanel.add(kernelFields[i][j]);
+            }
+            kernelPanel.add(rowPanel);
+        }
+        kernelPanel.revalidate();
+        kernelPanel.repaint();
     }
 
     private void clearImages() {
-        originalImageLabel.setIcon(null);
+        originalViewer.setPyramid(null);
         originalImageLabel.setText("");
-        processedImageLabel.setIcon(null);
+        processedViewer.setPyramid(null);
         processedImageLabel.setText("");
     }
 
+    // the GUI re-runs the same images with a handful of kernels, so results are cached
     public static void run(IMGProcessor processor) {
-        SwingUtilities.invokeLater(() -> new GUI(processor));
+        SwingUtilities.invokeLater(() -> new GUI(new CachingProcessor(processor)));
         try {
             latch.await();  // Wait until the GUI window closes
         } catch (InterruptedException e) {
@@ -1,9 +1,11 @@
 package GUI;
 
 import Constants.CONSTANTS;
+import Processing.ImageDecoder;
+import Processing.Kernel;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -11,24 +13,57 @@ import java.nio.file.Files;
 
 public class GUImethods {
 
-    public static int[][] getCustomKernel(JTextField[][] kernelFields) {
-        int[][] customKernel = new int[3][3];
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                try {
-                    customKernel[i][j] = Integer.parseInt(kernelFields[i][j].getText());
-                } catch (NumberFormatException e) {
-                    // Handle invalid input (non-integer)
-                    customKernel[i][j] = 0;
-                }
+    // weights may be decimals; unreadable weights count as 0, an unreadable or zero divisor as 1
+    public static Kernel getKernel(JTextField[][] kernelFields, JTextField divisorField, JTextField offsetField) {
+        int rows = kernelFields.length;
+        int cols = kernelFields[0].length;
+        double[][] weights = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                weights[i][j] = parseOr(kernelFields[i][j].getText(), 0);
             }
         }
-        return customKernel;
+        double divisor = parseOr(divisorField.getText(), 1);
+        if (divisor == 0) divisor = 1;
+        return new Kernel(weights, divisor, parseOr(offsetField.getText(), 0));
+    }
+
+    private static double parseOr(String text, double fallback) {
+        try {
+            double value = Double.parseDouble(text.trim());
+            return Double.isFinite(value) ? value : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    // whole numbers without a decimal point, anything else to 4 decimals
+    public static String formatWeight(double weight) {
+        if (weight == Math.rint(weight) && Math.abs(weight) < 1e9) return String.valueOf((long) weight);
+        return String.format(java.util.Locale.ROOT, "%.4f", weight).replaceAll("0+$", "");
+    }
+
+    public static int[][] filledKernel(int rows, int cols, int value) {
+        int[][] kernel = new int[rows][cols];
+        for (int[] row : kernel) {
+            java.util.Arrays.fill(row, value);
+        }
+        return kernel;
     }
 
     public static BufferedImage loadImage(String imagePath) {
         try {
-            return ImageIO.read(new File(imagePath));
+            return ImageDecoder.read(imagePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // size from the image's header, without decoding it; null when it cannot be read
+    public static Dimension imageSize(File imageFile) {
+        try {
+            return ImageDecoder.size(imageFile);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -43,6 +78,8 @@ public class GUImethods {
 
         if (outputImageFiles != null) {
             for (File file : outputImageFiles) {
+                // subdirectories such as the result cache outlive the session
+                if (file.isDirectory()) continue;
                 try {
                     Files.delete(file.toPath());
                 } catch (IOException e) {
@@ -0,0 +1,231 @@
+package GUI;
+
+import Processing.GrayImage;
+import Processing.RgbImage;
+import parallel.PImgProcessing.PImgProcMethods;
+import parallel.PImgProcessing.RowBandTask;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Mipmap pyramid of an image for display. Level 0 is the image itself and every further level
+ * is half the size of the one above it (rounded up), down to MIN_SIZE on the longer side.
+ * Levels are area averaged straight on the arrays, 2 x 2 blocks (fewer pixels at odd edges),
+ * with the rows of each level split over the parallel processor's pool, so even a 100 MP image
+ * takes a fraction of what getScaledInstance does, and none of it runs on the EDT.
+ * <p>
+ * Gray images (TYPE_BYTE_GRAY) stay gray, everything else becomes packed RGB. The image itself
+ * is never copied: int-packed and 3-byte BGR images (what JPEGs decode to) are read straight from
+ * their arrays, other colour layouts two rows at a time through getRGB while the first level is
+ * built.
+ * <p>
+ * A stand-in pyramid is a single small image standing for a full-size one that does not exist
+ * yet, such as the canvas of a progressive result.
+ */
+public final class ImagePyramid {
+
+    // no levels below this many pixels on the longer side
+    private static final int MIN_SIZE = 64;
+
+    private final int width;
+    private final int height;
+    private final BufferedImage[] levels; // finest first
+
+    private ImagePyramid(int width, int height, BufferedImage[] levels) {
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+    }
+
+    public static ImagePyramid build(BufferedImage image) {
+        ForkJoinPool pool = PImgProcMethods.poolFor(0);
+        List<BufferedImage> levels = new ArrayList<>();
+        levels.add(image);
+        if (Math.max(image.getWidth(), image.getHeight()) <= MIN_SIZE) {
+            return new ImagePyramid(image.getWidth(), image.getHeight(), levels.toArray(new BufferedImage[0]));
+        }
+
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            GrayImage level = halve(GrayImage.wrap(image), pool);
+            levels.add(level.toBufferedImage());
+            while (Math.max(level.width, level.height) > MIN_SIZE) {
+                level = halve(level, pool);
+                levels.add(level.toBufferedImage());
+            }
+        } else {
+            RgbImage level = isIntPacked(image) ? halve(RgbImage.wrap(image), pool)
+                    : isBgr(image) ? halveBgr(image, pool) : halveRgb(image, pool);
+            levels.add(level.toBufferedImage());
+            while (Math.max(level.width, level.height) > MIN_SIZE) {
+                level = halve(level, pool);
+                levels.add(level.toBufferedImage());
+            }
+        }
+        return new ImagePyramid(image.getWidth(), image.getHeight(), levels.toArray(new BufferedImage[0]));
+    }
+
+    // small stands for a width x height image; it is shown scaled up to that size
+    public static ImagePyramid standIn(BufferedImage small, int width, int height) {
+        return new ImagePyramid(width, height, new BufferedImage[]{small});
+    }
+
+    // full size, in pixels of the image the pyramid stands for
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * The coarsest level that still has at least scale pixels per full-size pixel in both
+     * directions, so drawing it never has to enlarge by more than the finest level would; the
+     * finest level once scale is above 1.
+     */
+    public BufferedImage levelFor(double scale) {
+        for (int i = levels.length - 1; i > 0; i--) {
+            if (levels[i].getWidth() >= scale * width && levels[i].getHeight() >= scale * height) return levels[i];
+        }
+        return levels[0];
+    }
+
+    private static boolean isIntPacked(BufferedImage image) {
+        int type = image.getType();
+        return (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt;
+    }
+
+    private static boolean isBgr(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_3BYTE_BGR
+                && image.getRaster().getSampleModel() instanceof PixelInterleavedSampleModel
+                && image.getRaster().getDataBuffer() instanceof DataBufferByte;
+    }
+
+    private static int grain(ForkJoinPool pool, int width, int height) {
+        return RowBandTask.grainFor(width, height, 8, pool.getParallelism());
+    }
+
+    static GrayImage halve(GrayImage src, ForkJoinPool pool) {
+        int width = (src.width + 1) / 2;
+        int height = (src.height + 1) / 2;
+        GrayImage dst = new GrayImage(width, height);
+        int pairs = src.width / 2; // output columns with two source columns
+        pool.invoke(new RowBandTask((y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int top = src.offset + 2 * y * src.stride;
+                int bottom = 2 * y + 1 < src.height ? top + src.stride : top; // odd last row: itself twice
+                int out = y * width;
+                for (int x = 0; x < pairs; x++) {
+                    int sum = (src.data[top + 2 * x] & 0xFF) + (src.data[top + 2 * x + 1] & 0xFF)
+                            + (src.data[bottom + 2 * x] & 0xFF) + (src.data[bottom + 2 * x + 1] & 0xFF);
+                    dst.data[out + x] = (byte) ((sum + 2) >> 2);
+                }
+                if (pairs < width) {
+                    int sum = (src.data[top + 2 * pairs] & 0xFF) + (src.data[bottom + 2 * pairs] & 0xFF);
+                    dst.data[out + pairs] = (byte) ((sum + 1) >> 1);
+                }
+            }
+        }, 0, height, grain(pool, width, height)));
+        return dst;
+    }
+
+    static RgbImage halve(RgbImage src, ForkJoinPool pool) {
+        int width = (src.width + 1) / 2;
+        int height = (src.height + 1) / 2;
+        RgbImage dst = new RgbImage(width, height);
+        pool.invoke(new RowBandTask((y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int top = src.offset + 2 * y * src.stride;
+                int bottom = 2 * y + 1 < src.height ? top + src.stride : top;
+                halveRow(src.data, top, src.data, bottom, src.width, dst.data, y * width);
+            }
+        }, 0, height, grain(pool, width, height)));
+        return dst;
+    }
+
+    // 3-byte BGR straight from the raster's bytes, 2 x 2 blocks as in halveRow
+    private static RgbImage halveBgr(BufferedImage image, ForkJoinPool pool) {
+        PixelInterleavedSampleModel model = (PixelInterleavedSampleModel) image.getRaster().getSampleModel();
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = model.getScanlineStride();
+        int[] bands = model.getBandOffsets(); // r, g, b
+        int base = image.getRaster().getDataBuffer().getOffset()
+                - image.getRaster().getSampleModelTranslateY() * stride
+                - image.getRaster().getSampleModelTranslateX() * 3;
+        int srcWidth = image.getWidth();
+        int srcHeight = image.getHeight();
+        int width = (srcWidth + 1) / 2;
+        int height = (srcHeight + 1) / 2;
+        RgbImage dst = new RgbImage(width, height);
+        pool.invoke(new RowBandTask((y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int top = base + 2 * y * stride;
+                int bottom = 2 * y + 1 < srcHeight ? top + stride : top;
+                int out = y * width;
+                for (int x = 0; x < width; x++) {
+                    int left = 6 * x;
+                    int right = 2 * x + 1 < srcWidth ? left + 3 : left; // odd last column: itself twice
+                    int pixel = 0;
+                    for (int c = 0; c < 3; c++) {
+                        int band = bands[c];
+                        int sum = (data[top + left + band] & 0xFF) + (data[top + right + band] & 0xFF)
+                                + (data[bottom + left + band] & 0xFF) + (data[bottom + right + band] & 0xFF);
+                        pixel = (pixel << 8) | ((sum + 2) >> 2);
+                    }
+                    dst.data[out + x] = pixel;
+                }
+            }
+        }, 0, height, grain(pool, width, height)));
+        return dst;
+    }
+
+    // any other colour layout, two source rows at a time through getRGB
+    private static RgbImage halveRgb(BufferedImage image, ForkJoinPool pool) {
+        int srcWidth = image.getWidth();
+        int srcHeight = image.getHeight();
+        int width = (srcWidth + 1) / 2;
+        int height = (srcHeight + 1) / 2;
+        RgbImage dst = new RgbImage(width, height);
+        pool.invoke(new RowBandTask((y0, y1) -> {
+            int[] rows = new int[2 * srcWidth];
+            for (int y = y0; y < y1; y++) {
+                int rowCount = Math.min(2, srcHeight - 2 * y);
+                image.getRGB(0, 2 * y, srcWidth, rowCount, rows, 0, srcWidth);
+                halveRow(rows, 0, rows, rowCount == 2 ? srcWidth : 0, srcWidth, dst.data, y * width);
+            }
+        }, 0, height, grain(pool, width, height)));
+        return dst;
+    }
+
+    // one output row from two source rows of packed pixels, each channel averaged on its own
+    private static void halveRow(int[] src, int top, int[] bottomSrc, int bottom, int srcWidth, int[] dst, int out) {
+        int pairs = srcWidth / 2;
+        for (int x = 0; x < pairs; x++) {
+            int a = src[top + 2 * x];
+            int b = src[top + 2 * x + 1];
+            int c = bottomSrc[bottom + 2 * x];
+            int d = bottomSrc[bottom + 2 * x + 1];
+            int r = ((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF);
+            int g = ((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF);
+            int bl = (a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF);
+            dst[out + x] = (((r + 2) >> 2) << 16) | (((g + 2) >> 2) << 8) | ((bl + 2) >> 2);
+        }
+        if (pairs * 2 < srcWidth) {
+            int a = src[top + 2 * pairs];
+            int c = bottomSrc[bottom + 2 * pairs];
+            int r = ((a >> 16) & 0xFF) + ((c >> 16) & 0xFF);
+            int g = ((a >> 8) & 0xFF) + ((c >> 8) & 0xFF);
+            int bl = (a & 0xFF) + (c & 0xFF);
+            dst[out + pairs] = (((r + 1) >> 1) << 16) | (((g + 1) >> 1) << 8) | ((bl + 1) >> 1);
+        }
+    }
+}
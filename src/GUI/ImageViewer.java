@@ -0,0 +1,172 @@
+package GUI;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+
+/**
+ * Zoomable, pannable view of an ImagePyramid. The image starts fitted to the component with its
+ * aspect ratio kept; the mouse wheel zooms around the cursor, dragging pans and a double click
+ * fits it again. Each paint picks the pyramid level closest to the current zoom and draws only
+ * the part of it inside the viewport, so the cost of a repaint depends on the component's size,
+ * not the image's.
+ * <p>
+ * Two linked viewers zoom and pan together while they show images of the same size.
+ */
+@SuppressWarnings("serial") // Swing components here are never serialized
+public final class ImageViewer extends JComponent {
+
+    // screen pixels per image pixel at most
+    private static final double MAX_ZOOM = 32;
+    private static final double WHEEL_STEP = 1.25;
+
+    private ImagePyramid pyramid;
+    private boolean fitted = true;
+    private double zoom;     // screen pixels per image pixel, when not fitted
+    private double centerX;  // image point in the middle of the component, when not fitted
+    private double centerY;
+    private ImageViewer partner;
+
+    public ImageViewer(int width, int height) {
+        setPreferredSize(new Dimension(width, height));
+        setOpaque(true);
+        setBackground(Color.DARK_GRAY);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            private Point dragStart;
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAt(e.getPoint(), Math.pow(WHEEL_STEP, -e.getPreciseWheelRotation()));
+            }
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragStart = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (pyramid == null || fitted || dragStart == null) return;
+                centerX -= (e.getX() - dragStart.x) / zoom;
+                centerY -= (e.getY() - dragStart.y) / zoom;
+                dragStart = e.getPoint();
+                viewChanged();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    fitted = true;
+                    viewChanged();
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * Shows another pyramid (null for nothing). The zoom and position are kept when it is the
+     * same size as the one before, as when a progressive stand-in is replaced by the result.
+     */
+    public void setPyramid(ImagePyramid pyramid) {
+        boolean sameSize = this.pyramid != null && pyramid != null
+                && this.pyramid.width() == pyramid.width() && this.pyramid.height() == pyramid.height();
+        this.pyramid = pyramid;
+        if (!sameSize) fitted = true;
+        repaint();
+    }
+
+    public void linkWith(ImageViewer other) {
+        partner = other;
+        other.partner = this;
+    }
+
+    private double fitScale() {
+        return Math.min((double) getWidth() / pyramid.width(), (double) getHeight() / pyramid.height());
+    }
+
+    private void zoomAt(Point point, double factor) {
+        if (pyramid == null) return;
+        if (fitted) {
+            zoom = fitScale();
+            centerX = pyramid.width() / 2.0;
+            centerY = pyramid.height() / 2.0;
+        }
+        // the image point under the cursor stays under it
+        double imageX = centerX + (point.x - getWidth() / 2.0) / zoom;
+        double imageY = centerY + (point.y - getHeight() / 2.0) / zoom;
+        double newZoom = Math.min(MAX_ZOOM, zoom * factor);
+        if (newZoom <= fitScale()) {
+            fitted = true;
+        } else {
+            fitted = false;
+            zoom = newZoom;
+            centerX = imageX - (point.x - getWidth() / 2.0) / zoom;
+            centerY = imageY - (point.y - getHeight() / 2.0) / zoom;
+        }
+        viewChanged();
+    }
+
+    private void viewChanged() {
+        if (!fitted) {
+            // keep some of the image in view
+            centerX = Math.max(0, Math.min(pyramid.width(), centerX));
+            centerY = Math.max(0, Math.min(pyramid.height(), centerY));
+        }
+        repaint();
+        if (partner != null && partner.pyramid != null
+                && partner.pyramid.width() == pyramid.width() && partner.pyramid.height() == pyramid.height()) {
+            partner.fitted = fitted;
+            partner.zoom = zoom;
+            partner.centerX = centerX;
+            partner.centerY = centerY;
+            partner.repaint();
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        graphics.setColor(getBackground());
+        graphics.fillRect(0, 0, getWidth(), getHeight());
+        if (pyramid == null) return;
+
+        double scale = fitted ? fitScale() : zoom;
+        double cx = fitted ? pyramid.width() / 2.0 : centerX;
+        double cy = fitted ? pyramid.height() / 2.0 : centerY;
+
+        // visible part of the image, in full-size pixels
+        double x0 = Math.max(0, cx - getWidth() / 2.0 / scale);
+        double y0 = Math.max(0, cy - getHeight() / 2.0 / scale);
+        double x1 = Math.min(pyramid.width(), cx + getWidth() / 2.0 / scale);
+        double y1 = Math.min(pyramid.height(), cy + getHeight() / 2.0 / scale);
+        if (x0 >= x1 || y0 >= y1) return;
+
+        BufferedImage level = pyramid.levelFor(scale);
+        double levelX = (double) level.getWidth() / pyramid.width();
+        double levelY = (double) level.getHeight() / pyramid.height();
+        int sx0 = (int) Math.floor(x0 * levelX);
+        int sy0 = (int) Math.floor(y0 * levelY);
+        int sx1 = Math.min(level.getWidth(), (int) Math.ceil(x1 * levelX));
+        int sy1 = Math.min(level.getHeight(), (int) Math.ceil(y1 * levelY));
+
+        // the same rectangle on screen
+        int dx0 = (int) Math.round((sx0 / levelX - cx) * scale + getWidth() / 2.0);
+        int dy0 = (int) Math.round((sy0 / levelY - cy) * scale + getHeight() / 2.0);
+        int dx1 = (int) Math.round((sx1 / levelX - cx) * scale + getWidth() / 2.0);
+        int dy1 = (int) Math.round((sy1 / levelY - cy) * scale + getHeight() / 2.0);
+
+        Graphics2D g = (Graphics2D) graphics.create();
+        // sharp pixels once they are a few screen pixels wide, smooth below that
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, scale / levelX >= 3
+                ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(level, dx0, dy0, dx1, dy1, sx0, sy0, sx1, sy1, null);
+        g.dispose();
+    }
+}
@@ -0,0 +1,85 @@
+package GUI;
+
+import metrics.Metrics;
+import metrics.StageStats;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Table of what Metrics.SHARED recorded for the last run: one row per stage with its timing
+ * percentiles, total time, data moved and throughput. With the distributed processor every
+ * worker rank gets a row too, with its share of the pixels, so an unbalanced split stands out.
+ * Export writes the same numbers as CSV or JSON.
+ */
+@SuppressWarnings("serial") // Swing components here are never serialized
+public final class StatsPanel extends JPanel {
+
+    private static final String[] COLUMNS = {"stage", "count", "p50 ms", "p99 ms", "max ms", "total ms",
+            "MB moved", "MB/s", "MP/s", "share"};
+
+    private final DefaultTableModel model = new DefaultTableModel(COLUMNS, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+
+    public StatsPanel() {
+        super(new BorderLayout());
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(110);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JButton exportButton = new JButton("Export...");
+        exportButton.addActionListener(e -> export());
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(exportButton);
+        add(buttons, BorderLayout.SOUTH);
+        setPreferredSize(new Dimension(760, 260));
+    }
+
+    // reloads the table; call on the EDT
+    public void refresh() {
+        List<StageStats> stages = Metrics.SHARED.snapshot();
+        long workerPixels = 0;
+        for (StageStats stage : stages) {
+            if (Metrics.isWorker(stage.getName())) workerPixels += stage.pixels();
+        }
+
+        model.setRowCount(0);
+        for (StageStats stage : stages) {
+            String share = Metrics.isWorker(stage.getName()) && workerPixels > 0
+                    ? String.format("%.1f%%", 100.0 * stage.pixels() / workerPixels) : "";
+            model.addRow(new Object[]{
+                    stage.getName(),
+                    stage.count(),
+                    String.format("%.2f", stage.percentileMs(50)),
+                    String.format("%.2f", stage.percentileMs(99)),
+                    String.format("%.2f", stage.percentileMs(100)),
+                    String.format("%.1f", stage.totalMs()),
+                    String.format("%.1f", stage.bytes() / 1e6),
+                    String.format("%.0f", stage.bytesPerSecond() / 1e6),
+                    String.format("%.1f", stage.pixelsPerSecond() / 1e6),
+                    share
+            });
+        }
+    }
+
+    private void export() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("stage-stats.csv"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            Metrics.SHARED.export(chooser.getSelectedFile());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not write " + chooser.getSelectedFile() + ": " + e.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
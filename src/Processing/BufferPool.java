@@ -0,0 +1,182 @@
+package Processing;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Bounded pool of byte arrays for output rasters, intermediates and chunk buffers, so that a
+ * steady stream of same-sized images stops allocating a fresh multi-megabyte array per step.
+ * <p>
+ * Arrays are grouped in size classes: below MIN_SIZE everything is one class, above it every
+ * power of two is split into four steps, so a taken array is at most 25% larger than asked for.
+ * take hands out the most recently returned array of the class (still warm in cache) or
+ * allocates one of the full class size. Arrays returned with give are kept until the retained
+ * bytes would pass maxRetainedBytes; then the oldest arrays of the class holding the most bytes
+ * are dropped for the GC.
+ * <p>
+ * Taken arrays are not cleared, so they are only for buffers that get overwritten entirely.
+ * Giving back an array that is still in use anywhere else is a bug in the caller.
+ */
+public final class BufferPool {
+
+    private static final int MIN_BITS = 12;
+    public static final int MIN_SIZE = 1 << MIN_BITS;
+    // larger arrays are allocated exactly and never kept
+    public static final int MAX_POOLED = 1 << 30;
+    private static final int STEPS = 4;
+    private static final int CLASSES = 1 + (30 - MIN_BITS) * STEPS;
+
+    // what the processors draw from; an eighth of the heap at most
+    public static final BufferPool SHARED = new BufferPool(Runtime.getRuntime().maxMemory() / 8);
+
+    private final long maxRetainedBytes;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<byte[]>[] free = new ArrayDeque[CLASSES];
+    private final long[] classBytes = new long[CLASSES];
+
+    private long retainedBytes;
+    private long hits;
+    private long misses;
+    private long allocatedBytes;
+    private long evictions;
+
+    public BufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = Math.max(0, maxRetainedBytes);
+        for (int c = 0; c < CLASSES; c++) {
+            free[c] = new ArrayDeque<>();
+        }
+    }
+
+    // class whose size is the smallest one holding length bytes
+    static int classOf(int length) {
+        if (length <= MIN_SIZE) return 0;
+        int bits = 31 - Integer.numberOfLeadingZeros(length - 1);   // 2^bits < length <= 2^(bits + 1)
+        int step = (length - 1 - (1 << bits)) >> (bits - 2);
+        return 1 + (bits - MIN_BITS) * STEPS + step;
+    }
+
+    static int classSize(int sizeClass) {
+        if (sizeClass == 0) return MIN_SIZE;
+        int bits = MIN_BITS + (sizeClass - 1) / STEPS;
+        int step = (sizeClass - 1) % STEPS;
+        return (1 << bits) + ((step + 1) << (bits - 2));
+    }
+
+    // largest class an array of this length can serve every request of
+    private static int classServedBy(int length) {
+        int sizeClass = classOf(length);
+        return classSize(sizeClass) > length ? sizeClass - 1 : sizeClass;
+    }
+
+    /** An array of at least length bytes, with undefined contents. */
+    public byte[] take(int length) {
+        if (length > MAX_POOLED) {
+            synchronized (this) {
+                misses++;
+                allocatedBytes += length;
+            }
+            return new byte[length];
+        }
+        int sizeClass = classOf(length);
+        synchronized (this) {
+            byte[] buffer = free[sizeClass].pollLast();
+            if (buffer != null) {
+                hits++;
+                classBytes[sizeClass] -= buffer.length;
+                retainedBytes -= buffer.length;
+                return buffer;
+            }
+            misses++;
+            allocatedBytes += classSize(sizeClass);
+        }
+        return new byte[classSize(sizeClass)];
+    }
+
+    /** Hands an array back for reuse. The caller must not touch it afterwards. */
+    public void give(byte[] buffer) {
+        if (buffer == null || buffer.length < MIN_SIZE || buffer.length > MAX_POOLED) return;
+        int sizeClass = classServedBy(buffer.length);
+        synchronized (this) {
+            if (buffer.length > maxRetainedBytes) {
+                evictions++;
+                return;
+            }
+            free[sizeClass].addLast(buffer);
+            classBytes[sizeClass] += buffer.length;
+            retainedBytes += buffer.length;
+            while (retainedBytes > maxRetainedBytes) {
+                evictOldest();
+            }
+        }
+    }
+
+    private void evictOldest() {
+        int largest = 0;
+        for (int c = 1; c < CLASSES; c++) {
+            if (classBytes[c] > classBytes[largest]) largest = c;
+        }
+        byte[] evicted = free[largest].pollFirst();
+        classBytes[largest] -= evicted.length;
+        retainedBytes -= evicted.length;
+        evictions++;
+    }
+
+    // width x height gray image over a pooled array, for release() once it is no longer needed
+    public GrayImage gray(int width, int height) {
+        return new GrayImage(take(width * height), 0, width, width, height);
+    }
+
+    // the same as a TYPE_BYTE_GRAY BufferedImage
+    public BufferedImage grayImage(int width, int height) {
+        return gray(width, height).toBufferedImage();
+    }
+
+    public void release(GrayImage image) {
+        if (image != null) give(image.data);
+    }
+
+    /**
+     * Gives back the array behind a gray image the caller owns outright (not a sub image of
+     * something still in use). Other image types are left alone.
+     */
+    public void release(BufferedImage image) {
+        if (image == null || image.getType() != BufferedImage.TYPE_BYTE_GRAY) return;
+        if (image.getRaster().getSampleModel() instanceof ComponentSampleModel
+                && image.getRaster().getDataBuffer() instanceof DataBufferByte buffer) {
+            give(buffer.getData());
+        }
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    // bytes held in free arrays right now
+    public synchronized long retainedBytes() {
+        return retainedBytes;
+    }
+
+    // bytes of all arrays the pool had to allocate because nothing fitting was free
+    public synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized String summary() {
+        long requests = hits + misses;
+        return String.format(Locale.ROOT, "buffer pool: %d hits, %d misses (%.1f%% hit rate), %.1f MB allocated, "
+                        + "%.1f MB retained of %.1f MB, %d evictions",
+                hits, misses, requests == 0 ? 0.0 : 100.0 * hits / requests, allocatedBytes / 1e6,
+                retainedBytes / 1e6, maxRetainedBytes / 1e6, evictions);
+    }
+}
@@ -0,0 +1,386 @@
+package Processing;
+
+import Constants.CONSTANTS;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decorator that remembers what another processor computed, so re-running the same image with
+ * the same kernel returns at once and switching kernels on the same image skips decode and
+ * grayscale conversion.
+ * <p>
+ * Keys are a 64-bit hash of the input file's bytes, the kernel taps (or the whole filter
+ * pipeline, fixed-point scales included) and the delegate's class
+ * (the distributed processor's gray differs from the others, option flags never change the
+ * bytes). Two levels:
+ * <ul>
+ *     <li>memory: an LRU of gray intermediates and results, bounded by their total bytes;</li>
+ *     <li>disk: results as raw gray files under OUTPUT_IMAGES_DIRECTORY/cache, bounded the same
+ *     way, oldest written or read dropped first, so they survive restarts.</li>
+ * </ul>
+ * Callers always get their own copy (from BufferPool.SHARED), so they may keep, change or
+ * release it. The BufferedImage and GrayImage steps and processImagesAsync go straight to the
+ * delegate uncached.
+ */
+public class CachingProcessor implements IMGProcessor {
+
+    public static final File DEFAULT_DISK_DIRECTORY = new File(CONSTANTS.OUTPUT_IMAGES_DIRECTORY, "cache");
+    public static final long DEFAULT_DISK_BYTES = 1L << 30;
+
+    private static final int DISK_MAGIC = 0x4B494331; // "KIC1"
+    private static final long HASH_PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long HASH_PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final IMGProcessor delegate;
+    private final long maxMemoryBytes;
+    private final File diskDirectory; // null = memory only
+    private final long maxDiskBytes;
+
+    // access-ordered, eldest first; values are owned by the cache and go back to the pool on eviction
+    private final LinkedHashMap<String, GrayImage> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private long hits;
+    private long diskHits;
+    private long grayHits;
+    private long misses;
+    private volatile String lastLookup = "none";
+
+    public CachingProcessor(IMGProcessor delegate) {
+        this(delegate, Runtime.getRuntime().maxMemory() / 8, DEFAULT_DISK_DIRECTORY, DEFAULT_DISK_BYTES);
+    }
+
+    public CachingProcessor(IMGProcessor delegate, long maxMemoryBytes, File diskDirectory, long maxDiskBytes) {
+        this.delegate = delegate;
+        this.maxMemoryBytes = Math.max(0, maxMemoryBytes);
+        this.diskDirectory = diskDirectory;
+        this.maxDiskBytes = Math.max(0, maxDiskBytes);
+    }
+
+    public IMGProcessor getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public BufferedImage convertToGrayscale(BufferedImage colorImage) {
+        return delegate.convertToGrayscale(colorImage);
+    }
+
+    @Override
+    public BufferedImage applyConvolution(BufferedImage inputImage, int[][] kernel) {
+        return delegate.applyConvolution(inputImage, kernel);
+    }
+
+    @Override
+    public GrayImage convertToGrayscale(RgbImage colorImage) {
+        return delegate.convertToGrayscale(colorImage);
+    }
+
+    @Override
+    public GrayImage applyConvolution(GrayImage inputImage, int[][] kernel) {
+        return delegate.applyConvolution(inputImage, kernel);
+    }
+
+    @Override
+    public GrayImage applyPipeline(GrayImage inputImage, FilterPipeline pipeline) {
+        return delegate.applyPipeline(inputImage, pipeline);
+    }
+
+    @Override
+    public GrayImage applyPipeline(GrayImage inputImage, FilterPipeline pipeline, BandListener listener) {
+        return delegate.applyPipeline(inputImage, pipeline, listener);
+    }
+
+    @Override
+    public GrayImage processImage(RgbImage colorImage, int[][] kernel) {
+        return delegate.processImage(colorImage, kernel);
+    }
+
+    @Override
+    public List<CompletableFuture<BufferedImage>> processImagesAsync(List<String> inputFilePaths, int[][] kernel) {
+        return delegate.processImagesAsync(inputFilePaths, kernel);
+    }
+
+    @Override
+    public BufferedImage processImage(String inputFilePath, int[][] kernel) {
+        return process(inputFilePath, FilterPipeline.of(kernel), false, null);
+    }
+
+    @Override
+    public BufferedImage processImage(String inputFilePath, FilterPipeline pipeline) {
+        return process(inputFilePath, pipeline, false, null);
+    }
+
+    // a cached result is reported as one band covering the whole image
+    @Override
+    public BufferedImage processImage(String inputFilePath, FilterPipeline pipeline, BandListener listener) {
+        return process(inputFilePath, pipeline, false, listener);
+    }
+
+    // a cached gray intermediate is used as is; otherwise the delegate's fused pass runs and only the result is kept
+    @Override
+    public BufferedImage processImageFused(String inputFilePath, int[][] kernel) {
+        return process(inputFilePath, FilterPipeline.of(kernel), true, null);
+    }
+
+    // listener may be null
+    private BufferedImage process(String inputFilePath, FilterPipeline pipeline, boolean fused, BandListener listener) {
+        long contentHash;
+        try {
+            contentHash = contentHash(new File(inputFilePath));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        String grayKey = "gray-" + hex(contentHash) + "-" + delegate.getClass().getName();
+        String resultKey = hex(contentHash) + "-" + hex(pipelineHash(pipeline)) + "-" + hex(mix(delegate.getClass().getName().hashCode()));
+
+        GrayImage result = lookup(resultKey);
+        if (result != null) {
+            record("memory hit");
+            if (listener != null) listener.bandDone(result, 0, result.height);
+            return result.toBufferedImage();
+        }
+        result = readDisk(resultKey);
+        if (result != null) {
+            record("disk hit");
+            store(resultKey, result);
+            GrayImage output = copy(result);
+            if (listener != null) listener.bandDone(output, 0, output.height);
+            return output.toBufferedImage();
+        }
+
+        GrayImage grayImage = lookup(grayKey);
+        if (grayImage != null) {
+            record("gray hit");
+            result = listener == null ? delegate.applyPipeline(grayImage, pipeline)
+                    : delegate.applyPipeline(grayImage, pipeline, listener);
+            BufferPool.SHARED.release(grayImage);
+        } else {
+            record("miss");
+            if (fused && pipeline.singleKernel() != null) {
+                BufferedImage output = delegate.processImageFused(inputFilePath, pipeline.singleKernel());
+                if (output == null) return null;
+                result = GrayImage.wrap(output);
+            } else {
+                BufferedImage colorImage;
+                try {
+                    colorImage = ImageDecoder.read(inputFilePath);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+                if (colorImage == null) return null;
+                grayImage = delegate.convertToGrayscale(RgbImage.wrap(colorImage));
+                result = listener == null ? delegate.applyPipeline(grayImage, pipeline)
+                        : delegate.applyPipeline(grayImage, pipeline, listener);
+                store(grayKey, grayImage);
+            }
+        }
+        if (result == null) return null;
+
+        writeDisk(resultKey, result);
+        store(resultKey, result);
+        return copy(result).toBufferedImage();
+    }
+
+    // the caller's own copy of a cached image, or null
+    private synchronized GrayImage lookup(String key) {
+        GrayImage image = memory.get(key);
+        return image == null ? null : copy(image);
+    }
+
+    // takes ownership of image
+    private synchronized void store(String key, GrayImage image) {
+        long bytes = (long) image.width * image.height;
+        if (bytes > maxMemoryBytes) return;
+        GrayImage previous = memory.put(key, image);
+        memoryBytes += bytes;
+        if (previous != null && previous != image) {
+            memoryBytes -= (long) previous.width * previous.height;
+            BufferPool.SHARED.release(previous);
+        }
+        Iterator<Map.Entry<String, GrayImage>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            GrayImage evicted = eldest.next().getValue();
+            eldest.remove();
+            memoryBytes -= (long) evicted.width * evicted.height;
+            BufferPool.SHARED.release(evicted);
+        }
+    }
+
+    private synchronized void record(String lookup) {
+        switch (lookup) {
+            case "memory hit" -> hits++;
+            case "disk hit" -> diskHits++;
+            case "gray hit" -> grayHits++;
+            default -> misses++;
+        }
+        lastLookup = lookup;
+    }
+
+    private static GrayImage copy(GrayImage image) {
+        GrayImage copy = BufferPool.SHARED.gray(image.width, image.height);
+        for (int y = 0; y < image.height; y++) {
+            System.arraycopy(image.data, image.offset + y * image.stride, copy.data, y * copy.stride, image.width);
+        }
+        return copy;
+    }
+
+    // ---- disk level: {magic, width, height} followed by the rows ----
+
+    private GrayImage readDisk(String key) {
+        if (diskDirectory == null) return null;
+        File file = new File(diskDirectory, key + ".gray");
+        if (!file.isFile()) return null;
+        try (InputStream in = Files.newInputStream(file.toPath());
+             DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != DISK_MAGIC) return null;
+            int width = data.readInt();
+            int height = data.readInt();
+            GrayImage image = BufferPool.SHARED.gray(width, height);
+            data.readFully(image.data, 0, width * height);
+            // reads count as use for the oldest-first pruning
+            file.setLastModified(System.currentTimeMillis());
+            return image;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable cache file " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, GrayImage image) {
+        if (diskDirectory == null || (long) image.width * image.height > maxDiskBytes) return;
+        if (!diskDirectory.isDirectory() && !diskDirectory.mkdirs()) return;
+        File file = new File(diskDirectory, key + ".gray");
+        File partial;
+        try {
+            // one per writer: two threads that miss on the same key must not share it
+            partial = Files.createTempFile(diskDirectory.toPath(), key, ".part").toFile();
+        } catch (IOException e) {
+            System.err.println("Could not write cache file " + file + ": " + e.getMessage());
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(partial.toPath());
+             DataOutputStream data = new DataOutputStream(out)) {
+            data.writeInt(DISK_MAGIC);
+            data.writeInt(image.width);
+            data.writeInt(image.height);
+            for (int y = 0; y < image.height; y++) {
+                data.write(image.data, image.offset + y * image.stride, image.width);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write cache file " + file + ": " + e.getMessage());
+            partial.delete();
+            return;
+        }
+        try {
+            // readers never see a half-written file
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            partial.delete();
+            return;
+        }
+        pruneDisk();
+    }
+
+    private synchronized void pruneDisk() {
+        File[] files = diskDirectory.listFiles((dir, name) -> name.endsWith(".gray"));
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) total += file.length();
+        if (total <= maxDiskBytes) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= maxDiskBytes) break;
+            long length = file.length();
+            if (file.delete()) total -= length;
+        }
+    }
+
+    // ---- keys ----
+
+    /**
+     * 64-bit hash of a file's bytes, read in large blocks 8 bytes at a time. Not cryptographic;
+     * it only has to tell different images apart, at close to disk speed.
+     */
+    static long contentHash(File file) throws IOException {
+        long hash = file.length() * HASH_PRIME_1;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (true) {
+                int read = channel.read(buffer);
+                buffer.flip();
+                while (buffer.remaining() >= Long.BYTES) {
+                    hash = Long.rotateLeft(hash ^ buffer.getLong() * HASH_PRIME_2, 31) * HASH_PRIME_1;
+                }
+                if (read < 0) {
+                    while (buffer.hasRemaining()) {
+                        hash = Long.rotateLeft(hash ^ (buffer.get() & 0xFF) * HASH_PRIME_2, 11) * HASH_PRIME_1;
+                    }
+                    break;
+                }
+                buffer.compact();
+            }
+        }
+        return mix(hash);
+    }
+
+    static long pipelineHash(FilterPipeline pipeline) {
+        int[] flat = pipeline.toArray();
+        long hash = mix(flat.length);
+        for (int value : flat) {
+            hash = Long.rotateLeft(hash ^ value * HASH_PRIME_2, 31) * HASH_PRIME_1;
+        }
+        return mix(hash);
+    }
+
+    // final avalanche so every input bit reaches every output bit
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static String hex(long value) {
+        return String.format("%016x", value);
+    }
+
+    // ---- metrics ----
+
+    // "memory hit", "disk hit", "gray hit" or "miss", for the most recent processImage call
+    public String lastLookup() {
+        return lastLookup;
+    }
+
+    public synchronized String summary() {
+        return String.format("result cache: %d memory hits, %d disk hits, %d gray hits, %d misses, %.1f MB in memory",
+                hits, diskHits, grayHits, misses, memoryBytes / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
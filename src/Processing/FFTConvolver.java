@@ -0,0 +1,275 @@
+package Processing;
+
+import java.util.Arrays;
+
+/**
+ * Pure Java FFT convolution for large kernels.
+ * <p>
+ * The image is cut into square output blocks. Each block is computed independently from an
+ * N x N input patch (block plus kernel halo, zero outside the image) with a 2D radix-2 FFT,
+ * so memory stays at a few N x N buffers whatever the image or kernel size, and row bands can
+ * be handed to different threads. Two patches are packed into one complex FFT (one in the real
+ * part, one in the imaginary part), which works because the kernel is real.
+ * <p>
+ * Results are rounded back to integers and wrapped to int exactly like the direct accumulator,
+ * so the output matches the direct loop byte for byte as long as the sum fits in the exact
+ * range of a double, which accepts() checks.
+ */
+public final class FFTConvolver {
+
+    // below this many non-zero taps the direct loop wins (see benchmark.FFTCrossoverBenchmark)
+    public static final int MIN_TAPS = 49;
+    // same crossover against LaneConvolver, which stays ahead for longer
+    public static final int MIN_TAPS_LANES = 121;
+
+    private static final int MIN_FFT_SIZE = 16;
+    private static final int MAX_FFT_SIZE = 512;
+    // keep |result| well inside the 2^53 exact range, leaving room for rounding noise
+    private static final double MAX_ABS_SUM = (double) (1L << 40);
+
+    private FFTConvolver() {
+    }
+
+    // true when the FFT path is both worth it and guaranteed exact for this kernel
+    public static boolean accepts(int[][] kernel) {
+        return accepts(kernel, false);
+    }
+
+    // lanes: compare against LaneConvolver instead of the scalar direct loop
+    public static boolean accepts(int[][] kernel, boolean lanes) {
+        int taps = 0;
+        double absSum = 0;
+        for (int[] kernelRow : kernel) {
+            for (int value : kernelRow) {
+                if (value != 0) taps++;
+                absSum += Math.abs((double) value);
+            }
+        }
+        int largest = Math.max(kernel.length, kernel[0].length);
+        return taps >= (lanes ? MIN_TAPS_LANES : MIN_TAPS) && absSum * 255 < MAX_ABS_SUM && 2 * largest <= MAX_FFT_SIZE;
+    }
+
+    /**
+     * FFT size for a kernel applied to a rows x cols region: the power of two with the lowest
+     * cost per output pixel, N^2 log N over the part of the N - k + 1 block that is actually used.
+     */
+    public static int fftSize(int[][] kernel, int rows, int cols) {
+        int best = 0;
+        double bestCost = Double.MAX_VALUE;
+        for (int n = MIN_FFT_SIZE; n <= MAX_FFT_SIZE; n <<= 1) {
+            int blockHeight = n - kernel.length + 1;
+            int blockWidth = n - kernel[0].length + 1;
+            if (blockHeight < 1 || blockWidth < 1) continue;
+            double used = (double) Math.min(blockHeight, Math.max(1, rows)) * Math.min(blockWidth, Math.max(1, cols));
+            double cost = (double) n * n * Integer.numberOfTrailingZeros(n) / used;
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = n;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Same contract as GrayRaster.convolveRows: output rows [y0, y1) of a width x height image,
+     * zero padding outside the image.
+     */
+    public static void convolveRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                                    int width, int height, int[][] kernel,
+                                    byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                    int y0, int y1) {
+        convolveRows(src, srcOff, srcStride, decode, width, height, kernel, FixedPoint.IDENTITY,
+                dst, dstOff, dstStride, encode, y0, y1);
+    }
+
+    // with the rounded sums going through a fixed-point scale before clamping
+    public static void convolveRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                                    int width, int height, int[][] kernel, FixedPoint scale,
+                                    byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                    int y0, int y1) {
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+        int centerY = kernelHeight / 2;
+        int centerX = kernelWidth / 2;
+        int n = fftSize(kernel, y1 - y0, width);
+        int blockHeight = n - kernelHeight + 1;
+        int blockWidth = n - kernelWidth + 1;
+
+        Transform transform = new Transform(n);
+
+        // kernel spectrum, kernel placed at the origin of an N x N grid
+        double[] kernelRe = new double[n * n];
+        double[] kernelIm = new double[n * n];
+        for (int i = 0; i < kernelHeight; i++) {
+            for (int j = 0; j < kernelWidth; j++) {
+                kernelRe[i * n + j] = kernel[i][j];
+            }
+        }
+        transform.forward2d(kernelRe, kernelIm);
+
+        double[] re = new double[n * n];
+        double[] im = new double[n * n];
+
+        // blocks are taken in pairs: block A in the real part, block B in the imaginary part
+        int blocksPerRow = (width + blockWidth - 1) / blockWidth;
+        for (int by = y0; by < y1; by += blockHeight) {
+            int rows = Math.min(blockHeight, y1 - by);
+            for (int b = 0; b < blocksPerRow; b += 2) {
+                int bxA = b * blockWidth;
+                int bxB = (b + 1) * blockWidth;
+                boolean hasB = bxB < width;
+
+                loadPatch(src, srcOff, srcStride, decode, width, height, n, by - centerY, bxA - centerX, re);
+                if (hasB) {
+                    loadPatch(src, srcOff, srcStride, decode, width, height, n, by - centerY, bxB - centerX, im);
+                } else {
+                    Arrays.fill(im, 0);
+                }
+
+                transform.forward2d(re, im);
+                // correlation = inverse(P * conj(K)); the kernel is real so the packing survives
+                for (int i = 0; i < n * n; i++) {
+                    double pr = re[i];
+                    double pi = im[i];
+                    double kr = kernelRe[i];
+                    double ki = -kernelIm[i];
+                    re[i] = pr * kr - pi * ki;
+                    im[i] = pr * ki + pi * kr;
+                }
+                transform.inverse2d(re, im);
+
+                storeBlock(re, n, by, bxA, rows, Math.min(blockWidth, width - bxA), dst, dstOff, dstStride, encode, scale);
+                if (hasB) {
+                    storeBlock(im, n, by, bxB, rows, Math.min(blockWidth, width - bxB), dst, dstOff, dstStride, encode, scale);
+                }
+            }
+        }
+    }
+
+    // N x N patch whose top-left pixel is (patchX, patchY); pixels outside the image are zero
+    private static void loadPatch(byte[] src, int srcOff, int srcStride, int[] decode,
+                                  int width, int height, int n, int patchY, int patchX, double[] out) {
+        for (int i = 0; i < n; i++) {
+            int y = patchY + i;
+            int rowStart = i * n;
+            if (y < 0 || y >= height) {
+                Arrays.fill(out, rowStart, rowStart + n, 0);
+                continue;
+            }
+            int from = Math.max(0, -patchX);
+            int to = Math.min(n, width - patchX);
+            int srcRow = srcOff + y * srcStride + patchX;
+            for (int j = 0; j < from; j++) out[rowStart + j] = 0;
+            for (int j = from; j < to; j++) out[rowStart + j] = decode[src[srcRow + j] & 0xFF];
+            for (int j = Math.max(from, to); j < n; j++) out[rowStart + j] = 0;
+        }
+    }
+
+    private static void storeBlock(double[] values, int n, int blockY, int blockX, int rows, int cols,
+                                   byte[] dst, int dstOff, int dstStride, byte[] encode, FixedPoint scale) {
+        boolean plain = scale.isIdentity();
+        for (int i = 0; i < rows; i++) {
+            int dstRow = dstOff + (blockY + i) * dstStride + blockX;
+            for (int j = 0; j < cols; j++) {
+                // (int) of the rounded long wraps the same way the int accumulator does
+                int accumulator = (int) Math.round(values[i * n + j]);
+                dst[dstRow + j] = encode[GrayRaster.output(accumulator, plain, scale)];
+            }
+        }
+    }
+
+    /**
+     * Iterative radix-2 complex FFT of size N applied to the rows and columns of an N x N grid.
+     * Twiddles and the bit-reversal permutation are computed once per instance.
+     */
+    static final class Transform {
+        private final int n;
+        private final double[] cos;
+        private final double[] sin;
+        private final int[] reversed;
+        private final double[] columnRe;
+        private final double[] columnIm;
+
+        Transform(int n) {
+            this.n = n;
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for (int i = 0; i < n / 2; i++) {
+                cos[i] = Math.cos(2 * Math.PI * i / n);
+                sin[i] = Math.sin(2 * Math.PI * i / n);
+            }
+            reversed = new int[n];
+            int bits = Integer.numberOfTrailingZeros(n);
+            for (int i = 0; i < n; i++) {
+                reversed[i] = Integer.reverse(i) >>> (32 - bits);
+            }
+            columnRe = new double[n];
+            columnIm = new double[n];
+        }
+
+        void forward2d(double[] re, double[] im) {
+            transform2d(re, im, false);
+        }
+
+        void inverse2d(double[] re, double[] im) {
+            transform2d(re, im, true);
+            double scale = 1.0 / ((double) n * n);
+            for (int i = 0; i < n * n; i++) {
+                re[i] *= scale;
+                im[i] *= scale;
+            }
+        }
+
+        private void transform2d(double[] re, double[] im, boolean inverse) {
+            for (int row = 0; row < n; row++) {
+                transform(re, im, row * n, inverse);
+            }
+            // columns are copied out so the butterflies run on contiguous memory
+            for (int col = 0; col < n; col++) {
+                for (int i = 0; i < n; i++) {
+                    columnRe[i] = re[i * n + col];
+                    columnIm[i] = im[i * n + col];
+                }
+                transform(columnRe, columnIm, 0, inverse);
+                for (int i = 0; i < n; i++) {
+                    re[i * n + col] = columnRe[i];
+                    im[i * n + col] = columnIm[i];
+                }
+            }
+        }
+
+        // in-place transform of re/im[offset .. offset + n)
+        private void transform(double[] re, double[] im, int offset, boolean inverse) {
+            for (int i = 0; i < n; i++) {
+                int j = reversed[i];
+                if (j > i) {
+                    double t = re[offset + i];
+                    re[offset + i] = re[offset + j];
+                    re[offset + j] = t;
+                    t = im[offset + i];
+                    im[offset + i] = im[offset + j];
+                    im[offset + j] = t;
+                }
+            }
+            double sign = inverse ? 1 : -1;
+            for (int size = 2; size <= n; size <<= 1) {
+                int half = size >> 1;
+                int step = n / size;
+                for (int start = 0; start < n; start += size) {
+                    for (int k = 0; k < half; k++) {
+                        double wr = cos[k * step];
+                        double wi = sign * sin[k * step];
+                        int a = offset + start + k;
+                        int b = a + half;
+                        double xr = re[b] * wr - im[b] * wi;
+                        double xi = re[b] * wi + im[b] * wr;
+                        re[b] = re[a] - xr;
+                        im[b] = im[a] - xi;
+                        re[a] += xr;
+                        im[a] += xi;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package Processing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An ordered chain of filter stages run as one pass: convolution kernels and per-pixel point
+ * operations (256-entry lookup tables over gray values), e.g. blur -> sharpen -> threshold.
+ * <p>
+ * The result is the same bytes as running the stages one after the other on full images
+ * (applyConvolution for every kernel, each point operation as its own step), but no full-size
+ * intermediate is ever built:
+ * <ul>
+ *     <li>point operations fold into the decode table of the kernel after them or the encode
+ *     table of the kernel before them, so they cost nothing;</li>
+ *     <li>kernels run in bands of rows. A band is read with a halo of the combined radius of all
+ *     kernels, and every stage only produces the rows the stages after it still need, so the
+ *     halo shrinks by one kernel radius per stage. Only two band-sized buffers are live.</li>
+ * </ul>
+ * Bands are full-width tiles, so rows of the source and the result stay contiguous, which is how
+ * every processor already splits its work. Pipelines are immutable; the builder methods return
+ * a new one.
+ * <p>
+ * Kernels with fractional weights, a divisor or an offset (Kernel) are stored compiled, as
+ * integer taps plus the FixedPoint scale their sums go through, so they take the same integer
+ * loops; the scale is applied before the encode table, so point operations still fold around it.
+ */
+public final class FilterPipeline {
+
+    // output rows per band, unless the combined halo asks for more
+    private static final int MIN_BAND_ROWS = 64;
+
+    private static final int KERNEL_STAGE = 0;
+    private static final int POINT_STAGE = 1;
+
+    // exactly one of kernel (with its scale) and lut is set; lut maps a gray value 0-255 to the new one
+    private record Stage(int[][] kernel, FixedPoint scale, int[] lut) {
+    }
+
+    private final List<Stage> stages;
+
+    private FilterPipeline(List<Stage> stages) {
+        this.stages = Collections.unmodifiableList(stages);
+    }
+
+    public static FilterPipeline empty() {
+        return new FilterPipeline(new ArrayList<>());
+    }
+
+    public static FilterPipeline of(int[][]... kernels) {
+        FilterPipeline pipeline = empty();
+        for (int[][] kernel : kernels) {
+            pipeline = pipeline.convolve(kernel);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Comma separated stages, applied left to right: kernel presets or kernel files (anything
+     * Kernels.resolveKernel takes), "invert", "threshold:T" and "gamma:G". Example: "box,sharpen,edge".
+     */
+    public static FilterPipeline parse(String spec) throws IOException {
+        FilterPipeline pipeline = empty();
+        for (String token : spec.split(",")) {
+            String stage = token.trim();
+            if (stage.isEmpty()) continue;
+            String name = stage.toLowerCase(Locale.ROOT);
+            try {
+                if (name.equals("invert")) {
+                    pipeline = pipeline.invert();
+                } else if (name.startsWith("threshold:")) {
+                    pipeline = pipeline.threshold(Integer.parseInt(name.substring("threshold:".length())));
+                } else if (name.startsWith("gamma:")) {
+                    pipeline = pipeline.gamma(Double.parseDouble(name.substring("gamma:".length())));
+                } else {
+                    pipeline = pipeline.convolve(Kernels.resolveKernel(stage));
+                }
+            } catch (IllegalArgumentException e) {
+                // unreadable numbers, or a kernel the fixed-point path cannot run accurately
+                throw new IOException("Bad pipeline stage '" + stage + "': " + e.getMessage(), e);
+            }
+        }
+        if (pipeline.stages.isEmpty()) throw new IOException("Empty pipeline '" + spec + "'");
+        return pipeline;
+    }
+
+    public FilterPipeline convolve(int[][] kernel) {
+        if (kernel.length == 0 || kernel[0].length == 0) {
+            throw new IllegalArgumentException("Empty kernel");
+        }
+        int[][] copy = new int[kernel.length][];
+        for (int i = 0; i < kernel.length; i++) {
+            if (kernel[i].length != kernel[0].length) throw new IllegalArgumentException("Ragged kernel");
+            copy[i] = kernel[i].clone();
+        }
+        return with(new Stage(copy, FixedPoint.IDENTITY, null));
+    }
+
+    // integer kernels stay as they are, anything else runs on its fixed-point taps; throws
+    // IllegalArgumentException for a kernel Kernel.compile rejects
+    public FilterPipeline convolve(Kernel kernel) {
+        Kernel.Fixed fixed = kernel.compile();
+        return with(new Stage(fixed.taps(), fixed.scale(), null));
+    }
+
+    // gray value v becomes op(v), clamped to 0-255
+    public FilterPipeline map(IntUnaryOperator op) {
+        int[] lut = new int[256];
+        for (int v = 0; v < 256; v++) {
+            lut[v] = GrayRaster.clamp(op.applyAsInt(v));
+        }
+        return with(new Stage(null, null, lut));
+    }
+
+    public FilterPipeline invert() {
+        return map(v -> 255 - v);
+    }
+
+    // 255 from threshold up, 0 below
+    public FilterPipeline threshold(int threshold) {
+        return map(v -> v >= threshold ? 255 : 0);
+    }
+
+    public FilterPipeline gamma(double gamma) {
+        return map(v -> (int) Math.round(255 * Math.pow(v / 255.0, gamma)));
+    }
+
+    private FilterPipeline with(Stage stage) {
+        List<Stage> next = new ArrayList<>(stages);
+        next.add(stage);
+        return new FilterPipeline(next);
+    }
+
+    // the kernel when the whole pipeline is one plain integer convolution, so callers can keep their own path for it
+    public int[][] singleKernel() {
+        if (stages.size() != 1) return null;
+        Stage stage = stages.get(0);
+        return stage.kernel() != null && stage.scale().isIdentity() ? stage.kernel() : null;
+    }
+
+    public boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    // rows a band needs above its own, the combined radius of all kernels
+    public int haloTop() {
+        int halo = 0;
+        for (Stage stage : stages) {
+            if (stage.kernel() != null) halo += stage.kernel().length / 2;
+        }
+        return halo;
+    }
+
+    public int haloBottom() {
+        int halo = 0;
+        for (Stage stage : stages) {
+            if (stage.kernel() != null) halo += stage.kernel().length - 1 - stage.kernel().length / 2;
+        }
+        return halo;
+    }
+
+    // summed kernel heights, as a per-pixel cost estimate for band sizing
+    public int kernelRows() {
+        int rows = 0;
+        for (Stage stage : stages) {
+            if (stage.kernel() != null) rows += stage.kernel().length;
+        }
+        return rows;
+    }
+
+    public void applyRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                          int width, int height,
+                          byte[] dst, int dstOff, int dstStride, byte[] encode,
+                          int y0, int y1) {
+        applyRows(src, srcOff, srcStride, decode, width, height, dst, dstOff, dstStride, encode, y0, y1, false);
+    }
+
+    /**
+     * Output rows [y0, y1) of the whole pipeline over a width x height image, with the same
+     * addressing and decode/encode tables as GrayRaster.convolveRows (lanes is passed on to it).
+     * Row bands can be run independently; each one reads only the source rows its halo needs.
+     */
+    public void applyRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                          int width, int height,
+                          byte[] dst, int dstOff, int dstStride, byte[] encode,
+                          int y0, int y1, boolean lanes) {
+        if (y0 >= y1) return;
+        Compiled compiled = compile(decode, encode);
+        int[][][] kernels = compiled.kernels;
+        int n = kernels.length;
+
+        if (n == 0) {
+            byte[] table = compiled.table;
+            for (int y = y0; y < y1; y++) {
+                int in = srcOff + y * srcStride;
+                int out = dstOff + y * dstStride;
+                for (int x = 0; x < width; x++) {
+                    dst[out + x] = table[src[in + x] & 0xFF];
+                }
+            }
+            return;
+        }
+        if (n == 1) {
+            GrayRaster.convolveRows(src, srcOff, srcStride, compiled.decodes[0], width, height, kernels[0],
+                    compiled.scales[0], dst, dstOff, dstStride, compiled.encodes[0], y0, y1, lanes);
+            return;
+        }
+
+        int haloTop = haloTop();
+        int haloBottom = haloBottom();
+        int bandRows = Math.min(y1 - y0, Math.max(MIN_BAND_ROWS, 4 * (haloTop + haloBottom)));
+        int bufferLength = (bandRows + haloTop + haloBottom) * width;
+        byte[][] buffers = {BufferPool.SHARED.take(bufferLength), BufferPool.SHARED.take(bufferLength)};
+        // rows [lo[i], hi[i]) of stage i's output are what the stages after it read for this band
+        int[] lo = new int[n];
+        int[] hi = new int[n];
+        try {
+            for (int bandStart = y0; bandStart < y1; bandStart += bandRows) {
+                lo[n - 1] = bandStart;
+                hi[n - 1] = Math.min(y1, bandStart + bandRows);
+                for (int i = n - 1; i > 0; i--) {
+                    lo[i - 1] = Math.max(0, lo[i] - kernels[i].length / 2);
+                    hi[i - 1] = Math.min(height, hi[i] + kernels[i].length - 1 - kernels[i].length / 2);
+                }
+
+                // first kernel straight from the source; row r of its output lands in row r - lo[0]
+                GrayRaster.convolveRows(src, srcOff, srcStride, compiled.decodes[0], width, height, kernels[0],
+                        compiled.scales[0], buffers[0], -lo[0] * width, width, compiled.encodes[0], lo[0], hi[0], lanes);
+
+                // every later kernel sees the previous band as an image of its own: all the rows it
+                // reads are inside it, and its edges are image edges wherever it was clipped
+                for (int i = 1; i < n; i++) {
+                    byte[] in = buffers[(i - 1) & 1];
+                    int inRows = hi[i - 1] - lo[i - 1];
+                    boolean last = i == n - 1;
+                    GrayRaster.convolveRows(in, 0, width, compiled.decodes[i], width, inRows, kernels[i],
+                            compiled.scales[i], last ? dst : buffers[i & 1],
+                            last ? dstOff + lo[i - 1] * dstStride : (lo[i - 1] - lo[i]) * width,
+                            last ? dstStride : width,
+                            compiled.encodes[i], lo[i] - lo[i - 1], hi[i] - lo[i - 1], lanes);
+                }
+            }
+        } finally {
+            BufferPool.SHARED.give(buffers[0]);
+            BufferPool.SHARED.give(buffers[1]);
+        }
+    }
+
+    // the kernels with every point operation folded into the tables around them
+    private record Compiled(int[][][] kernels, FixedPoint[] scales, int[][] decodes, byte[][] encodes, byte[] table) {
+    }
+
+    /**
+     * A point operation on stored samples is s -> encode[lut[decode[s]]], exactly what applying
+     * it as its own step would store. Operations before the first kernel end up in its decode
+     * table, all others in the encode table of the kernel before them.
+     */
+    private Compiled compile(int[] decode, byte[] encode) {
+        List<int[][]> kernels = new ArrayList<>();
+        List<FixedPoint> scales = new ArrayList<>();
+        List<int[]> decodes = new ArrayList<>();
+        List<byte[]> encodes = new ArrayList<>();
+        byte[] pending = identityTable(); // point operations since the last kernel, on samples
+
+        for (Stage stage : stages) {
+            if (stage.lut() != null) {
+                byte[] next = new byte[256];
+                for (int s = 0; s < 256; s++) {
+                    next[s] = encode[stage.lut()[decode[pending[s] & 0xFF]]];
+                }
+                pending = next;
+                continue;
+            }
+            if (!encodes.isEmpty()) {
+                fold(encodes, pending);
+            }
+            int[] kernelDecode = new int[256];
+            for (int s = 0; s < 256; s++) {
+                kernelDecode[s] = decode[kernels.isEmpty() ? pending[s] & 0xFF : s];
+            }
+            kernels.add(stage.kernel());
+            scales.add(stage.scale());
+            decodes.add(kernelDecode);
+            encodes.add(encode.clone());
+            pending = identityTable();
+        }
+        if (!encodes.isEmpty()) {
+            fold(encodes, pending);
+        }
+        return new Compiled(kernels.toArray(new int[0][][]), scales.toArray(new FixedPoint[0]), decodes.toArray(new int[0][]),
+                encodes.toArray(new byte[0][]), pending);
+    }
+
+    // applies the sample table after the newest kernel's encode table
+    private static void fold(List<byte[]> encodes, byte[] table) {
+        byte[] last = encodes.get(encodes.size() - 1);
+        for (int v = 0; v < 256; v++) {
+            last[v] = table[last[v] & 0xFF];
+        }
+    }
+
+    private static byte[] identityTable() {
+        byte[] table = new byte[256];
+        for (int s = 0; s < 256; s++) {
+            table[s] = (byte) s;
+        }
+        return table;
+    }
+
+    /**
+     * Flat form for sending over MPI: {stages, then per stage KERNEL_STAGE, rows, cols,
+     * multiplier, shift, bias high and low word, taps... or POINT_STAGE, 256 table entries}.
+     */
+    public int[] toArray() {
+        int length = 1;
+        for (Stage stage : stages) {
+            length += stage.kernel() != null ? 7 + stage.kernel().length * stage.kernel()[0].length : 1 + 256;
+        }
+        int[] flat = new int[length];
+        int i = 0;
+        flat[i++] = stages.size();
+        for (Stage stage : stages) {
+            if (stage.kernel() != null) {
+                flat[i++] = KERNEL_STAGE;
+                flat[i++] = stage.kernel().length;
+                flat[i++] = stage.kernel()[0].length;
+                flat[i++] = stage.scale().multiplier;
+                flat[i++] = stage.scale().shift;
+                flat[i++] = (int) (stage.scale().bias >>> 32);
+                flat[i++] = (int) stage.scale().bias;
+                for (int[] row : stage.kernel()) {
+                    System.arraycopy(row, 0, flat, i, row.length);
+                    i += row.length;
+                }
+            } else {
+                flat[i++] = POINT_STAGE;
+                System.arraycopy(stage.lut(), 0, flat, i, 256);
+                i += 256;
+            }
+        }
+        return flat;
+    }
+
+    public static FilterPipeline fromArray(int[] flat) {
+        List<Stage> stages = new ArrayList<>();
+        int i = 1;
+        for (int s = 0; s < flat[0]; s++) {
+            if (flat[i++] == KERNEL_STAGE) {
+                int rows = flat[i++];
+                int cols = flat[i++];
+                int multiplier = flat[i++];
+                int shift = flat[i++];
+                long bias = ((long) flat[i++] << 32) | (flat[i++] & 0xFFFFFFFFL);
+                int[][] kernel = new int[rows][];
+                for (int r = 0; r < rows; r++, i += cols) {
+                    kernel[r] = Arrays.copyOfRange(flat, i, i + cols);
+                }
+                stages.add(new Stage(kernel, new FixedPoint(multiplier, shift, bias), null));
+            } else {
+                stages.add(new Stage(null, null, Arrays.copyOfRange(flat, i, i + 256)));
+                i += 256;
+            }
+        }
+        return new FilterPipeline(stages);
+    }
+
+    // by value, so equal pipelines share one registration with the distributed workers
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FilterPipeline other && Arrays.equals(toArray(), other.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Stage stage : stages) {
+            if (!text.isEmpty()) text.append(" -> ");
+            text.append(stage.kernel() != null
+                    ? stage.kernel().length + "x" + stage.kernel()[0].length
+                            + (stage.scale().isIdentity() ? " kernel" : " fixed-point kernel")
+                    : "point op");
+        }
+        return text.isEmpty() ? "empty pipeline" : text.toString();
+    }
+}
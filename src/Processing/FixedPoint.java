@@ -0,0 +1,89 @@
+package Processing;
+
+/**
+ * Multiply-shift step between an integer convolution sum and the output gray value:
+ * value = (sum * multiplier + bias) >> shift, then clamped to 0..255. This is how fractional
+ * weights, divisors and offsets (see Kernel) run on the integer convolution loops; bias carries
+ * the offset and the rounding half.
+ * <p>
+ * IDENTITY leaves the sum as it is, which is the plain integer kernel case, and the loops check
+ * for it so integer kernels keep their old epilogue.
+ */
+public final class FixedPoint {
+
+    public static final FixedPoint IDENTITY = new FixedPoint(1, 0, 0);
+
+    // sum * multiplier must stay well inside a long for every int sum
+    private static final int MULTIPLIER_BITS = 24;
+
+    public final int multiplier;
+    public final int shift;
+    public final long bias;
+
+    public FixedPoint(int multiplier, int shift, long bias) {
+        if (shift < 0 || shift > 62) throw new IllegalArgumentException("Shift out of range: " + shift);
+        this.multiplier = multiplier;
+        this.shift = shift;
+        this.bias = bias;
+    }
+
+    /**
+     * The scale closest to value = round(sum * factor + offset), rounding halves up, with the
+     * multiplier kept to MULTIPLIER_BITS significant bits.
+     */
+    public static FixedPoint of(double factor, double offset) {
+        if (factor == 1 && offset == 0) return IDENTITY;
+        int shift;
+        if (factor == 0) {
+            shift = 0;
+        } else {
+            // |factor| * 2^shift lands in [2^(MULTIPLIER_BITS - 1), 2^MULTIPLIER_BITS)
+            shift = MULTIPLIER_BITS - 1 - Math.getExponent(factor);
+        }
+        // the offset term must fit a long as well
+        int offsetBits = 64 - Long.numberOfLeadingZeros((long) Math.ceil(Math.abs(offset)) + 1);
+        shift = Math.max(0, Math.min(shift, 61 - offsetBits));
+        double multiplier = Math.rint(Math.scalb(factor, shift));
+        if (Math.abs(multiplier) > Integer.MAX_VALUE) {
+            multiplier = Math.copySign(Integer.MAX_VALUE, multiplier);
+        }
+        long bias = Math.round(Math.scalb(offset, shift)) + (shift > 0 ? 1L << (shift - 1) : 0);
+        return new FixedPoint((int) multiplier, shift, bias);
+    }
+
+    public boolean isIdentity() {
+        return multiplier == 1 && shift == 0 && bias == 0;
+    }
+
+    // output value for a convolution sum, 0..255
+    public int clamped(int sum) {
+        long value = (sum * (long) multiplier + bias) >> shift;
+        return value < 0 ? 0 : value > 255 ? 255 : (int) value;
+    }
+
+    /**
+     * Largest difference, before rounding, between this scale and sum * factor + offset for any
+     * |sum| up to maxSum.
+     */
+    public double maxError(double factor, double offset, double maxSum) {
+        double multiplierError = Math.abs(Math.scalb((double) multiplier, -shift) - factor) * maxSum;
+        double half = shift > 0 ? 0.5 : 0;
+        double offsetError = Math.abs(Math.scalb((double) bias, -shift) - half - offset);
+        return multiplierError + offsetError;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FixedPoint other && multiplier == other.multiplier && shift == other.shift && bias == other.bias;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * multiplier + shift) + Long.hashCode(bias);
+    }
+
+    @Override
+    public String toString() {
+        return "(sum * " + multiplier + " + " + bias + ") >> " + shift;
+    }
+}
@@ -0,0 +1,85 @@
+package Processing;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Grayscale conversion and convolution in a single streaming pass.
+ * <p>
+ * Instead of materialising a full grayscale image, luminance rows are produced on demand into a
+ * ring buffer of kernel.length rows and convolved as soon as the rows below the current output
+ * row are available. Working memory is O(width x kernelHeight) regardless of the image height.
+ * Results are byte-identical to convertToGrayscale followed by applyConvolution on the
+ * sequential processor.
+ */
+public final class FusedConvolver {
+
+    private FusedConvolver() {
+    }
+
+    /**
+     * Produces output rows [y0, y1) of the convolved grayscale version of colorImage into dst,
+     * pixel (x, y) going to dst[dstOff + y * dstStride + x]. Row bands can be run independently;
+     * each one only converts the input rows its halo needs.
+     */
+    public static void convolveRows(BufferedImage colorImage, int[][] kernel,
+                                    byte[] dst, int dstOff, int dstStride, int y0, int y1) {
+        int width = colorImage.getWidth();
+        int height = colorImage.getHeight();
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+        int centerY = kernelHeight / 2;
+        int centerX = kernelWidth / 2;
+
+        // ring[r % kernelHeight] holds gray row r as the sequential convolution would read it back
+        int[][] ring = new int[kernelHeight][width];
+        int[] accumulator = new int[width];
+        byte[] grayRow = new byte[width];
+        int[] rgbRow = new int[width];
+        int nextRow = Math.max(0, y0 - centerY); // first input row not yet in the ring
+
+        for (int y = y0; y < y1; y++) {
+            int lastNeeded = Math.min(height - 1, y + kernelHeight - 1 - centerY);
+            for (; nextRow <= lastNeeded; nextRow++) {
+                // grayscaleRows writes pixel (x, row) at dstOff + row * dstStride + x
+                GrayRaster.grayscaleRows(colorImage, grayRow, -nextRow * width, width, nextRow, nextRow + 1, rgbRow);
+                int[] slot = ring[nextRow % kernelHeight];
+                for (int x = 0; x < width; x++) {
+                    slot[x] = GrayRaster.DECODE[grayRow[x] & 0xFF];
+                }
+            }
+
+            Arrays.fill(accumulator, 0);
+            for (int ky = 0; ky < kernelHeight; ky++) {
+                int row = y + ky - centerY;
+                if (row < 0 || row >= height) continue;
+                int[] line = ring[row % kernelHeight];
+                for (int kx = 0; kx < kernelWidth; kx++) {
+                    int weight = kernel[ky][kx];
+                    if (weight == 0) continue;
+                    int shift = kx - centerX;
+                    // only the x range whose tap lands inside the image
+                    int from = Math.max(0, -shift);
+                    int to = Math.min(width, width - shift);
+                    for (int x = from; x < to; x++) {
+                        accumulator[x] += weight * line[x + shift];
+                    }
+                }
+            }
+
+            int out = dstOff + y * dstStride;
+            for (int x = 0; x < width; x++) {
+                dst[out + x] = GrayRaster.ENCODE[GrayRaster.clamp(accumulator[x])];
+            }
+        }
+    }
+
+    // whole image in one pass
+    public static BufferedImage process(BufferedImage colorImage, int[][] kernel) {
+        int width = colorImage.getWidth();
+        int height = colorImage.getHeight();
+        BufferedImage outputImage = BufferPool.SHARED.grayImage(width, height);
+        convolveRows(colorImage, kernel, GrayRaster.data(outputImage), 0, width, 0, height);
+        return outputImage;
+    }
+}
@@ -0,0 +1,88 @@
+package Processing;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * 8-bit gray image as a plain byte array: pixel (x, y) is data[offset + y * stride + x], holding
+ * the same sample a TYPE_BYTE_GRAY raster would (see GrayRaster for the encoding).
+ * <p>
+ * Sub views share the array, and wrap/toBufferedImage convert to and from BufferedImage without
+ * copying, so BufferedImage only has to appear where images are read or written.
+ */
+public final class GrayImage {
+
+    private static final ColorModel GRAY_MODEL = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+            new int[]{8}, false, false, ColorModel.OPAQUE, DataBuffer.TYPE_BYTE);
+
+    public final byte[] data;
+    public final int offset;
+    public final int stride;
+    public final int width;
+    public final int height;
+
+    public GrayImage(int width, int height) {
+        this(new byte[width * height], 0, width, width, height);
+    }
+
+    public GrayImage(byte[] data, int offset, int stride, int width, int height) {
+        if (width < 0 || height < 0 || stride < width || offset < 0
+                || (height > 0 && offset + (long) (height - 1) * stride + width > data.length)) {
+            throw new IllegalArgumentException("Bad layout " + width + "x" + height + " at offset " + offset
+                    + ", stride " + stride + " in " + data.length + " bytes");
+        }
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * View of any TYPE_BYTE_GRAY image, sub images included, over its own raster array. Any other
+     * image type has no gray samples to share, so it is rejected; convert colour images with
+     * RgbImage and IMGProcessor.convertToGrayscale instead.
+     */
+    public static GrayImage wrap(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY
+                || !(raster.getSampleModel() instanceof ComponentSampleModel sm) || sm.getPixelStride() != 1) {
+            throw new IllegalArgumentException("Not an 8-bit gray image: type " + image.getType());
+        }
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        int start = buffer.getOffset() + sm.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY(), 0);
+        return new GrayImage(buffer.getData(), start, sm.getScanlineStride(), image.getWidth(), image.getHeight());
+    }
+
+    // TYPE_BYTE_GRAY image backed by this array; writes through either side show up in both
+    public BufferedImage toBufferedImage() {
+        // the offset goes in the band offset: byte rasters ignore a DataBuffer offset in getRGB/setRGB
+        PixelInterleavedSampleModel sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, 1, stride, new int[]{offset});
+        WritableRaster raster = Raster.createWritableRaster(sm, new DataBufferByte(data, data.length), null);
+        return new BufferedImage(GRAY_MODEL, raster, false, null);
+    }
+
+    // w x h view whose top-left pixel is (x, y) of this one
+    public GrayImage subImage(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("Region " + w + "x" + h + " at (" + x + ", " + y + ") outside " + width + "x" + height);
+        }
+        return new GrayImage(data, offset + y * stride + x, stride, w, h);
+    }
+
+    public int get(int x, int y) {
+        return data[offset + y * stride + x] & 0xFF;
+    }
+
+    public void set(int x, int y, int sample) {
+        data[offset + y * stride + x] = (byte) sample;
+    }
+}
@@ -0,0 +1,430 @@
+package Processing;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Low level helpers that work straight on the DataBufferByte of TYPE_BYTE_GRAY rasters.
+ * <p>
+ * A TYPE_BYTE_GRAY image stores linear gray, so getRGB/setRGB go through a colour space
+ * conversion. The sequential processor relies on that conversion, so the two lookup tables
+ * below capture it once and let us stay byte-identical without touching getRGB/setRGB.
+ */
+public final class GrayRaster {
+
+    // raster sample -> red channel returned by getRGB
+    public static final int[] DECODE = new int[256];
+    // gray value passed to setRGB -> raster sample that ends up stored
+    public static final byte[] ENCODE = new byte[256];
+
+    // used when the stored bytes already are the values we want (distributed processor)
+    public static final int[] IDENTITY_DECODE = new int[256];
+    public static final byte[] IDENTITY_ENCODE = new byte[256];
+
+    // luminance weights split per channel, summed in the same order as the sequential formula
+    private static final double[] LUM_R = new double[256];
+    private static final double[] LUM_G = new double[256];
+    private static final double[] LUM_B = new double[256];
+
+    static {
+        BufferedImage probe = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = probe.getRaster();
+        for (int v = 0; v < 256; v++) {
+            probe.setRGB(0, 0, new Color(v, v, v).getRGB());
+            ENCODE[v] = (byte) raster.getSample(0, 0, 0);
+        }
+        for (int s = 0; s < 256; s++) {
+            raster.setSample(0, 0, 0, s);
+            DECODE[s] = new Color(probe.getRGB(0, 0)).getRed();
+        }
+        for (int v = 0; v < 256; v++) {
+            IDENTITY_DECODE[v] = v;
+            IDENTITY_ENCODE[v] = (byte) v;
+            LUM_R[v] = 0.299 * v;
+            LUM_G[v] = 0.587 * v;
+            LUM_B[v] = 0.114 * v;
+        }
+    }
+
+    private GrayRaster() {
+    }
+
+    // same weighted average as the sequential processor
+    public static int luminance(int r, int g, int b) {
+        return (int) (LUM_R[r] + LUM_G[g] + LUM_B[b]);
+    }
+
+    /**
+     * Returns the backing array of a TYPE_BYTE_GRAY image whose raster starts at offset 0 with
+     * a scanline stride equal to its width, or null when the image has any other layout.
+     */
+    public static byte[] data(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) return null;
+        WritableRaster raster = image.getRaster();
+        if (!isStandardLayout(raster, 1)) return null;
+        return ((DataBufferByte) raster.getDataBuffer()).getData();
+    }
+
+    private static boolean isStandardLayout(WritableRaster raster, int pixelStride) {
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) return false;
+        if (raster.getDataBuffer().getNumBanks() != 1 || raster.getDataBuffer().getOffset() != 0) return false;
+        SampleModel sm = raster.getSampleModel();
+        if (sm instanceof ComponentSampleModel csm) {
+            // views over a larger array (GrayImage sub views) start at a non-zero band offset
+            int firstBand = Arrays.stream(csm.getBandOffsets()).min().orElse(0);
+            return firstBand == 0 && csm.getPixelStride() == pixelStride && csm.getScanlineStride() == raster.getWidth() * pixelStride;
+        }
+        if (sm instanceof SinglePixelPackedSampleModel spp) {
+            return pixelStride == 1 && spp.getScanlineStride() == raster.getWidth();
+        }
+        return false;
+    }
+
+    /**
+     * Gray plane of any image, ready to be convolved with the given decode table.
+     * Plain TYPE_BYTE_GRAY images are used as is; anything else is reduced to its red channel,
+     * which is what the sequential processor reads through getRGB.
+     */
+    public static byte[] grayPlane(BufferedImage image) {
+        byte[] data = data(image);
+        if (data != null) return data;
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] plane = new byte[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int base = y * width;
+            for (int x = 0; x < width; x++) {
+                plane[base + x] = (byte) (row[x] >> 16);
+            }
+        }
+        return plane;
+    }
+
+    // decode table that goes with grayPlane(image)
+    public static int[] decodeFor(BufferedImage image) {
+        return data(image) != null ? DECODE : IDENTITY_DECODE;
+    }
+
+    /**
+     * Writes the luminance of rows [y0, y1) of the colour image into dst, pixel (x, y) going to
+     * dst[dstOff + y * dstStride + x], encoded the same way setRGB would store it. rowBuffer needs
+     * at least width entries and is only touched on the generic getRGB path.
+     */
+    public static void grayscaleRows(BufferedImage colorImage, byte[] dst, int dstOff, int dstStride,
+                                     int y0, int y1, int[] rowBuffer) {
+        int width = colorImage.getWidth();
+        WritableRaster raster = colorImage.getRaster();
+        int type = colorImage.getType();
+
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) && isStandardLayout(raster, 1)) {
+            int[] src = ((DataBufferInt) raster.getDataBuffer()).getData();
+            grayscaleRows(src, 0, width, width, dst, dstOff, dstStride, y0, y1);
+            return;
+        }
+
+        if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && isStandardLayout(raster, type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4)) {
+            byte[] src = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int channels = type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+            // ABGR keeps alpha first, BGR starts straight at blue
+            int first = channels - 3;
+            for (int y = y0; y < y1; y++) {
+                int out = dstOff + y * dstStride;
+                int p = y * width * channels + first;
+                for (int x = 0; x < width; x++, p += channels) {
+                    dst[out + x] = ENCODE[luminance(src[p + 2] & 0xFF, src[p + 1] & 0xFF, src[p] & 0xFF)];
+                }
+            }
+            return;
+        }
+
+        for (int y = y0; y < y1; y++) {
+            colorImage.getRGB(0, y, width, 1, rowBuffer, 0, width);
+            int out = dstOff + y * dstStride;
+            for (int x = 0; x < width; x++) {
+                int rgb = rowBuffer[x];
+                dst[out + x] = ENCODE[luminance((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF)];
+            }
+        }
+    }
+
+    /**
+     * Same conversion for packed 0xRRGGBB pixels, pixel (x, y) read at src[srcOff + y * srcStride + x]
+     * (the layout of RgbImage and of TYPE_INT_RGB rasters).
+     */
+    public static void grayscaleRows(int[] src, int srcOff, int srcStride, int width,
+                                     byte[] dst, int dstOff, int dstStride, int y0, int y1) {
+        for (int y = y0; y < y1; y++) {
+            int base = srcOff + y * srcStride;
+            int out = dstOff + y * dstStride;
+            for (int x = 0; x < width; x++) {
+                int rgb = src[base + x];
+                dst[out + x] = ENCODE[luminance((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF)];
+            }
+        }
+    }
+
+    /**
+     * Convolves output rows [y0, y1) of a width x height image. Pixels outside the image count
+     * as zero, exactly like the bounds check in the sequential processor.
+     * <p>
+     * Source pixel (x, y) is read at src[srcOff + y * srcStride + x] and destination pixel at
+     * dst[dstOff + y * dstStride + x], so bands and sub views work without copying.
+     * <p>
+     * Rank-1 kernels with more taps than a row and a column pass together are applied as two 1D
+     * passes, large kernels go through FFTConvolver, and everything else through the direct 2D
+     * loop. All of them give the same bytes.
+     */
+    public static void convolveRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                                    int width, int height, int[][] kernel,
+                                    byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                    int y0, int y1) {
+        convolveRows(src, srcOff, srcStride, decode, width, height, kernel, dst, dstOff, dstStride, encode, y0, y1, false);
+    }
+
+    /**
+     * Same as above; with lanes set, kernels that would take the direct loop go through
+     * LaneConvolver instead, and the FFT only takes over from the higher lane crossover.
+     */
+    public static void convolveRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                                    int width, int height, int[][] kernel,
+                                    byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                    int y0, int y1, boolean lanes) {
+        convolveRows(src, srcOff, srcStride, decode, width, height, kernel, FixedPoint.IDENTITY,
+                dst, dstOff, dstStride, encode, y0, y1, lanes);
+    }
+
+    /**
+     * Same again with the sums going through scale before clamping, for the fixed-point taps of
+     * a Kernel with fractional weights, divisor or offset.
+     */
+    public static void convolveRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                                    int width, int height, int[][] kernel, FixedPoint scale,
+                                    byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                    int y0, int y1, boolean lanes) {
+        SeparableKernel separable = worthSeparating(kernel);
+        if (separable != null) {
+            convolveRowsSeparable(src, srcOff, srcStride, decode, width, height, separable, scale,
+                    dst, dstOff, dstStride, encode, y0, y1);
+            return;
+        }
+        if (FFTConvolver.accepts(kernel, lanes)) {
+            FFTConvolver.convolveRows(src, srcOff, srcStride, decode, width, height, kernel, scale,
+                    dst, dstOff, dstStride, encode, y0, y1);
+            return;
+        }
+        if (lanes) {
+            LaneConvolver.convolveRows(src, srcOff, srcStride, decode, width, height, kernel, scale,
+                    dst, dstOff, dstStride, encode, y0, y1);
+            return;
+        }
+        convolveRowsDirect(src, srcOff, srcStride, decode, width, height, kernel, scale,
+                dst, dstOff, dstStride, encode, y0, y1);
+    }
+
+    // true when convolveRows will hand this kernel to FFTConvolver
+    public static boolean usesFFT(int[][] kernel, boolean lanes) {
+        return worthSeparating(kernel) == null && FFTConvolver.accepts(kernel, lanes);
+    }
+
+    private static SeparableKernel worthSeparating(int[][] kernel) {
+        if (nonZeroTaps(kernel) <= kernel.length + kernel[0].length) return null;
+        return SeparableKernel.factor(kernel);
+    }
+
+    private static int nonZeroTaps(int[][] kernel) {
+        int taps = 0;
+        for (int[] kernelRow : kernel) {
+            for (int value : kernelRow) {
+                if (value != 0) taps++;
+            }
+        }
+        return taps;
+    }
+
+    /**
+     * Direct 2D loop. The interior runs without any bounds check; only the border strips pay
+     * for it.
+     */
+    public static void convolveRowsDirect(byte[] src, int srcOff, int srcStride, int[] decode,
+                                          int width, int height, int[][] kernel,
+                                          byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                          int y0, int y1) {
+        convolveRowsDirect(src, srcOff, srcStride, decode, width, height, kernel, FixedPoint.IDENTITY,
+                dst, dstOff, dstStride, encode, y0, y1);
+    }
+
+    public static void convolveRowsDirect(byte[] src, int srcOff, int srcStride, int[] decode,
+                                          int width, int height, int[][] kernel, FixedPoint scale,
+                                          byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                          int y0, int y1) {
+        boolean plain = scale.isIdentity();
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+        int centerY = kernelHeight / 2;
+        int centerX = kernelWidth / 2;
+
+        // flatten the non-zero taps into offsets relative to the output pixel
+        int taps = nonZeroTaps(kernel);
+        int[] weights = new int[taps];
+        int[] offsets = new int[taps];
+        int t = 0;
+        for (int ky = 0; ky < kernelHeight; ky++) {
+            for (int kx = 0; kx < kernelWidth; kx++) {
+                if (kernel[ky][kx] == 0) continue;
+                weights[t] = kernel[ky][kx];
+                offsets[t] = (ky - centerY) * srcStride + (kx - centerX);
+                t++;
+            }
+        }
+
+        // interior = every pixel whose whole neighbourhood lies inside the image
+        int innerY0 = Math.max(y0, centerY);
+        int innerY1 = Math.min(y1, height - (kernelHeight - 1 - centerY));
+        int innerX0 = Math.min(centerX, width);
+        int innerX1 = Math.max(innerX0, width - (kernelWidth - 1 - centerX));
+
+        for (int y = y0; y < y1; y++) {
+            boolean interiorRow = y >= innerY0 && y < innerY1;
+            int srcRow = srcOff + y * srcStride;
+            int dstRow = dstOff + y * dstStride;
+
+            if (!interiorRow) {
+                for (int x = 0; x < width; x++) {
+                    dst[dstRow + x] = encode[output(borderSum(src, srcOff, srcStride, decode, width, height, kernel, x, y), plain, scale)];
+                }
+                continue;
+            }
+
+            for (int x = 0; x < innerX0; x++) {
+                dst[dstRow + x] = encode[output(borderSum(src, srcOff, srcStride, decode, width, height, kernel, x, y), plain, scale)];
+            }
+            for (int x = innerX0; x < innerX1; x++) {
+                int base = srcRow + x;
+                int accumulator = 0;
+                for (int i = 0; i < taps; i++) {
+                    accumulator += weights[i] * decode[src[base + offsets[i]] & 0xFF];
+                }
+                dst[dstRow + x] = encode[output(accumulator, plain, scale)];
+            }
+            for (int x = innerX1; x < width; x++) {
+                dst[dstRow + x] = encode[output(borderSum(src, srcOff, srcStride, decode, width, height, kernel, x, y), plain, scale)];
+            }
+        }
+    }
+
+    // rows of horizontal-pass output kept at once by the separable path
+    private static final int SEPARABLE_BAND_ROWS = 64;
+
+    /**
+     * Two 1D passes: the row factor runs horizontally into an int band buffer (no clamping, so
+     * nothing is lost), then the column factor runs vertically over that buffer. Work is done in
+     * bands of SEPARABLE_BAND_ROWS output rows so the buffer stays small.
+     */
+    public static void convolveRowsSeparable(byte[] src, int srcOff, int srcStride, int[] decode,
+                                             int width, int height, SeparableKernel kernel,
+                                             byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                             int y0, int y1) {
+        convolveRowsSeparable(src, srcOff, srcStride, decode, width, height, kernel, FixedPoint.IDENTITY,
+                dst, dstOff, dstStride, encode, y0, y1);
+    }
+
+    public static void convolveRowsSeparable(byte[] src, int srcOff, int srcStride, int[] decode,
+                                             int width, int height, SeparableKernel kernel, FixedPoint scale,
+                                             byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                             int y0, int y1) {
+        boolean plain = scale.isIdentity();
+        int[] rowWeights = kernel.row;
+        int[] columnWeights = kernel.column;
+        int kernelHeight = columnWeights.length;
+        int kernelWidth = rowWeights.length;
+        int centerY = kernelHeight / 2;
+        int centerX = kernelWidth / 2;
+
+        int bandRows = Math.min(SEPARABLE_BAND_ROWS, Math.max(1, y1 - y0));
+        int[] horizontal = new int[(bandRows + kernelHeight - 1) * width];
+        int innerX0 = Math.min(centerX, width);
+        int innerX1 = Math.max(innerX0, width - (kernelWidth - 1 - centerX));
+
+        for (int bandStart = y0; bandStart < y1; bandStart += bandRows) {
+            int bandEnd = Math.min(y1, bandStart + bandRows);
+            // input rows this band touches, clipped to the image; horizontal row r lives at (r - firstRow)
+            int firstRow = Math.max(0, bandStart - centerY);
+            int lastRow = Math.min(height, bandEnd + kernelHeight - 1 - centerY);
+
+            for (int r = firstRow; r < lastRow; r++) {
+                int srcRow = srcOff + r * srcStride;
+                int out = (r - firstRow) * width;
+                for (int x = 0; x < width; x++) {
+                    int accumulator = 0;
+                    if (x >= innerX0 && x < innerX1) {
+                        int base = srcRow + x - centerX;
+                        for (int j = 0; j < kernelWidth; j++) {
+                            accumulator += rowWeights[j] * decode[src[base + j] & 0xFF];
+                        }
+                    } else {
+                        for (int j = 0; j < kernelWidth; j++) {
+                            int pixelX = x + j - centerX;
+                            if (pixelX < 0 || pixelX >= width) continue;
+                            accumulator += rowWeights[j] * decode[src[srcRow + pixelX] & 0xFF];
+                        }
+                    }
+                    horizontal[out + x] = accumulator;
+                }
+            }
+
+            for (int y = bandStart; y < bandEnd; y++) {
+                // kernel rows whose input row is inside the image
+                int iFrom = Math.max(0, centerY - y);
+                int iTo = Math.min(kernelHeight, height - y + centerY);
+                int dstRow = dstOff + y * dstStride;
+                for (int x = 0; x < width; x++) {
+                    int accumulator = 0;
+                    int index = (y + iFrom - centerY - firstRow) * width + x;
+                    for (int i = iFrom; i < iTo; i++, index += width) {
+                        accumulator += columnWeights[i] * horizontal[index];
+                    }
+                    dst[dstRow + x] = encode[output(accumulator, plain, scale)];
+                }
+            }
+        }
+    }
+
+    private static int borderSum(byte[] src, int srcOff, int srcStride, int[] decode,
+                                 int width, int height, int[][] kernel, int x, int y) {
+        int centerY = kernel.length / 2;
+        int centerX = kernel[0].length / 2;
+        int accumulator = 0;
+        for (int ky = 0; ky < kernel.length; ky++) {
+            int pixelY = y + ky - centerY;
+            if (pixelY < 0 || pixelY >= height) continue;
+            int row = srcOff + pixelY * srcStride;
+            for (int kx = 0; kx < kernel[ky].length; kx++) {
+                int pixelX = x + kx - centerX;
+                if (pixelX < 0 || pixelX >= width) continue;
+                accumulator += kernel[ky][kx] * decode[src[row + pixelX] & 0xFF];
+            }
+        }
+        return accumulator;
+    }
+
+    // plain integer kernels keep the bare clamp; scaled ones go through their multiply-shift first
+    static int output(int sum, boolean plain, FixedPoint scale) {
+        return plain ? clamp(sum) : scale.clamped(sum);
+    }
+
+    // clamp result so it stays within 0–255
+    public static int clamp(int value) {
+        return Math.min(255, Math.max(0, value));
+    }
+}
@@ -1,6 +1,12 @@
 package Processing;
 
+import metrics.Metrics;
+
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface IMGProcessor {
         BufferedImage convertToGrayscale(BufferedImage colorImage);
@@ -8,4 +14,149 @@ public interface IMGProcessor {
         BufferedImage applyConvolution(BufferedImage inputImage, int[][] kernel);
 
         BufferedImage processImage(String inputFilePath, int[][] kernel);
+
+        /*
+         * The same three steps on GrayImage/RgbImage, which skip the ColorModel and raster
+         * machinery of BufferedImage. The defaults go through the BufferedImage methods over the
+         * same arrays, so every processor supports them; processors with a direct array path
+         * override them.
+         */
+
+        default GrayImage convertToGrayscale(RgbImage colorImage) {
+                return GrayImage.wrap(convertToGrayscale(colorImage.toBufferedImage()));
+        }
+
+        default GrayImage applyConvolution(GrayImage inputImage, int[][] kernel) {
+                return GrayImage.wrap(applyConvolution(inputImage.toBufferedImage(), kernel));
+        }
+
+        // grayscale conversion then convolution of an image that is already decoded
+        default GrayImage processImage(RgbImage colorImage, int[][] kernel) {
+                GrayImage grayImage = convertToGrayscale(colorImage);
+                GrayImage outputImage = applyConvolution(grayImage, kernel);
+                BufferPool.SHARED.release(grayImage);
+                return outputImage;
+        }
+
+        /**
+         * Runs a multi-stage FilterPipeline over a gray image. A pipeline of one kernel is just
+         * applyConvolution; longer ones run fused in row bands (see FilterPipeline) on the calling
+         * thread, with the same sample encoding as applyConvolution.
+         */
+        default GrayImage applyPipeline(GrayImage inputImage, FilterPipeline pipeline) {
+                int[][] kernel = pipeline.singleKernel();
+                if (kernel != null) return applyConvolution(inputImage, kernel);
+                Metrics.Span span = Metrics.SHARED.start(Metrics.PIPELINE);
+                GrayImage outputImage = BufferPool.SHARED.gray(inputImage.width, inputImage.height);
+                pipeline.applyRows(inputImage.data, inputImage.offset, inputImage.stride, GrayRaster.DECODE,
+                        inputImage.width, inputImage.height,
+                        outputImage.data, 0, outputImage.stride, GrayRaster.ENCODE,
+                        0, inputImage.height);
+                span.end(2L * inputImage.width * inputImage.height, (long) inputImage.width * inputImage.height);
+                return outputImage;
+        }
+
+        // decode, grayscale conversion, then every stage of the pipeline
+        default BufferedImage processImage(String inputFilePath, FilterPipeline pipeline) {
+                BufferedImage colorImage;
+                try {
+                        colorImage = ImageDecoder.read(inputFilePath);
+                } catch (IOException e) {
+                        e.printStackTrace();
+                        return null;
+                }
+                if (colorImage == null) return null;
+                GrayImage grayImage = convertToGrayscale(RgbImage.wrap(colorImage));
+                GrayImage outputImage = applyPipeline(grayImage, pipeline);
+                BufferPool.SHARED.release(grayImage);
+                return outputImage.toBufferedImage();
+        }
+
+        /**
+         * Told about rows of an output image as soon as they are final, for showing a result while
+         * the rest is still being computed. Bands arrive in any order and may come from several
+         * threads at once; the listener must not write to output.
+         */
+        @FunctionalInterface
+        interface BandListener {
+                // rows [y0, y1) of output will not change any more
+                void bandDone(GrayImage output, int y0, int y1);
+        }
+
+        /**
+         * applyPipeline that reports bands of the result as they finish. The default runs bands of
+         * about a 32nd of the image one after the other on the calling thread; processors that
+         * spread the rows over threads or ranks report them as each one completes.
+         */
+        default GrayImage applyPipeline(GrayImage inputImage, FilterPipeline pipeline, BandListener listener) {
+                Metrics.Span span = Metrics.SHARED.start(Metrics.PIPELINE);
+                GrayImage outputImage = BufferPool.SHARED.gray(inputImage.width, inputImage.height);
+                int bandRows = Math.max(16, inputImage.height / 32);
+                for (int y0 = 0; y0 < inputImage.height; y0 += bandRows) {
+                        int y1 = Math.min(inputImage.height, y0 + bandRows);
+                        pipeline.applyRows(inputImage.data, inputImage.offset, inputImage.stride, GrayRaster.DECODE,
+                                inputImage.width, inputImage.height,
+                                outputImage.data, 0, outputImage.stride, GrayRaster.ENCODE,
+                                y0, y1);
+                        listener.bandDone(outputImage, y0, y1);
+                }
+                span.end(2L * inputImage.width * inputImage.height, (long) inputImage.width * inputImage.height);
+                return outputImage;
+        }
+
+        // processImage with the pipeline's result reported band by band
+        default BufferedImage processImage(String inputFilePath, FilterPipeline pipeline, BandListener listener) {
+                BufferedImage colorImage;
+                try {
+                        colorImage = ImageDecoder.read(inputFilePath);
+                } catch (IOException e) {
+                        e.printStackTrace();
+                        return null;
+                }
+                if (colorImage == null) return null;
+                GrayImage grayImage = convertToGrayscale(RgbImage.wrap(colorImage));
+                GrayImage outputImage = applyPipeline(grayImage, pipeline, listener);
+                BufferPool.SHARED.release(grayImage);
+                return outputImage.toBufferedImage();
+        }
+
+        /**
+         * Same result as processImage, but grayscale conversion and convolution run as one
+         * streaming pass so no full-size grayscale intermediate is kept around.
+         */
+        default BufferedImage processImageFused(String inputFilePath, int[][] kernel) {
+                return processImage(inputFilePath, kernel);
+        }
+
+        /**
+         * Processes a list of images with one kernel without blocking the caller. Future i
+         * completes with the result for inputFilePaths.get(i) as soon as that image is done, or
+         * exceptionally if it could not be processed. The default runs the images one after the
+         * other on a background thread; processors that can keep several images in flight at once
+         * override it.
+         */
+        default List<CompletableFuture<BufferedImage>> processImagesAsync(List<String> inputFilePaths, int[][] kernel) {
+                List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+                for (int i = 0; i < inputFilePaths.size(); i++) {
+                        futures.add(new CompletableFuture<>());
+                }
+                Thread runner = new Thread(() -> {
+                        for (int i = 0; i < inputFilePaths.size(); i++) {
+                                String path = inputFilePaths.get(i);
+                                try {
+                                        BufferedImage result = processImage(path, kernel);
+                                        if (result == null) {
+                                                futures.get(i).completeExceptionally(new IOException("Could not process " + path));
+                                        } else {
+                                                futures.get(i).complete(result);
+                                        }
+                                } catch (RuntimeException e) {
+                                        futures.get(i).completeExceptionally(e);
+                                }
+                        }
+                }, "image-batch");
+                runner.setDaemon(true);
+                runner.start();
+                return futures;
+        }
 }
@@ -0,0 +1,169 @@
+package Processing;
+
+import metrics.Metrics;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared decoding layer in front of ImageIO. ImageIO.read looks the reader plugins up and builds
+ * a new ImageReader for every file; here every thread keeps one reader per format and reuses it,
+ * which matters most for batches of small images.
+ * <p>
+ * read(String) also remembers the last image it decoded, so the GUI and the processor it calls
+ * share one decode of the same file per click. Images from read(String) may be handed to several
+ * callers and must not be written to. The File variants never share: they are for batches, for
+ * subsampled previews (ImageReadParam source subsampling, so the full-size image is never built)
+ * and for decoding into a destination image the caller already has, such as one recycled from
+ * the previous file of a batch.
+ * <p>
+ * Like ImageIO.read, the read methods return null when no reader knows the format.
+ */
+public final class ImageDecoder {
+
+    private static final List<ImageReaderSpi> SPIS = readerSpis();
+    private static final ThreadLocal<Map<ImageReaderSpi, ImageReader>> READERS = ThreadLocal.withInitial(LinkedHashMap::new);
+
+    // the last image read(String) decoded, for as long as memory allows
+    private record Recent(String path, long length, long lastModified, SoftReference<BufferedImage> image) {
+    }
+
+    private static Recent recent;
+
+    private ImageDecoder() {
+    }
+
+    private static List<ImageReaderSpi> readerSpis() {
+        IIORegistry registry = IIORegistry.getDefaultInstance();
+        registry.registerApplicationClasspathSpis();
+        List<ImageReaderSpi> spis = new ArrayList<>();
+        registry.getServiceProviders(ImageReaderSpi.class, true).forEachRemaining(spis::add);
+        return spis;
+    }
+
+    /**
+     * The file decoded, or the image the previous call decoded from it when the file has not
+     * changed since. The result is shared and must not be modified.
+     */
+    public static BufferedImage read(String path) throws IOException {
+        File file = new File(path).getAbsoluteFile();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (ImageDecoder.class) {
+            if (recent != null && recent.path().equals(file.getPath())
+                    && recent.length() == length && recent.lastModified() == lastModified) {
+                BufferedImage image = recent.image().get();
+                if (image != null) return image;
+            }
+        }
+        BufferedImage image = read(file, null);
+        if (image != null) {
+            synchronized (ImageDecoder.class) {
+                recent = new Recent(file.getPath(), length, lastModified, new SoftReference<>(image));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Decodes file into destination when it has the file's size and a type the reader can
+     * produce, otherwise into a new image. Pass null to always get a new one.
+     */
+    public static BufferedImage read(File file, BufferedImage destination) throws IOException {
+        return decode(file, 1, destination);
+    }
+
+    /**
+     * Every factor-th pixel of every factor-th row, decoded without building the full-size
+     * image: a cheap, aliased preview, to be smoothed by whatever scales it down further.
+     */
+    public static BufferedImage readSubsampled(File file, int factor) throws IOException {
+        return decode(file, Math.max(1, factor), null);
+    }
+
+    // the image's size from its header, or null when no reader knows the format
+    public static Dimension size(File file) throws IOException {
+        return withReader(file, reader -> new Dimension(reader.getWidth(0), reader.getHeight(0)));
+    }
+
+    // the largest subsampling factor that still leaves at least width x height pixels
+    public static int subsamplingFor(int imageWidth, int imageHeight, int width, int height) {
+        return Math.max(1, Math.min(imageWidth / Math.max(1, width), imageHeight / Math.max(1, height)));
+    }
+
+    private static BufferedImage decode(File file, int factor, BufferedImage destination) throws IOException {
+        return withReader(file, reader -> {
+            Metrics.Span span = Metrics.SHARED.start(Metrics.DECODE);
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (factor > 1) param.setSourceSubsampling(factor, factor, 0, 0);
+            if (destination != null && fits(reader, destination, factor)) param.setDestination(destination);
+            BufferedImage image = reader.read(0, param);
+            span.end(file.length(), (long) image.getWidth() * image.getHeight());
+            return image;
+        });
+    }
+
+    private static boolean fits(ImageReader reader, BufferedImage destination, int factor) throws IOException {
+        int width = (reader.getWidth(0) + factor - 1) / factor;
+        int height = (reader.getHeight(0) + factor - 1) / factor;
+        if (destination.getWidth() != width || destination.getHeight() != height) return false;
+        if (destination.getType() == BufferedImage.TYPE_CUSTOM) return false;
+        for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext(); ) {
+            if (types.next().getBufferedImageType() == destination.getType()) return true;
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface ReaderTask<T> {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    // runs task with this thread's reader for the file's format, positioned on the file
+    private static <T> T withReader(File file, ReaderTask<T> task) throws IOException {
+        if (!file.canRead()) throw new IIOException("Can't read input file: " + file);
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            if (stream == null) throw new IIOException("Can't create an ImageInputStream for " + file);
+            ImageReader reader = readerFor(stream);
+            if (reader == null) return null;
+            try {
+                reader.setInput(stream, true, true);
+                return task.run(reader);
+            } finally {
+                reader.setInput(null);
+            }
+        }
+    }
+
+    private static ImageReader readerFor(ImageInputStream stream) throws IOException {
+        // insertion ordered, so the formats this thread has seen are tried first
+        Map<ImageReaderSpi, ImageReader> readers = READERS.get();
+        for (Map.Entry<ImageReaderSpi, ImageReader> seen : readers.entrySet()) {
+            // canDecodeInput peeks at the header and rewinds the stream
+            if (seen.getKey().canDecodeInput(stream)) return seen.getValue();
+        }
+        for (ImageReaderSpi spi : SPIS) {
+            if (readers.containsKey(spi) || !spi.canDecodeInput(stream)) continue;
+            ImageReader reader = spi.createReaderInstance();
+            readers.put(spi, reader);
+            return reader;
+        }
+        return null;
+    }
+}
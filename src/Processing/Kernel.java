@@ -0,0 +1,333 @@
+package Processing;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Convolution kernel with fractional weights, a divisor and an offset: output value =
+ * round(sum(weight * pixel) / divisor + offset), clamped to 0..255. Integer kernels are the
+ * special case divisor 1, offset 0, and run exactly as int[][] kernels always did.
+ * <p>
+ * Everything else is compiled to integer taps plus a FixedPoint multiply-shift, so it runs on
+ * the same integer loops (direct, lanes, separable, FFT):
+ * <ul>
+ *     <li>integral weights with a divisor (box blur) keep their taps exactly; only the division
+ *     becomes a multiply-shift;</li>
+ *     <li>rank-1 fractional kernels (Gaussians) have their row and column factors quantised
+ *     separately, so the taps stay rank 1 and the two-pass separable loop still applies;</li>
+ *     <li>other fractional kernels are quantised tap by tap.</li>
+ * </ul>
+ * The quantisation stays below MAX_ERROR before rounding, so a fixed-point result is never more
+ * than one gray level from referenceRows, the straight double precision version; compile falls
+ * back from the separable to the tap by tap form when the separable one cannot promise that, and
+ * rejects a kernel whose gain (weights against divisor) is too high for either to promise it
+ * within int sums.
+ */
+public final class Kernel {
+
+    // bound on |fixed point - exact| before rounding, in gray levels
+    public static final double MAX_ERROR = 0.5;
+    // 255 * sum(|taps|) stays below this, so no int sum can overflow
+    private static final long SUM_LIMIT = 1L << 30;
+    private static final int MAX_FRACTION_BITS = 30;
+    // relative tolerance of the rank-1 test on fractional weights
+    private static final double RANK_ONE_TOLERANCE = 1e-9;
+
+    /**
+     * Integer taps and the multiply-shift that turns their sum into the output value, with the
+     * largest error against the exact kernel before rounding.
+     */
+    public record Fixed(int[][] taps, FixedPoint scale, double maxError) {
+    }
+
+    private final double[][] weights;
+    private final double divisor;
+    private final double offset;
+
+    public Kernel(double[][] weights, double divisor, double offset) {
+        if (weights.length == 0 || weights[0].length == 0) throw new IllegalArgumentException("Empty kernel");
+        if (divisor == 0 || !Double.isFinite(divisor)) throw new IllegalArgumentException("Bad divisor " + divisor);
+        if (!Double.isFinite(offset)) throw new IllegalArgumentException("Bad offset " + offset);
+        this.weights = new double[weights.length][];
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i].length != weights[0].length) throw new IllegalArgumentException("Ragged kernel");
+            for (double weight : weights[i]) {
+                if (!Double.isFinite(weight)) throw new IllegalArgumentException("Bad weight " + weight);
+            }
+            this.weights[i] = weights[i].clone();
+        }
+        this.divisor = divisor;
+        this.offset = offset;
+    }
+
+    public static Kernel of(int[][] taps) {
+        return of(taps, 1, 0);
+    }
+
+    public static Kernel of(int[][] taps, double divisor, double offset) {
+        double[][] weights = new double[taps.length][];
+        for (int i = 0; i < taps.length; i++) {
+            weights[i] = new double[taps[i].length];
+            for (int j = 0; j < taps[i].length; j++) {
+                weights[i][j] = taps[i][j];
+            }
+        }
+        return new Kernel(weights, divisor, offset);
+    }
+
+    // size x size mean filter
+    public static Kernel box(int size) {
+        int[][] ones = new int[size][size];
+        for (int[] row : ones) {
+            Arrays.fill(row, 1);
+        }
+        return of(ones, size * size, 0);
+    }
+
+    // size x size Gaussian, weights exp(-(x^2 + y^2) / 2 sigma^2) normalised by their sum
+    public static Kernel gaussian(int size, double sigma) {
+        double[][] weights = new double[size][size];
+        double sum = 0;
+        int center = size / 2;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                int dy = i - center;
+                int dx = j - center;
+                weights[i][j] = Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma));
+                sum += weights[i][j];
+            }
+        }
+        return new Kernel(weights, sum, 0);
+    }
+
+    public int rows() {
+        return weights.length;
+    }
+
+    public int cols() {
+        return weights[0].length;
+    }
+
+    public double weight(int row, int col) {
+        return weights[row][col];
+    }
+
+    public double divisor() {
+        return divisor;
+    }
+
+    public double offset() {
+        return offset;
+    }
+
+    // the same weights divided by their sum (left alone when they sum to 0, like edge kernels)
+    public Kernel normalized() {
+        double sum = 0;
+        for (double[] row : weights) {
+            for (double weight : row) {
+                sum += weight;
+            }
+        }
+        return Math.abs(sum) < 1e-12 ? new Kernel(weights, 1, offset) : new Kernel(weights, sum, offset);
+    }
+
+    // true for a plain int[][] kernel: whole weights, divisor 1, offset 0
+    public boolean isInteger() {
+        return divisor == 1 && offset == 0 && hasIntegralWeights();
+    }
+
+    private boolean hasIntegralWeights() {
+        for (double[] row : weights) {
+            for (double weight : row) {
+                if (weight != Math.rint(weight) || Math.abs(weight) > Integer.MAX_VALUE) return false;
+            }
+        }
+        return true;
+    }
+
+    public int[][] toIntKernel() {
+        if (!hasIntegralWeights()) throw new IllegalStateException("Kernel has fractional weights");
+        int[][] taps = new int[weights.length][weights[0].length];
+        for (int i = 0; i < taps.length; i++) {
+            for (int j = 0; j < taps[i].length; j++) {
+                taps[i][j] = (int) weights[i][j];
+            }
+        }
+        return taps;
+    }
+
+    /**
+     * Integer taps and scale for the fixed-point loops. Throws IllegalArgumentException when the
+     * result could be more than one gray level off, which takes a gain sum(|weight|) / |divisor|
+     * of around 100 for a 15x15 kernel and in the thousands for a 3x3 one.
+     */
+    public Fixed compile() {
+        if (isInteger()) return new Fixed(toIntKernel(), FixedPoint.IDENTITY, 0);
+        Fixed fixed = compileFixed();
+        if (fixed.maxError() >= MAX_ERROR) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT,
+                    "%s cannot run in fixed point within one gray level (error up to %.2f); "
+                            + "use smaller weights or a larger divisor", this, fixed.maxError()));
+        }
+        return fixed;
+    }
+
+    private Fixed compileFixed() {
+        if (hasIntegralWeights() && 255 * quantisedSum(0) < SUM_LIMIT) return scaled(toIntKernel(), 0);
+
+        Fixed separable = compileSeparable();
+        if (separable != null && separable.maxError() < MAX_ERROR) return separable;
+
+        // tap by tap, with as many fraction bits as the int sum allows; the search runs in double,
+        // so a large weight cannot saturate an int tap on the way
+        int bits = MAX_FRACTION_BITS;
+        while (255 * quantisedSum(bits) >= SUM_LIMIT) bits--;
+        int[][] taps = new int[weights.length][weights[0].length];
+        for (int i = 0; i < taps.length; i++) {
+            for (int j = 0; j < taps[i].length; j++) {
+                taps[i][j] = (int) Math.rint(Math.scalb(weights[i][j], bits));
+            }
+        }
+        return scaled(taps, bits);
+    }
+
+    // sum(|round(weight * 2^bits)|), what the taps for bits would add up to
+    private double quantisedSum(int bits) {
+        double sum = 0;
+        for (double[] row : weights) {
+            for (double weight : row) {
+                sum += Math.abs(Math.rint(Math.scalb(weight, bits)));
+            }
+        }
+        return sum;
+    }
+
+    // row and column factors quantised on their own, or null when the kernel is not rank 1
+    private Fixed compileSeparable() {
+        int rows = weights.length;
+        int cols = weights[0].length;
+        int pivotRow = 0;
+        int pivotCol = 0;
+        double largest = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (Math.abs(weights[i][j]) > largest) {
+                    largest = Math.abs(weights[i][j]);
+                    pivotRow = i;
+                    pivotCol = j;
+                }
+            }
+        }
+        if (largest == 0 || (rows == 1 && cols == 1)) return null;
+
+        double[] row = weights[pivotRow].clone();
+        double[] column = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            column[i] = weights[i][pivotCol] / weights[pivotRow][pivotCol];
+            for (int j = 0; j < cols; j++) {
+                if (Math.abs(column[i] * row[j] - weights[i][j]) > RANK_ONE_TOLERANCE * largest) return null;
+            }
+        }
+        // same magnitude in both factors, so both lose the same precision
+        double balance = Math.sqrt(maxAbs(row) / maxAbs(column));
+        for (int j = 0; j < cols; j++) row[j] /= balance;
+        for (int i = 0; i < rows; i++) column[i] *= balance;
+
+        // sums in double, as in compile, and the taps only made ints once they fit
+        for (int bits = MAX_FRACTION_BITS; ; bits--) {
+            int rowBits = bits / 2;
+            int columnBits = bits - rowBits;
+            double rowSum = 0;
+            double columnSum = 0;
+            for (double value : row) {
+                rowSum += Math.abs(Math.rint(Math.scalb(value, rowBits)));
+            }
+            for (double value : column) {
+                columnSum += Math.abs(Math.rint(Math.scalb(value, columnBits)));
+            }
+            if (255 * rowSum * columnSum < SUM_LIMIT) {
+                int[][] taps = new int[rows][cols];
+                for (int i = 0; i < rows; i++) {
+                    int columnTap = (int) Math.rint(Math.scalb(column[i], columnBits));
+                    for (int j = 0; j < cols; j++) {
+                        taps[i][j] = columnTap * (int) Math.rint(Math.scalb(row[j], rowBits));
+                    }
+                }
+                return scaled(taps, bits);
+            }
+        }
+    }
+
+    private static double maxAbs(double[] values) {
+        double max = 0;
+        for (double value : values) {
+            max = Math.max(max, Math.abs(value));
+        }
+        return max;
+    }
+
+    // taps standing for weights * 2^bits, with the scale and the error bound that go with them
+    private Fixed scaled(int[][] taps, int bits) {
+        double factor = Math.scalb(1.0 / divisor, -bits);
+        FixedPoint scale = FixedPoint.of(factor, offset);
+
+        double tapError = 0;
+        long tapSum = 0;
+        for (int i = 0; i < taps.length; i++) {
+            for (int j = 0; j < taps[i].length; j++) {
+                tapError += Math.abs(Math.scalb((double) taps[i][j], -bits) - weights[i][j]);
+                tapSum += Math.abs(taps[i][j]);
+            }
+        }
+        double maxError = 255 * tapError / Math.abs(divisor) + scale.maxError(factor, offset, 255.0 * tapSum);
+        return new Fixed(taps, scale, maxError);
+    }
+
+    /**
+     * Float reference: output rows [y0, y1) accumulated in double precision and rounded once,
+     * with the same addressing, zero padding and tables as GrayRaster.convolveRows. Slow; it is
+     * there to measure the fixed-point path against.
+     */
+    public void referenceRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                              int width, int height,
+                              byte[] dst, int dstOff, int dstStride, byte[] encode,
+                              int y0, int y1) {
+        int centerY = weights.length / 2;
+        int centerX = weights[0].length / 2;
+        for (int y = y0; y < y1; y++) {
+            for (int x = 0; x < width; x++) {
+                double sum = 0;
+                for (int ky = 0; ky < weights.length; ky++) {
+                    int pixelY = y + ky - centerY;
+                    if (pixelY < 0 || pixelY >= height) continue;
+                    for (int kx = 0; kx < weights[ky].length; kx++) {
+                        int pixelX = x + kx - centerX;
+                        if (pixelX < 0 || pixelX >= width) continue;
+                        sum += weights[ky][kx] * decode[src[srcOff + pixelY * srcStride + pixelX] & 0xFF];
+                    }
+                }
+                double value = Math.floor(sum / divisor + offset + 0.5);
+                dst[dstOff + y * dstStride + x] = encode[(int) Math.max(0, Math.min(255, value))];
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Kernel other && divisor == other.divisor && offset == other.offset
+                && Arrays.deepEquals(weights, other.weights);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.deepHashCode(weights) + Double.hashCode(divisor)) + Double.hashCode(offset);
+    }
+
+    @Override
+    public String toString() {
+        String text = rows() + "x" + cols() + " kernel";
+        if (divisor != 1) text += " / " + divisor;
+        if (offset != 0) text += (offset > 0 ? " + " : " - ") + Math.abs(offset);
+        return text;
+    }
+}
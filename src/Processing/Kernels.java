@@ -0,0 +1,115 @@
+package Processing;
+
+import Constants.CONSTANTS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Looks kernels up by name or loads them from a text file, for the headless entry points.
+ * A kernel file has one row per line, weights separated by spaces or commas; blank lines and
+ * lines starting with # are ignored. Weights may be decimals, and a "divisor X" or "offset X"
+ * line sets those (see Kernel); only resolveKernel and loadKernel accept such files.
+ */
+public final class Kernels {
+
+    private Kernels() {
+    }
+
+    // preset name (case and separators don't matter) or path to a kernel file
+    public static int[][] resolve(String nameOrFile) throws IOException {
+        int[][] preset = byName(nameOrFile);
+        if (preset != null) return preset;
+        File file = new File(nameOrFile);
+        if (!file.isFile()) {
+            throw new IOException("Unknown kernel '" + nameOrFile + "' (not a preset and no such file)");
+        }
+        return load(file);
+    }
+
+    /**
+     * Like resolve, but with fractional kernels: "box" and "blur" average instead of summing
+     * (the int "box" is DEFAULT_KERNEL, which saturates), "gaussian" is a 5x5 Gaussian with
+     * sigma 1, and kernel files may have decimals, a divisor and an offset.
+     */
+    public static Kernel resolveKernel(String nameOrFile) throws IOException {
+        String key = nameOrFile.toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "");
+        switch (key) {
+            case "box", "blur", "boxblur" -> {
+                return Kernel.box(3);
+            }
+            case "gaussian", "gaussianblur" -> {
+                return Kernel.gaussian(5, 1.0);
+            }
+            default -> {
+            }
+        }
+        int[][] preset = byName(nameOrFile);
+        if (preset != null) return Kernel.of(preset);
+        File file = new File(nameOrFile);
+        if (!file.isFile()) {
+            throw new IOException("Unknown kernel '" + nameOrFile + "' (not a preset and no such file)");
+        }
+        return loadKernel(file);
+    }
+
+    public static int[][] byName(String name) {
+        String key = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "");
+        return switch (key) {
+            case "ridge", "ridgedetection" -> CONSTANTS.RIDGE_DETECTION_KERNEL;
+            case "edge", "edgedetection" -> CONSTANTS.EDGE_DETECTION_KERNEL;
+            case "identity" -> CONSTANTS.IDENTITY_KERNEL;
+            case "sharpen" -> CONSTANTS.SHARPEN_KERNEL;
+            case "default", "box", "custom" -> CONSTANTS.DEFAULT_KERNEL;
+            default -> null;
+        };
+    }
+
+    public static int[][] load(File file) throws IOException {
+        Kernel kernel = loadKernel(file);
+        if (!kernel.isInteger()) {
+            throw new IOException("Kernel file " + file + " has fractional weights, a divisor or an offset");
+        }
+        return kernel.toIntKernel();
+    }
+
+    public static Kernel loadKernel(File file) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        double divisor = 1;
+        double offset = 0;
+        for (String line : Files.readAllLines(file.toPath())) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            String[] tokens = trimmed.split("[\\s,]+");
+            try {
+                String keyword = tokens[0].toLowerCase(Locale.ROOT);
+                if (tokens.length == 2 && (keyword.equals("divisor") || keyword.equals("offset"))) {
+                    double value = Double.parseDouble(tokens[1]);
+                    if (keyword.equals("divisor")) divisor = value;
+                    else offset = value;
+                    continue;
+                }
+                double[] row = new double[tokens.length];
+                for (int i = 0; i < tokens.length; i++) {
+                    row[i] = Double.parseDouble(tokens[i]);
+                }
+                if (!rows.isEmpty() && rows.get(0).length != row.length) {
+                    throw new IOException("Kernel rows in " + file + " have different lengths");
+                }
+                rows.add(row);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad kernel weight in " + file + ": " + trimmed, e);
+            }
+        }
+        if (rows.isEmpty()) throw new IOException("Kernel file " + file + " is empty");
+        try {
+            return new Kernel(rows.toArray(new double[0][]), divisor, offset);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad kernel in " + file + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package Processing;
+
+import java.util.Arrays;
+
+/**
+ * Convolution laid out for SIMD: instead of walking the kernel for every output pixel, every
+ * kernel tap is applied to a whole run of output pixels at once,
+ * <pre>
+ *     accumulator[x] += weight * line[x + shift]   for x in the run
+ * </pre>
+ * over int arrays. Source rows are widened from bytes to ints once per row into a ring buffer,
+ * and the clamp to 0..255 runs as a separate min/max pass over the row.
+ * <p>
+ * When the JVM is started with --add-modules jdk.incubator.vector the tap and clamp loops run
+ * on the Vector API (VectorLanes). Without the module (or with -Dlanes.scalar=true) they stay
+ * plain loops: unit stride and no branches, the shape HotSpot's superword pass usually turns
+ * into vector multiply-adds anyway, but with no guarantee. Both give the same result.
+ * <p>
+ * Image edges need no special case: each tap only runs over the x range where it lands inside
+ * the image, which is exactly the zero padding of the direct loop. Output is bit-exact with
+ * GrayRaster.convolveRowsDirect.
+ */
+public final class LaneConvolver {
+
+    // columns handled per pass so the accumulator and the touched row slices stay in L1
+    private static final int COLUMN_BLOCK = 2048;
+
+    // jdk.incubator.vector is resolved only when asked for on the command line
+    public static final boolean VECTOR_API = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("lanes.scalar");
+
+    private LaneConvolver() {
+    }
+
+    /** Same contract as GrayRaster.convolveRows. */
+    public static void convolveRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                                    int width, int height, int[][] kernel,
+                                    byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                    int y0, int y1) {
+        convolveRows(src, srcOff, srcStride, decode, width, height, kernel, FixedPoint.IDENTITY,
+                dst, dstOff, dstStride, encode, y0, y1);
+    }
+
+    // with a fixed-point scale, which replaces the min/max pass
+    public static void convolveRows(byte[] src, int srcOff, int srcStride, int[] decode,
+                                    int width, int height, int[][] kernel, FixedPoint scale,
+                                    byte[] dst, int dstOff, int dstStride, byte[] encode,
+                                    int y0, int y1) {
+        boolean plain = scale.isIdentity();
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+        int centerY = kernelHeight / 2;
+        int centerX = kernelWidth / 2;
+        boolean identity = decode == GrayRaster.IDENTITY_DECODE;
+
+        // ring[r % kernelHeight] holds decoded source row r
+        int[][] ring = new int[kernelHeight][width];
+        int[] accumulator = new int[width];
+        int nextRow = Math.max(0, y0 - centerY);
+
+        for (int y = y0; y < y1; y++) {
+            int lastNeeded = Math.min(height - 1, y + kernelHeight - 1 - centerY);
+            for (; nextRow <= lastNeeded; nextRow++) {
+                int[] line = ring[nextRow % kernelHeight];
+                int srcRow = srcOff + nextRow * srcStride;
+                if (identity) {
+                    // plain widening, vectorises
+                    for (int x = 0; x < width; x++) {
+                        line[x] = src[srcRow + x] & 0xFF;
+                    }
+                } else {
+                    // table lookup is a gather, but it is paid once per row instead of once per tap
+                    for (int x = 0; x < width; x++) {
+                        line[x] = decode[src[srcRow + x] & 0xFF];
+                    }
+                }
+            }
+
+            Arrays.fill(accumulator, 0);
+            for (int blockStart = 0; blockStart < width; blockStart += COLUMN_BLOCK) {
+                int blockEnd = Math.min(width, blockStart + COLUMN_BLOCK);
+                for (int ky = 0; ky < kernelHeight; ky++) {
+                    int row = y + ky - centerY;
+                    if (row < 0 || row >= height) continue;
+                    int[] line = ring[row % kernelHeight];
+                    int[] weights = kernel[ky];
+                    for (int kx = 0; kx < kernelWidth; kx++) {
+                        int weight = weights[kx];
+                        if (weight == 0) continue;
+                        int shift = kx - centerX;
+                        int from = Math.max(blockStart, -shift);
+                        int to = Math.min(blockEnd, width - shift);
+                        if (VECTOR_API) {
+                            VectorLanes.multiplyAdd(accumulator, line, weight, shift, from, to);
+                            continue;
+                        }
+                        for (int x = from; x < to; x++) {
+                            accumulator[x] += weight * line[x + shift];
+                        }
+                    }
+                }
+            }
+
+            // saturate in place with min/max, then map through the encode table
+            if (plain && VECTOR_API) {
+                VectorLanes.clamp(accumulator, width);
+            } else if (plain) {
+                for (int x = 0; x < width; x++) {
+                    accumulator[x] = Math.min(255, Math.max(0, accumulator[x]));
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    accumulator[x] = scale.clamped(accumulator[x]);
+                }
+            }
+            int dstRow = dstOff + y * dstStride;
+            for (int x = 0; x < width; x++) {
+                dst[dstRow + x] = encode[accumulator[x]];
+            }
+        }
+    }
+}
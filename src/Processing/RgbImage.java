@@ -0,0 +1,87 @@
+package Processing;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Colour image as a plain int array of packed 0xRRGGBB pixels: pixel (x, y) is
+ * data[offset + y * stride + x]. The top byte is ignored, so TYPE_INT_ARGB arrays can be shared
+ * as they are.
+ * <p>
+ * Sub views share the array. wrap shares the raster array of TYPE_INT_RGB and TYPE_INT_ARGB
+ * images and toBufferedImage always shares this one.
+ */
+public final class RgbImage {
+
+    private static final int[] MASKS = {0xFF0000, 0xFF00, 0xFF};
+    private static final DirectColorModel RGB_MODEL = new DirectColorModel(24, MASKS[0], MASKS[1], MASKS[2]);
+
+    public final int[] data;
+    public final int offset;
+    public final int stride;
+    public final int width;
+    public final int height;
+
+    public RgbImage(int width, int height) {
+        this(new int[width * height], 0, width, width, height);
+    }
+
+    public RgbImage(int[] data, int offset, int stride, int width, int height) {
+        if (width < 0 || height < 0 || stride < width || offset < 0
+                || (height > 0 && offset + (long) (height - 1) * stride + width > data.length)) {
+            throw new IllegalArgumentException("Bad layout " + width + "x" + height + " at offset " + offset
+                    + ", stride " + stride + " in " + data.length + " pixels");
+        }
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * View of an int-packed RGB or ARGB image (sub images included) over its raster array, or a
+     * copy through getRGB for every other layout, such as the 3-byte BGR images JPEG decodes to.
+     */
+    public static RgbImage wrap(BufferedImage image) {
+        int type = image.getType();
+        WritableRaster raster = image.getRaster();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            int start = buffer.getOffset() + sm.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            return new RgbImage(buffer.getData(), start, sm.getScanlineStride(), image.getWidth(), image.getHeight());
+        }
+        RgbImage copy = new RgbImage(image.getWidth(), image.getHeight());
+        image.getRGB(0, 0, copy.width, copy.height, copy.data, 0, copy.width);
+        return copy;
+    }
+
+    // TYPE_INT_RGB image backed by this array; writes through either side show up in both
+    public BufferedImage toBufferedImage() {
+        SinglePixelPackedSampleModel sm = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, stride, MASKS);
+        WritableRaster raster = Raster.createWritableRaster(sm, new DataBufferInt(data, data.length, offset), null);
+        return new BufferedImage(RGB_MODEL, raster, false, null);
+    }
+
+    // w x h view whose top-left pixel is (x, y) of this one
+    public RgbImage subImage(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("Region " + w + "x" + h + " at (" + x + ", " + y + ") outside " + width + "x" + height);
+        }
+        return new RgbImage(data, offset + y * stride + x, stride, w, h);
+    }
+
+    public int get(int x, int y) {
+        return data[offset + y * stride + x];
+    }
+
+    public void set(int x, int y, int rgb) {
+        data[offset + y * stride + x] = rgb;
+    }
+}
@@ -0,0 +1,78 @@
+package Processing;
+
+/**
+ * Integer factorisation of a rank-1 kernel: kernel[i][j] == column[i] * row[j] for every tap.
+ * <p>
+ * A rank-1 kernel can be applied as a horizontal pass with row followed by a vertical pass with
+ * column, at kernelWidth + kernelHeight multiplies per pixel instead of kernelWidth * kernelHeight.
+ * Because the factors are exact integers the two-pass result is bit-identical to the 2D loop.
+ */
+public final class SeparableKernel {
+
+    public final int[] column;
+    public final int[] row;
+
+    private SeparableKernel(int[] column, int[] row) {
+        this.column = column;
+        this.row = row;
+    }
+
+    /**
+     * Returns the integer factors of the kernel, or null when it is not rank 1 (or all zero).
+     * <p>
+     * For integer matrices the rank check is done exactly instead of through an SVD: the kernel is
+     * rank 1 when every row is a multiple of one pivot row. Dividing the pivot row by the gcd of
+     * its entries gives a primitive vector, and any integer multiple of a primitive vector has an
+     * integer multiplier, so both factors stay integral.
+     */
+    public static SeparableKernel factor(int[][] kernel) {
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+
+        int pivotRow = -1;
+        for (int i = 0; i < kernelHeight && pivotRow < 0; i++) {
+            if (kernel[i].length != kernelWidth) return null;
+            for (int j = 0; j < kernelWidth; j++) {
+                if (kernel[i][j] != 0) {
+                    pivotRow = i;
+                    break;
+                }
+            }
+        }
+        if (pivotRow < 0) return null;
+
+        int gcd = 0;
+        int pivotCol = -1;
+        for (int j = 0; j < kernelWidth; j++) {
+            gcd = gcd(gcd, Math.abs(kernel[pivotRow][j]));
+            if (pivotCol < 0 && kernel[pivotRow][j] != 0) pivotCol = j;
+        }
+        // keep the row factor's first non-zero weight positive
+        if (kernel[pivotRow][pivotCol] < 0) gcd = -gcd;
+
+        int[] row = new int[kernelWidth];
+        for (int j = 0; j < kernelWidth; j++) {
+            row[j] = kernel[pivotRow][j] / gcd;
+        }
+
+        int[] column = new int[kernelHeight];
+        for (int i = 0; i < kernelHeight; i++) {
+            if (kernel[i].length != kernelWidth) return null;
+            if (kernel[i][pivotCol] % row[pivotCol] != 0) return null;
+            column[i] = kernel[i][pivotCol] / row[pivotCol];
+            for (int j = 0; j < kernelWidth; j++) {
+                if ((long) column[i] * row[j] != kernel[i][j]) return null;
+            }
+        }
+        return new SeparableKernel(column, row);
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
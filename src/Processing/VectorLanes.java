@@ -0,0 +1,43 @@
+package Processing;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The per-tap and clamp loops of LaneConvolver on the Vector API (jdk.incubator.vector): one
+ * IntVector of the widest shape the CPU supports per step, whether or not the superword pass
+ * would have vectorised the scalar loop. Only touched when LaneConvolver.VECTOR_API is set, so
+ * the class is never loaded on a JVM started without the module.
+ */
+final class VectorLanes {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    private VectorLanes() {
+    }
+
+    // accumulator[x] += weight * line[x + shift] for from <= x < to
+    static void multiplyAdd(int[] accumulator, int[] line, int weight, int shift, int from, int to) {
+        int x = from;
+        for (int bound = from + INTS.loopBound(to - from); x < bound; x += INTS.length()) {
+            IntVector.fromArray(INTS, line, x + shift)
+                    .mul(weight)
+                    .add(IntVector.fromArray(INTS, accumulator, x))
+                    .intoArray(accumulator, x);
+        }
+        for (; x < to; x++) {
+            accumulator[x] += weight * line[x + shift];
+        }
+    }
+
+    // accumulator[x] = min(255, max(0, accumulator[x])) for the first width values
+    static void clamp(int[] accumulator, int width) {
+        int x = 0;
+        for (int bound = INTS.loopBound(width); x < bound; x += INTS.length()) {
+            IntVector.fromArray(INTS, accumulator, x).max(0).min(255).intoArray(accumulator, x);
+        }
+        for (; x < width; x++) {
+            accumulator[x] = Math.min(255, Math.max(0, accumulator[x]));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package batch;
+
+import Constants.CONSTANTS;
+import Processing.BufferPool;
+import Processing.FilterPipeline;
+import Processing.IMGProcessor;
+import parallel.PImgProcessing.PImgProcMethods;
+import raster.RImgProcessing.RImgProcMethods;
+import sequential.ImgProcessing.ImgProcMethods;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Headless batch mode: runs every image of a directory through the chosen processor without
+ * opening the GUI.
+ * <p>
+ * Usage: BatchMain [--input DIR] [--output DIR] [--kernel NAME|FILE|CHAIN]
+ * [--processor sequential|raster|parallel] [--threads N]
+ * [--decoders N] [--workers N] [--encoders N] [--queue N]
+ * <p>
+ * --kernel also takes a comma separated chain such as "box,sharpen,edge" or
+ * "box,threshold:128", run as one fused FilterPipeline (see FilterPipeline.parse).
+ * <p>
+ * The distributed processor needs MPI ranks around it, so it is not offered here.
+ */
+public class BatchMain {
+
+    public static void main(String[] args) {
+        String input = CONSTANTS.INPUT_IMAGES_DIRECTORY;
+        String output = CONSTANTS.OUTPUT_IMAGES_DIRECTORY;
+        String kernelName = "ridge";
+        String processorName = "parallel";
+        int threads = 0;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int decoders = Math.max(1, cores / 2);
+        int workers = 1;
+        int encoders = Math.max(1, cores / 2);
+        int queue = 4;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--input" -> input = args[++i];
+                case "--output" -> output = args[++i];
+                case "--kernel" -> kernelName = args[++i];
+                case "--processor" -> processorName = args[++i];
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--decoders" -> decoders = Integer.parseInt(args[++i]);
+                case "--workers" -> workers = Integer.parseInt(args[++i]);
+                case "--encoders" -> encoders = Integer.parseInt(args[++i]);
+                case "--queue" -> queue = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        FilterPipeline filters;
+        try {
+            filters = FilterPipeline.parse(kernelName);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        IMGProcessor processor = switch (processorName.toLowerCase(Locale.ROOT)) {
+            case "sequential" -> new ImgProcMethods();
+            case "raster" -> new RImgProcMethods();
+            case "parallel" -> new PImgProcMethods(threads, 0);
+            default -> {
+                System.err.println("Unknown processor: " + processorName);
+                System.exit(2);
+                yield null;
+            }
+        };
+
+        File inputDirectory = new File(input);
+        File[] files = inputDirectory.listFiles(f -> f.isFile() && isImage(f.getName()));
+        if (files == null || files.length == 0) {
+            System.err.println("No images found in " + inputDirectory.getAbsolutePath());
+            System.exit(1);
+        }
+        Arrays.sort(files);
+
+        File outputDirectory = new File(output);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.println("Cannot create output directory " + outputDirectory.getAbsolutePath());
+            System.exit(1);
+        }
+
+        System.out.println(processor + ": " + files.length + " images, " + decoders + " decoders, "
+                + workers + " workers, " + encoders + " encoders, queue " + queue);
+
+        BatchPipeline pipeline = new BatchPipeline(processor, filters, outputDirectory, decoders, workers, encoders, queue);
+        long wallNanos;
+        try {
+            wallNanos = pipeline.run(List.of(files));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        double seconds = wallNanos / 1e9;
+        System.out.printf("Processed %d images (%d failed) in %.2f s: %.2f images/sec%n",
+                pipeline.completed(), pipeline.failures(), seconds, pipeline.completed() / seconds);
+        System.out.println(LatencyStats.header());
+        for (LatencyStats stats : pipeline.stats()) {
+            System.out.println(stats.summary());
+        }
+        System.out.println(BufferPool.SHARED.summary());
+    }
+
+    public static boolean isImage(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp");
+    }
+}
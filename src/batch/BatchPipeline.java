@@ -0,0 +1,274 @@
+package batch;
+
+import Processing.BufferPool;
+import Processing.FilterPipeline;
+import Processing.GrayImage;
+import Processing.IMGProcessor;
+import Processing.ImageDecoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decode -> convolve (one kernel or a whole FilterPipeline) -> encode, each stage on its own thread pool, connected by bounded queues
+ * so a fast stage blocks instead of piling decoded images up on the heap. While one image is
+ * being convolved the next ones are already decoding and the previous ones encoding.
+ * <p>
+ * Decoders reuse their ImageReader from file to file (ImageDecoder) and decode into colour
+ * images the convolve stage is done with, when the next file has the same size and layout.
+ */
+public class BatchPipeline {
+
+    // what travels between stages; a null image marks the end of the stream
+    private record Item(File file, BufferedImage image, long startNanos) {
+    }
+
+    private static final Item END = new Item(null, null, 0);
+
+    private final IMGProcessor processor;
+    private final FilterPipeline filters;
+    private final File outputDirectory;
+    private final int decoders;
+    private final int workers;
+    private final int encoders;
+    private final int queueCapacity;
+
+    private final LatencyStats decodeStats = new LatencyStats("decode");
+    private final LatencyStats convolveStats = new LatencyStats("convolve");
+    private final LatencyStats encodeStats = new LatencyStats("encode");
+    private final LatencyStats totalStats = new LatencyStats("end-to-end");
+    private final AtomicInteger failures = new AtomicInteger();
+
+    public BatchPipeline(IMGProcessor processor, int[][] kernel, File outputDirectory,
+                         int decoders, int workers, int encoders, int queueCapacity) {
+        this(processor, FilterPipeline.of(kernel), outputDirectory, decoders, workers, encoders, queueCapacity);
+    }
+
+    public BatchPipeline(IMGProcessor processor, FilterPipeline filters, File outputDirectory,
+                         int decoders, int workers, int encoders, int queueCapacity) {
+        this.processor = processor;
+        this.filters = filters;
+        this.outputDirectory = outputDirectory;
+        this.decoders = Math.max(1, decoders);
+        this.workers = Math.max(1, workers);
+        this.encoders = Math.max(1, encoders);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /** Processes every file and blocks until the last output is written. Returns the wall time in ns. */
+    public long run(List<File> inputs) throws InterruptedException {
+        BlockingQueue<File> pending = new ArrayBlockingQueue<>(Math.max(1, inputs.size()), false, inputs);
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> processed = new ArrayBlockingQueue<>(queueCapacity);
+        // colour images already converted to gray, for the decoders to decode into again
+        BlockingQueue<BufferedImage> spare = new ArrayBlockingQueue<>(decoders + workers);
+
+        ExecutorService decodePool = Executors.newFixedThreadPool(decoders, named("decode"));
+        ExecutorService convolvePool = Executors.newFixedThreadPool(workers, named("convolve"));
+        ExecutorService encodePool = Executors.newFixedThreadPool(encoders, named("encode"));
+
+        long start = System.nanoTime();
+        AtomicInteger decodersLeft = new AtomicInteger(decoders);
+        AtomicInteger workersLeft = new AtomicInteger(workers);
+        AtomicInteger encodersLeft = new AtomicInteger(encoders);
+        // END markers taken off each queue; a thread that dies never takes its own
+        AtomicInteger workerEnds = new AtomicInteger();
+        AtomicInteger encoderEnds = new AtomicInteger();
+
+        // Every stage thread hands its end of the stream on in a finally, so one dying of an Error
+        // (say OOM on a huge image) loses its current item, counted as a failure, instead of leaving
+        // the next stage waiting for an END forever. The last thread out of a stage also takes
+        // whatever is still queued for it, as nobody is left to process that.
+        for (int i = 0; i < decoders; i++) {
+            decodePool.execute(() -> stage(() -> {
+                File file = null;
+                try {
+                    while ((file = pending.poll()) != null) {
+                        long t0 = System.nanoTime();
+                        BufferedImage image = decode(file, spare.poll());
+                        if (image == null) continue;
+                        decodeStats.record(System.nanoTime() - t0);
+                        decoded.put(new Item(file, image, t0));
+                    }
+                } catch (Throwable e) {
+                    lost(file, e);
+                    throw e;
+                } finally {
+                    // the last decoder out tells every convolve thread to stop
+                    if (decodersLeft.decrementAndGet() == 0) {
+                        while ((file = pending.poll()) != null) lost(file, null);
+                        for (int j = 0; j < workers; j++) decoded.put(END);
+                    }
+                }
+            }));
+        }
+
+        for (int i = 0; i < workers; i++) {
+            convolvePool.execute(() -> stage(() -> {
+                Item held = null;
+                try {
+                    Item item;
+                    while ((item = decoded.take()) != END) {
+                        held = item;
+                        long t0 = System.nanoTime();
+                        BufferedImage outputImage;
+                        try {
+                            GrayImage grayImage = GrayImage.wrap(processor.convertToGrayscale(item.image()));
+                            spare.offer(item.image());
+                            outputImage = processor.applyPipeline(grayImage, filters).toBufferedImage();
+                            BufferPool.SHARED.release(grayImage);
+                        } catch (RuntimeException e) {
+                            System.err.println("Failed to process " + item.file() + ": " + e);
+                            failures.incrementAndGet();
+                            held = null;
+                            continue;
+                        }
+                        convolveStats.record(System.nanoTime() - t0);
+                        processed.put(new Item(item.file(), outputImage, item.startNanos()));
+                        held = null;
+                    }
+                    workerEnds.incrementAndGet();
+                } catch (Throwable e) {
+                    if (held != null) lost(held.file(), e);
+                    throw e;
+                } finally {
+                    if (workersLeft.decrementAndGet() == 0) {
+                        // let the decoders finish into an empty stage
+                        while (workerEnds.get() < workers) {
+                            Item item = decoded.take();
+                            if (item == END) workerEnds.incrementAndGet();
+                            else lost(item.file(), null);
+                        }
+                        for (int j = 0; j < encoders; j++) processed.put(END);
+                    }
+                }
+            }));
+        }
+
+        for (int i = 0; i < encoders; i++) {
+            encodePool.execute(() -> stage(() -> {
+                Item held = null;
+                try {
+                    Item item;
+                    while ((item = processed.take()) != END) {
+                        held = item;
+                        long t0 = System.nanoTime();
+                        if (encode(item)) {
+                            long t1 = System.nanoTime();
+                            encodeStats.record(t1 - t0);
+                            totalStats.record(t1 - item.startNanos());
+                        }
+                        held = null;
+                    }
+                    encoderEnds.incrementAndGet();
+                } catch (Throwable e) {
+                    if (held != null) lost(held.file(), e);
+                    throw e;
+                } finally {
+                    if (encodersLeft.decrementAndGet() == 0) {
+                        while (encoderEnds.get() < encoders) {
+                            Item item = processed.take();
+                            if (item == END) {
+                                encoderEnds.incrementAndGet();
+                            } else {
+                                lost(item.file(), null);
+                                BufferPool.SHARED.release(item.image());
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+
+        decodePool.shutdown();
+        convolvePool.shutdown();
+        encodePool.shutdown();
+        decodePool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        convolvePool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        encodePool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return System.nanoTime() - start;
+    }
+
+    // an item a dead stage thread was holding, or one left queued with no thread to take it
+    private void lost(File file, Throwable cause) {
+        if (file == null) return;
+        System.err.println("Lost " + file + (cause != null ? ": " + cause : ": no thread left to process it"));
+        failures.incrementAndGet();
+    }
+
+    private BufferedImage decode(File file, BufferedImage destination) {
+        try {
+            BufferedImage image = ImageDecoder.read(file, destination);
+            if (image == null) {
+                System.err.println("Skipping " + file + ": no ImageIO reader for it");
+                failures.incrementAndGet();
+            }
+            return image;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to decode " + file + ": " + e.getMessage());
+            failures.incrementAndGet();
+            return null;
+        }
+    }
+
+    private boolean encode(Item item) {
+        String name = item.file().getName();
+        int dot = name.lastIndexOf('.');
+        File outputFile = new File(outputDirectory, (dot > 0 ? name.substring(0, dot) : name) + ".png");
+        try {
+            ImageIO.write(item.image(), "png", outputFile);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to write " + outputFile + ": " + e.getMessage());
+            failures.incrementAndGet();
+            return false;
+        } finally {
+            // the next image of the same size gets this raster instead of a fresh one
+            BufferPool.SHARED.release(item.image());
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws InterruptedException;
+    }
+
+    private static void stage(StageBody body) {
+        try {
+            body.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory named(String stage) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, stage + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public List<LatencyStats> stats() {
+        return List.of(decodeStats, convolveStats, encodeStats, totalStats);
+    }
+
+    public int completed() {
+        return totalStats.count();
+    }
+
+    public int failures() {
+        return failures.get();
+    }
+}
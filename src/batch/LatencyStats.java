@@ -0,0 +1,53 @@
+package batch;
+
+import metrics.Histogram;
+
+/**
+ * Collects per-item latencies of one pipeline stage and reports percentiles.
+ * Thread safe; every stage thread records into the same instance. Samples go into a
+ * metrics.Histogram, so percentiles are within about 3% and memory stays fixed however long
+ * the batch.
+ */
+public class LatencyStats {
+
+    private final String name;
+    private final Histogram histogram = new Histogram();
+
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    public int count() {
+        return (int) Math.min(Integer.MAX_VALUE, histogram.count());
+    }
+
+    // nearest-rank percentile in milliseconds, 0 when nothing was recorded
+    public double percentileMs(double percentile) {
+        return histogram.percentile(percentile) / 1e6;
+    }
+
+    public double meanMs() {
+        return histogram.mean() / 1e6;
+    }
+
+    public String summary() {
+        return String.format("%-10s %6d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                name, count(), meanMs(), percentileMs(50), percentileMs(90), percentileMs(99), percentileMs(100));
+    }
+
+    public static String header() {
+        return String.format("%-10s %6s %9s %9s %9s %9s %9s", "stage", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms");
+    }
+}
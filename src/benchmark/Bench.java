@@ -0,0 +1,88 @@
+package benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Minimal measurement harness in the spirit of JMH: warm-up iterations are run and thrown away,
+ * then every measured iteration is timed on its own. Allocation is read from the per-thread
+ * allocation counters of every live thread (so pool threads count too), which is what JMH's GC
+ * profiler reports as gc.alloc.rate and gc.alloc.rate.norm.
+ */
+public final class Bench {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Result of one benchmark: timings in nanoseconds per operation, allocation per operation and
+     * the number of collections that happened while measuring.
+     */
+    public record Result(double meanNanos, double stddevNanos, long bestNanos,
+                         long allocatedBytesPerOp, double allocRateMBPerSec, long gcCount) {
+
+        public double meanMs() {
+            return meanNanos / 1e6;
+        }
+
+        public double bestMs() {
+            return bestNanos / 1e6;
+        }
+    }
+
+    private Bench() {
+    }
+
+    public static Result measure(Runnable operation, int warmupIterations, int iterations) {
+        for (int i = 0; i < warmupIterations; i++) {
+            operation.run();
+        }
+
+        long[] samples = new long[Math.max(1, iterations)];
+        long gcBefore = gcCount();
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < samples.length; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            samples[i] = System.nanoTime() - start;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+        long gcs = gcCount() - gcBefore;
+
+        double sum = 0;
+        long best = Long.MAX_VALUE;
+        for (long sample : samples) {
+            sum += sample;
+            best = Math.min(best, sample);
+        }
+        double mean = sum / samples.length;
+        double squares = 0;
+        for (long sample : samples) {
+            squares += (sample - mean) * (sample - mean);
+        }
+        double stddev = samples.length > 1 ? Math.sqrt(squares / (samples.length - 1)) : 0;
+        double rate = sum > 0 ? allocated / (sum / 1e9) / (1024 * 1024) : 0;
+
+        return new Result(mean, stddev, best, allocated / samples.length, rate, gcs);
+    }
+
+    // bytes allocated so far by every live thread, or 0 if the JVM cannot tell
+    public static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean threads) || !threads.isThreadAllocatedMemorySupported()) {
+            return 0;
+        }
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) total += allocated;
+        }
+        return total;
+    }
+
+    public static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,101 @@
+package benchmark;
+
+import Processing.FFTConvolver;
+import Processing.GrayRaster;
+import Processing.LaneConvolver;
+import parallel.PImgProcessing.PImgProcMethods;
+import parallel.PImgProcessing.RowBandTask;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times the direct 2D loop and LaneConvolver against FFTConvolver for growing square kernels,
+ * single threaded (what the raster processor runs) and on the parallel processor's row bands,
+ * and prints where the FFT starts to win. FFTConvolver.MIN_TAPS and MIN_TAPS_LANES come from
+ * this table.
+ * <p>
+ * Usage: FFTCrossoverBenchmark [width] [height] [maxKernelSize] [repeats]
+ */
+public class FFTCrossoverBenchmark {
+
+    private interface Convolver {
+        void convolve(byte[] src, int width, int height, int[][] kernel, byte[] dst, int y0, int y1);
+    }
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        int maxKernel = args.length > 2 ? Integer.parseInt(args[2]) : 41;
+        int repeats = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        Random random = new Random(42);
+        byte[] src = new byte[width * height];
+        random.nextBytes(src);
+        byte[] dst = new byte[width * height];
+
+        Convolver direct = (s, w, h, k, d, y0, y1) -> GrayRaster.convolveRowsDirect(s, 0, w, GrayRaster.DECODE,
+                w, h, k, d, 0, w, GrayRaster.ENCODE, y0, y1);
+        Convolver lanes = (s, w, h, k, d, y0, y1) -> LaneConvolver.convolveRows(s, 0, w, GrayRaster.DECODE,
+                w, h, k, d, 0, w, GrayRaster.ENCODE, y0, y1);
+        Convolver fft = (s, w, h, k, d, y0, y1) -> FFTConvolver.convolveRows(s, 0, w, GrayRaster.DECODE,
+                w, h, k, d, 0, w, GrayRaster.ENCODE, y0, y1);
+
+        ForkJoinPool pool = PImgProcMethods.poolFor(0);
+        int threads = pool.getParallelism();
+
+        System.out.printf("image %d x %d, best of %d, %d threads for the parallel columns%n", width, height, repeats, threads);
+        System.out.printf("%7s %6s %12s %12s %12s %12s %12s%n", "kernel", "taps", "direct ms", "lanes ms", "fft ms", "P direct ms", "P fft ms");
+
+        int crossoverLanes = -1;
+        int crossoverSequential = -1;
+        int crossoverParallel = -1;
+        for (int size = 3; size <= maxKernel; size += 2) {
+            int[][] kernel = randomKernel(size, random);
+
+            double directMs = time(() -> direct.convolve(src, width, height, kernel, dst, 0, height), repeats);
+            double lanesMs = time(() -> lanes.convolve(src, width, height, kernel, dst, 0, height), repeats);
+            double fftMs = time(() -> fft.convolve(src, width, height, kernel, dst, 0, height), repeats);
+            // one band per thread for the FFT, same as PImgProcMethods does
+            int fftGrain = (height + threads - 1) / threads;
+            int directGrain = RowBandTask.grainFor(width, height, 1 + size, threads);
+            double parallelDirectMs = time(() -> pool.invoke(new RowBandTask(
+                    (y0, y1) -> direct.convolve(src, width, height, kernel, dst, y0, y1), 0, height, directGrain)), repeats);
+            double parallelFftMs = time(() -> pool.invoke(new RowBandTask(
+                    (y0, y1) -> fft.convolve(src, width, height, kernel, dst, y0, y1), 0, height, fftGrain)), repeats);
+
+            System.out.printf("%3d x %-3d %6d %12.1f %12.1f %12.1f %12.1f %12.1f%n",
+                    size, size, size * size, directMs, lanesMs, fftMs, parallelDirectMs, parallelFftMs);
+            if (crossoverLanes < 0 && fftMs < lanesMs) crossoverLanes = size;
+            if (crossoverSequential < 0 && fftMs < directMs) crossoverSequential = size;
+            if (crossoverParallel < 0 && parallelFftMs < parallelDirectMs) crossoverParallel = size;
+        }
+
+        System.out.println("FFT faster from kernel size: sequential " + describe(crossoverSequential)
+                + ", parallel " + describe(crossoverParallel)
+                + ", against lanes " + describe(crossoverLanes)
+                + " (FFTConvolver.MIN_TAPS = " + FFTConvolver.MIN_TAPS
+                + ", MIN_TAPS_LANES = " + FFTConvolver.MIN_TAPS_LANES + ")");
+    }
+
+    // dense, non-separable kernel so neither the zero-tap skip nor the separable path kicks in
+    private static int[][] randomKernel(int size, Random random) {
+        int[][] kernel = new int[size][size];
+        for (int[] row : kernel) {
+            for (int j = 0; j < size; j++) {
+                int value = random.nextInt(9) - 4;
+                row[j] = value == 0 ? 1 : value;
+            }
+        }
+        return kernel;
+    }
+
+    // one warm-up run, then the best of the given number of runs
+    private static double time(Runnable run, int repeats) {
+        return Bench.measure(run, 1, repeats).bestMs();
+    }
+
+    private static String describe(int size) {
+        return size < 0 ? "never in this range" : size + " x " + size;
+    }
+}
@@ -0,0 +1,104 @@
+package benchmark;
+
+import Processing.GrayRaster;
+import Processing.Kernel;
+
+import java.util.Random;
+
+/**
+ * Checks and times the fixed-point path for fractional kernels: for box blurs, Gaussians,
+ * random fractional kernels with an offset and sharpening kernels with negative fractional
+ * weights it compares the compiled taps (Kernel.compile run through GrayRaster.convolveRows)
+ * against Kernel.referenceRows on a random image, and times both next to the same taps run as a
+ * plain integer kernel, which is the cost floor.
+ * <p>
+ * Identity tables are used throughout, so the deviation columns are in gray levels of the
+ * computed values (the TYPE_BYTE_GRAY tables are not one to one and would magnify a one level
+ * difference); anything above 1 is a bug and is flagged.
+ * <p>
+ * Usage: FixedPointBenchmark [width] [height] [repeats]
+ */
+public class FixedPointBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        Random random = new Random(42);
+        byte[] src = new byte[width * height];
+        random.nextBytes(src);
+        byte[] fixed = new byte[width * height];
+        byte[] reference = new byte[width * height];
+
+        String[] names = {"box 3", "box 7", "gaussian 3", "gaussian 5", "gaussian 7", "gaussian 15",
+                "random 5 + 20", "random 9 - 10", "sharpen 2.5", "unsharp 5", "scale -5.09"};
+        Kernel[] kernels = {Kernel.box(3), Kernel.box(7), Kernel.gaussian(3, 0.8), Kernel.gaussian(5, 1.0),
+                Kernel.gaussian(7, 1.5), Kernel.gaussian(15, 3.0),
+                randomKernel(5, 20, random), randomKernel(9, -10, random),
+                // negative fractional weights of -2 and below, which once saturated the int taps
+                new Kernel(new double[][]{{0, -2.5, 0}, {-2.5, 11, -2.5}, {0, -2.5, 0}}, 1, 0),
+                unsharpMask(5, 1.0, 1.5), new Kernel(new double[][]{{-5.09}}, 1, 255)};
+
+        System.out.printf("image %d x %d, best of %d, single thread%n", width, height, repeats);
+        System.out.printf("%-14s %9s %9s %9s %10s %10s %10s%n",
+                "kernel", "bound", "max dev", "mean dev", "int ms", "fixed ms", "float ms");
+        boolean failed = false;
+        for (int k = 0; k < kernels.length; k++) {
+            Kernel kernel = kernels[k];
+            Kernel.Fixed compiled = kernel.compile();
+
+            double intMs = time(() -> GrayRaster.convolveRows(src, 0, width, GrayRaster.IDENTITY_DECODE, width, height,
+                    compiled.taps(), fixed, 0, width, GrayRaster.IDENTITY_ENCODE, 0, height, false), repeats);
+            double fixedMs = time(() -> GrayRaster.convolveRows(src, 0, width, GrayRaster.IDENTITY_DECODE, width, height,
+                    compiled.taps(), compiled.scale(), fixed, 0, width, GrayRaster.IDENTITY_ENCODE, 0, height, false), repeats);
+            double floatMs = time(() -> kernel.referenceRows(src, 0, width, GrayRaster.IDENTITY_DECODE, width, height,
+                    reference, 0, width, GrayRaster.IDENTITY_ENCODE, 0, height), repeats);
+
+            int maxDeviation = 0;
+            long totalDeviation = 0;
+            for (int i = 0; i < fixed.length; i++) {
+                int deviation = Math.abs((fixed[i] & 0xFF) - (reference[i] & 0xFF));
+                maxDeviation = Math.max(maxDeviation, deviation);
+                totalDeviation += deviation;
+            }
+            failed |= maxDeviation > 1;
+            System.out.printf("%-14s %9.4f %9d %9.5f %10.1f %10.1f %10.1f%s%n",
+                    names[k], compiled.maxError(), maxDeviation, (double) totalDeviation / fixed.length,
+                    intMs, fixedMs, floatMs, maxDeviation > 1 ? "  <-- more than one gray level off" : "");
+        }
+        System.out.println(failed ? "FAILED: fixed point is more than one gray level off somewhere"
+                : "fixed point within one gray level of the float reference everywhere");
+    }
+
+    // dense fractional weights in [-1, 1), normalised by their sum when that is not near 0
+    private static Kernel randomKernel(int size, double offset, Random random) {
+        double[][] weights = new double[size][size];
+        double sum = 0;
+        for (double[] row : weights) {
+            for (int j = 0; j < size; j++) {
+                row[j] = 2 * random.nextDouble() - 1;
+                sum += row[j];
+            }
+        }
+        return new Kernel(weights, Math.abs(sum) < 0.5 ? 1 : sum, offset);
+    }
+
+    // (1 + amount) * identity - amount * gaussian: fractional, with a strongly negative surround
+    private static Kernel unsharpMask(int size, double sigma, double amount) {
+        Kernel blur = Kernel.gaussian(size, sigma);
+        double[][] weights = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                weights[i][j] = -amount * blur.weight(i, j) / blur.divisor();
+            }
+        }
+        weights[size / 2][size / 2] += 1 + amount;
+        return new Kernel(weights, 1, 0);
+    }
+
+    // one warm-up run, then the best of the given number of runs
+    private static double time(Runnable run, int repeats) {
+        return Bench.measure(run, 1, repeats).bestMs();
+    }
+}
@@ -0,0 +1,194 @@
+package benchmark;
+
+import Constants.CONSTANTS;
+import Processing.IMGProcessor;
+import parallel.PImgProcessing.PImgProcMethods;
+import raster.RImgProcessing.RImgProcMethods;
+import sequential.ImgProcessing.ImgProcMethods;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Benchmarks convertToGrayscale, applyConvolution and processImage separately for every
+ * processor, over image size, kernel size and thread count. Images are synthetic squares plus,
+ * optionally, the files in common/inputImages. The distributed processor needs MPI ranks and is
+ * covered by ScalingHarness instead.
+ * <p>
+ * Usage: ProcessorBenchmark [--processors sequential,raster,parallel,lanes,parallel-lanes] [--ops gray,conv,process,fused]
+ * [--sizes 512,1024] [--kernels 3,7] [--threads 1,4] [--inputs] [--warmup 2] [--iterations 5]
+ * [--csv FILE]
+ */
+public class ProcessorBenchmark {
+
+    // processor name -> factory taking the thread count (ignored by single threaded processors)
+    static final Map<String, IntFunction<IMGProcessor>> PROCESSORS = new LinkedHashMap<>();
+    // processors whose results depend on the thread count
+    static final List<String> THREADED = new ArrayList<>();
+
+    static {
+        PROCESSORS.put("sequential", threads -> new ImgProcMethods());
+        PROCESSORS.put("raster", threads -> new RImgProcMethods());
+        PROCESSORS.put("parallel", threads -> new PImgProcMethods(threads, 0));
+        PROCESSORS.put("lanes", threads -> new RImgProcMethods(true));
+        PROCESSORS.put("parallel-lanes", threads -> new PImgProcMethods(threads, 0, true));
+        THREADED.add("parallel");
+        THREADED.add("parallel-lanes");
+    }
+
+    private record Input(String name, BufferedImage image, String path) {
+    }
+
+    // keeps results reachable so the JIT cannot drop the work
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException {
+        List<String> processors = List.of("sequential", "raster", "lanes", "parallel");
+        List<String> ops = List.of("gray", "conv", "process");
+        List<Integer> sizes = List.of(512, 1024);
+        List<Integer> kernelSizes = List.of(3, 7);
+        List<Integer> threadCounts = List.of(1, Runtime.getRuntime().availableProcessors());
+        boolean inputs = false;
+        int warmup = 2;
+        int iterations = 5;
+        String csv = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--processors" -> processors = List.of(args[++i].split(","));
+                case "--ops" -> ops = List.of(args[++i].split(","));
+                case "--sizes" -> sizes = ints(args[++i]);
+                case "--kernels" -> kernelSizes = ints(args[++i]);
+                case "--threads" -> threadCounts = ints(args[++i]);
+                case "--inputs" -> inputs = true;
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--iterations" -> iterations = Integer.parseInt(args[++i]);
+                case "--csv" -> csv = args[++i];
+                default -> {
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        List<Input> images = new ArrayList<>();
+        Random random = new Random(42);
+        for (int size : sizes) {
+            BufferedImage image = syntheticImage(size, size, random);
+            File file = File.createTempFile("bench-" + size + "-", ".png");
+            file.deleteOnExit();
+            ImageIO.write(image, "png", file);
+            images.add(new Input(size + "x" + size, image, file.getPath()));
+        }
+        if (inputs) {
+            File[] files = new File(CONSTANTS.INPUT_IMAGES_DIRECTORY).listFiles(File::isFile);
+            if (files != null) {
+                for (File file : files) {
+                    BufferedImage image = ImageIO.read(file);
+                    if (image != null) images.add(new Input(file.getName(), image, file.getPath()));
+                }
+            }
+        }
+
+        PrintWriter csvOut = csv != null ? new PrintWriter(csv) : null;
+        if (csvOut != null) {
+            csvOut.println("processor,op,image,pixels,kernel,threads,mean_ms,stddev_ms,best_ms,mpix_per_s,alloc_bytes_per_op,alloc_mb_per_s,gc_count");
+        }
+        System.out.printf("%-12s %-8s %-16s %7s %7s %10s %9s %10s %14s %11s %4s%n",
+                "processor", "op", "image", "kernel", "threads", "mean ms", "+- ms", "Mpix/s", "alloc B/op", "alloc MB/s", "gc");
+
+        for (Input input : images) {
+            // every processor convolves the same grayscale bytes
+            BufferedImage gray = new RImgProcMethods().convertToGrayscale(input.image());
+            long pixels = (long) input.image().getWidth() * input.image().getHeight();
+
+            for (String processorName : processors) {
+                IntFunction<IMGProcessor> factory = PROCESSORS.get(processorName);
+                if (factory == null) {
+                    System.err.println("Unknown processor: " + processorName);
+                    continue;
+                }
+                List<Integer> threadsToRun = THREADED.contains(processorName) ? threadCounts : List.of(1);
+                for (int threads : threadsToRun) {
+                    IMGProcessor processor = factory.apply(threads);
+                    for (String op : ops) {
+                        // grayscale does not depend on the kernel, so it is measured once
+                        List<Integer> kernelsToRun = op.equals("gray") ? List.of(0) : kernelSizes;
+                        for (int kernelSize : kernelsToRun) {
+                            int[][] kernel = kernelSize == 0 ? null : kernel(kernelSize);
+                            Runnable operation = switch (op) {
+                                case "gray" -> () -> sink = processor.convertToGrayscale(input.image());
+                                case "conv" -> () -> sink = processor.applyConvolution(gray, kernel);
+                                case "process" -> () -> sink = processor.processImage(input.path(), kernel);
+                                case "fused" -> () -> sink = processor.processImageFused(input.path(), kernel);
+                                default -> null;
+                            };
+                            if (operation == null) {
+                                System.err.println("Unknown op: " + op);
+                                continue;
+                            }
+
+                            Bench.Result result = Bench.measure(operation, warmup, iterations);
+                            double mpixPerSec = pixels / (result.meanNanos() / 1e9) / 1e6;
+                            String threadLabel = THREADED.contains(processorName) ? String.valueOf(threads) : "-";
+                            String kernelLabel = kernelSize == 0 ? "-" : kernelSize + "x" + kernelSize;
+
+                            System.out.printf("%-12s %-8s %-16s %7s %7s %10.2f %9.2f %10.1f %14d %11.1f %4d%n",
+                                    processorName, op, input.name(), kernelLabel, threadLabel,
+                                    result.meanMs(), result.stddevNanos() / 1e6, mpixPerSec,
+                                    result.allocatedBytesPerOp(), result.allocRateMBPerSec(), result.gcCount());
+                            if (csvOut != null) {
+                                csvOut.printf(Locale.ROOT, "%s,%s,%s,%d,%s,%s,%.3f,%.3f,%.3f,%.2f,%d,%.1f,%d%n",
+                                        processorName, op, input.name(), pixels, kernelLabel, threadLabel,
+                                        result.meanMs(), result.stddevNanos() / 1e6, result.bestMs(), mpixPerSec,
+                                        result.allocatedBytesPerOp(), result.allocRateMBPerSec(), result.gcCount());
+                                csvOut.flush();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (csvOut != null) csvOut.close();
+    }
+
+    // random colour image in the layout the JPEG decoder produces
+    static BufferedImage syntheticImage(int width, int height, Random random) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] data = ((java.awt.image.DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        random.nextBytes(data);
+        return image;
+    }
+
+    // 3x3 uses the ridge preset; larger sizes get a dense, non-separable random kernel
+    static int[][] kernel(int size) {
+        if (size == 3) return CONSTANTS.RIDGE_DETECTION_KERNEL;
+        Random random = new Random(size);
+        int[][] kernel = new int[size][size];
+        for (int[] row : kernel) {
+            for (int j = 0; j < size; j++) {
+                int value = random.nextInt(9) - 4;
+                row[j] = value == 0 ? 1 : value;
+            }
+        }
+        return kernel;
+    }
+
+    static List<Integer> ints(String list) {
+        List<Integer> values = new ArrayList<>();
+        for (String value : list.split(",")) {
+            values.add(Integer.parseInt(value.trim()));
+        }
+        return values;
+    }
+}
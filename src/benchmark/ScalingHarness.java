@@ -0,0 +1,408 @@
+package benchmark;
+
+import Processing.BufferPool;
+import Processing.GrayImage;
+import Processing.IMGProcessor;
+import Processing.RgbImage;
+import distributed.DImgProcessing.DImgProcMethods;
+import mpi.MPI;
+import parallel.PImgProcessing.PImgProcMethods;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Strong and weak scaling of processImage (grayscale + convolution of an in-memory colour
+ * image, no decode or file I/O) across thread counts of the parallel processor and rank counts
+ * of the distributed one.
+ * <p>
+ * Strong scaling keeps the image size fixed (--sizes, in megapixels) and adds threads or
+ * workers; weak scaling (--weak, megapixels per thread or worker) grows the image with them.
+ * Each point is a Bench.measure with warm-up. Speedup and efficiency are relative to the
+ * smallest count in the sweep, and for strong scaling the Karp–Flatt metric
+ * e = (1/S - 1/p) / (1 - 1/p) gives the experimentally determined serial fraction: if it grows
+ * with p the loss is overhead (scatter/gather, stitching, imbalance) rather than serial code.
+ * <p>
+ * The parallel sweep runs in this JVM. The distributed sweep needs a fresh MPJ Express world per
+ * rank count, so every count is launched as mpjrun.sh -np N ... ScalingHarness --mpi-run; rank 0
+ * of that world measures every size and prints one RESULT line per size, which is read back
+ * here. p for the distributed processor is the number of workers, N - 1. Without MPJ_HOME (or
+ * --mpjrun) the distributed sweep is skipped.
+ * <p>
+ * A 200 MP image takes 800 MB as ARGB ints plus 400 MB for the gray input and output, so large
+ * sizes want -Xmx4g or more; a size that does not fit is reported and skipped.
+ * <p>
+ * Usage: ScalingHarness [--engines parallel,distributed] [--sizes 1,4,16,64,200] [--weak MP]
+ * [--threads 1,2,4] [--ranks 2,3,5] [--kernel 3] [--warmup 2] [--iterations 5]
+ * [--schedule static|pipelined|dynamic] [--threads-per-rank N] [--dev multicore|niodev]
+ * [--mpjrun PATH] [--csv FILE] [--plot FILE]
+ */
+public class ScalingHarness {
+
+    private static final String RESULT = "RESULT,";
+
+    /** One measured point: an engine at p threads or workers on a width x height image. */
+    private record Point(String engine, String scaling, double megapixels, int width, int height, int p,
+                         double meanMs, double stddevMs, double bestMs) {
+    }
+
+    // keeps results reachable so the JIT cannot drop the work
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--mpi-run")) {
+            mpiRun(args);
+            return;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<String> engines = List.of("parallel", "distributed");
+        List<Double> sizes = List.of(1.0, 4.0, 16.0, 64.0, 200.0);
+        double weak = 0;
+        List<Integer> threadCounts = powersOfTwo(cores);
+        List<Integer> rankCounts = new ArrayList<>();
+        for (int workers : powersOfTwo(Math.max(1, cores - 1))) {
+            rankCounts.add(workers + 1);
+        }
+        int kernelSize = 3;
+        int warmup = 2;
+        int iterations = 5;
+        String schedule = "static";
+        int threadsPerRank = 1;
+        String dev = "multicore";
+        String mpjrun = null;
+        String csv = "scaling.csv";
+        String plot = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--engines" -> engines = List.of(args[++i].split(","));
+                case "--sizes" -> sizes = doubles(args[++i]);
+                case "--weak" -> weak = Double.parseDouble(args[++i]);
+                case "--threads" -> threadCounts = ProcessorBenchmark.ints(args[++i]);
+                case "--ranks" -> rankCounts = ProcessorBenchmark.ints(args[++i]);
+                case "--kernel" -> kernelSize = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--iterations" -> iterations = Integer.parseInt(args[++i]);
+                case "--schedule" -> schedule = args[++i];
+                case "--threads-per-rank" -> threadsPerRank = Integer.parseInt(args[++i]);
+                case "--dev" -> dev = args[++i];
+                case "--mpjrun" -> mpjrun = args[++i];
+                case "--csv" -> csv = args[++i];
+                case "--plot" -> plot = args[++i];
+                default -> {
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        int[][] kernel = ProcessorBenchmark.kernel(kernelSize);
+        List<Point> points = new ArrayList<>();
+
+        if (engines.contains("parallel")) {
+            for (int threads : threadCounts) {
+                IMGProcessor processor = new PImgProcMethods(threads, 0);
+                for (double megapixels : sizes) {
+                    Point point = measure(processor, "parallel", "strong", megapixels, megapixels, threads,
+                            kernel, warmup, iterations);
+                    if (point != null) points.add(point);
+                }
+                if (weak > 0) {
+                    Point point = measure(processor, "parallel", "weak", weak, weak * threads, threads,
+                            kernel, warmup, iterations);
+                    if (point != null) points.add(point);
+                }
+            }
+        }
+
+        if (engines.contains("distributed")) {
+            if (mpjrun == null && System.getenv("MPJ_HOME") != null) {
+                boolean windows = System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("windows");
+                mpjrun = new File(System.getenv("MPJ_HOME"), windows ? "bin/mpjrun.bat" : "bin/mpjrun.sh").getPath();
+            }
+            if (mpjrun == null) {
+                System.err.println("MPJ_HOME is not set and no --mpjrun given; skipping the distributed sweep");
+            } else {
+                for (int ranks : rankCounts) {
+                    if (ranks < 2) {
+                        System.err.println("Skipping -np " + ranks + ": the distributed processor needs a worker");
+                        continue;
+                    }
+                    List<String> command = new ArrayList<>(List.of(mpjrun, "-np", String.valueOf(ranks), "-dev", dev,
+                            "-cp", System.getProperty("java.class.path"), ScalingHarness.class.getName(),
+                            "--mpi-run", "--sizes", join(sizes), "--weak", String.valueOf(weak),
+                            "--kernel", String.valueOf(kernelSize), "--warmup", String.valueOf(warmup),
+                            "--iterations", String.valueOf(iterations), "--schedule", schedule,
+                            "--threads-per-rank", String.valueOf(threadsPerRank)));
+                    points.addAll(launch(command));
+                }
+            }
+        }
+
+        List<Row> rows = derive(points);
+        System.out.printf("%-12s %-7s %8s %11s %5s %10s %9s %10s %8s %10s %11s%n",
+                "engine", "scaling", "MP", "image", "p", "mean ms", "+- ms", "Mpix/s", "speedup", "efficiency", "karp-flatt");
+        for (Row row : rows) {
+            Point point = row.point();
+            System.out.printf("%-12s %-7s %8.2f %11s %5d %10.2f %9.2f %10.1f %8.2f %10.2f %11s%n",
+                    point.engine(), point.scaling(), point.megapixels(), point.width() + "x" + point.height(),
+                    point.p(), point.meanMs(), point.stddevMs(), row.mpixPerSec(), row.speedup(), row.efficiency(),
+                    Double.isNaN(row.karpFlatt()) ? "-" : String.format("%.4f", row.karpFlatt()));
+        }
+
+        try (PrintWriter out = new PrintWriter(csv, StandardCharsets.UTF_8)) {
+            out.println("engine,scaling,megapixels,width,height,kernel,p,mean_ms,stddev_ms,best_ms,mpix_per_s,speedup,efficiency,karp_flatt");
+            for (Row row : rows) {
+                Point point = row.point();
+                out.printf(Locale.ROOT, "%s,%s,%.2f,%d,%d,%dx%d,%d,%.3f,%.3f,%.3f,%.2f,%.4f,%.4f,%s%n",
+                        point.engine(), point.scaling(), point.megapixels(), point.width(), point.height(),
+                        kernelSize, kernelSize, point.p(), point.meanMs(), point.stddevMs(), point.bestMs(),
+                        row.mpixPerSec(), row.speedup(), row.efficiency(),
+                        Double.isNaN(row.karpFlatt()) ? "" : String.format(Locale.ROOT, "%.5f", row.karpFlatt()));
+            }
+        }
+        System.out.println("Wrote " + new File(csv).getAbsolutePath());
+        if (plot != null) {
+            writePlot(rows, plot);
+            System.out.println("Wrote " + new File(plot).getAbsolutePath());
+        }
+    }
+
+    /** A point with what follows from comparing it to the baseline of its series. */
+    private record Row(Point point, double mpixPerSec, double speedup, double efficiency, double karpFlatt) {
+    }
+
+    // series are engine + scaling + size (strong) or engine + per-worker size (weak)
+    private static List<Row> derive(List<Point> points) {
+        Map<String, List<Point>> series = new LinkedHashMap<>();
+        for (Point point : points) {
+            series.computeIfAbsent(seriesName(point), k -> new ArrayList<>()).add(point);
+        }
+
+        List<Row> rows = new ArrayList<>();
+        for (List<Point> members : series.values()) {
+            members.sort((a, b) -> Integer.compare(a.p(), b.p()));
+            Point base = members.get(0);
+            for (Point point : members) {
+                double mpixPerSec = (double) point.width() * point.height() / (point.meanMs() / 1e3) / 1e6;
+                double speedup;
+                double efficiency;
+                double karpFlatt = Double.NaN;
+                if (point.scaling().equals("strong")) {
+                    // a baseline above 1 is assumed to scale perfectly up to its own count
+                    speedup = base.p() * base.meanMs() / point.meanMs();
+                    efficiency = speedup / point.p();
+                    if (point.p() > 1) {
+                        karpFlatt = (1 / speedup - 1.0 / point.p()) / (1 - 1.0 / point.p());
+                    }
+                } else {
+                    // p times the work in the same time is perfect
+                    efficiency = base.meanMs() / point.meanMs();
+                    speedup = efficiency * point.p() / base.p();
+                }
+                rows.add(new Row(point, mpixPerSec, speedup, efficiency, karpFlatt));
+            }
+        }
+        return rows;
+    }
+
+    private static String seriesName(Point point) {
+        return String.format(Locale.ROOT, "%s %s %.2fMP", point.engine(), point.scaling(), point.megapixels());
+    }
+
+    // wide layout for a spreadsheet or gnuplot: one row per p, a speedup column per series
+    private static void writePlot(List<Row> rows, String file) throws IOException {
+        Map<String, Map<Integer, Double>> columns = new LinkedHashMap<>();
+        TreeSet<Integer> counts = new TreeSet<>();
+        for (Row row : rows) {
+            columns.computeIfAbsent(seriesName(row.point()), k -> new LinkedHashMap<>()).put(row.point().p(), row.speedup());
+            counts.add(row.point().p());
+        }
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            StringBuilder header = new StringBuilder("p,ideal");
+            for (String name : columns.keySet()) {
+                header.append(',').append(name);
+            }
+            out.println(header);
+            for (int p : counts) {
+                StringBuilder line = new StringBuilder().append(p).append(',').append(p);
+                for (Map<Integer, Double> column : columns.values()) {
+                    Double speedup = column.get(p);
+                    line.append(',').append(speedup == null ? "" : String.format(Locale.ROOT, "%.4f", speedup));
+                }
+                out.println(line);
+            }
+        }
+    }
+
+    // null when the image does not fit in the heap
+    private static Point measure(IMGProcessor processor, String engine, String scaling, double label,
+                                 double megapixels, int p, int[][] kernel, int warmup, int iterations) {
+        int side = (int) Math.round(Math.sqrt(megapixels * 1e6));
+        RgbImage image;
+        try {
+            image = syntheticImage(side, side);
+        } catch (OutOfMemoryError e) {
+            System.err.printf("Skipping %.1f MP (%dx%d): out of memory, raise -Xmx%n", megapixels, side, side);
+            return null;
+        }
+        try {
+            Bench.Result result = Bench.measure(() -> {
+                GrayImage output = processor.processImage(image, kernel);
+                sink = output;
+                BufferPool.SHARED.release(output);
+            }, warmup, iterations);
+            return new Point(engine, scaling, label, side, side, p,
+                    result.meanMs(), result.stddevNanos() / 1e6, result.bestMs());
+        } catch (OutOfMemoryError e) {
+            System.err.printf("Skipping %.1f MP (%dx%d) at p = %d: out of memory, raise -Xmx%n", megapixels, side, side, p);
+            return null;
+        }
+    }
+
+    // random opaque colours; filled with a xorshift because Random is slow at 200 MP
+    static RgbImage syntheticImage(int width, int height) {
+        RgbImage image = new RgbImage(width, height);
+        int[] data = image.data;
+        int x = 0x9E3779B9;
+        for (int i = 0; i < data.length; i++) {
+            x ^= x << 13;
+            x ^= x >>> 17;
+            x ^= x << 5;
+            data[i] = x & 0xFFFFFF;
+        }
+        return image;
+    }
+
+    // runs one MPJ world and collects the RESULT lines of its rank 0; everything else is echoed
+    private static List<Point> launch(List<String> command) throws IOException, InterruptedException {
+        System.out.println("> " + String.join(" ", command.subList(0, 5)) + " ...");
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        List<Point> points = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    points.add(parse(line.substring(RESULT.length())));
+                } else {
+                    System.out.println("  " + line);
+                }
+            }
+        }
+        int exit = process.waitFor();
+        if (exit != 0) System.err.println("mpjrun exited with " + exit);
+        return points;
+    }
+
+    private static String format(Point point) {
+        return String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.6f,%.6f,%.6f", point.engine(), point.scaling(),
+                point.megapixels(), point.width(), point.height(), point.p(),
+                point.meanMs(), point.stddevMs(), point.bestMs());
+    }
+
+    private static Point parse(String csv) {
+        String[] f = csv.split(",");
+        return new Point(f[0], f[1], Double.parseDouble(f[2]), Integer.parseInt(f[3]), Integer.parseInt(f[4]),
+                Integer.parseInt(f[5]), Double.parseDouble(f[6]), Double.parseDouble(f[7]), Double.parseDouble(f[8]));
+    }
+
+    /**
+     * Inside one MPJ world: rank 0 measures the distributed processor on every size and prints a
+     * RESULT line each, the other ranks serve chunks until it stops them.
+     */
+    private static void mpiRun(String[] args) {
+        String[] appArgs = MPI.Init(args);
+        int rank = MPI.COMM_WORLD.Rank();
+        int workers = MPI.COMM_WORLD.Size() - 1;
+
+        List<Double> sizes = List.of(1.0);
+        double weak = 0;
+        int kernelSize = 3;
+        int warmup = 2;
+        int iterations = 5;
+        DImgProcMethods.Schedule schedule = DImgProcMethods.Schedule.STATIC;
+        int threadsPerRank = 1;
+        for (int i = 0; i < appArgs.length; i++) {
+            switch (appArgs[i]) {
+                case "--mpi-run" -> {
+                }
+                case "--sizes" -> sizes = doubles(appArgs[++i]);
+                case "--weak" -> weak = Double.parseDouble(appArgs[++i]);
+                case "--kernel" -> kernelSize = Integer.parseInt(appArgs[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(appArgs[++i]);
+                case "--iterations" -> iterations = Integer.parseInt(appArgs[++i]);
+                case "--schedule" -> schedule = DImgProcMethods.Schedule.valueOf(appArgs[++i].toUpperCase(Locale.ROOT));
+                case "--threads-per-rank" -> threadsPerRank = Integer.parseInt(appArgs[++i]);
+                default -> {
+                    if (rank == 0) System.err.println("Ignoring unknown argument: " + appArgs[i]);
+                }
+            }
+        }
+
+        if (workers < 1) {
+            if (rank == 0) System.err.println("Error: At least 2 MPI processes are required.");
+            MPI.Finalize();
+            return;
+        }
+
+        if (rank == 0) {
+            IMGProcessor processor = new DImgProcMethods(schedule, 0, 0);
+            int[][] kernel = ProcessorBenchmark.kernel(kernelSize);
+            List<Point> points = new ArrayList<>();
+            for (double megapixels : sizes) {
+                points.add(measure(processor, "distributed", "strong", megapixels, megapixels, workers,
+                        kernel, warmup, iterations));
+            }
+            if (weak > 0) {
+                points.add(measure(processor, "distributed", "weak", weak, weak * workers, workers,
+                        kernel, warmup, iterations));
+            }
+            DImgProcMethods.stopWorkers(workers);
+            for (Point point : points) {
+                if (point != null) System.out.println(RESULT + format(point));
+            }
+            System.out.flush();
+        } else {
+            DImgProcMethods.workerProcess(rank, threadsPerRank);
+        }
+        MPI.Finalize();
+    }
+
+    // 1, 2, 4, ... up to max, and max itself
+    private static List<Integer> powersOfTwo(int max) {
+        List<Integer> counts = new ArrayList<>();
+        for (int p = 1; p < max; p *= 2) {
+            counts.add(p);
+        }
+        counts.add(max);
+        return counts;
+    }
+
+    private static List<Double> doubles(String list) {
+        List<Double> values = new ArrayList<>();
+        for (String value : list.split(",")) {
+            values.add(Double.parseDouble(value.trim()));
+        }
+        return values;
+    }
+
+    private static String join(List<Double> values) {
+        StringBuilder joined = new StringBuilder();
+        for (double value : values) {
+            if (!joined.isEmpty()) joined.append(',');
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+}
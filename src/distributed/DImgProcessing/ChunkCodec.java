@@ -0,0 +1,200 @@
+package distributed.DImgProcessing;
+
+import java.util.Arrays;
+
+/**
+ * Lossless compression for chunk payloads: a horizontal delta filter followed by an LZ4-style
+ * byte-oriented LZ77 block format, all in plain Java.
+ * <p>
+ * The delta filter turns smooth image rows into runs of small, repeating values, which the LZ
+ * stage then collapses. Compressed blocks are a sequence of
+ * <pre>
+ *     token, [literal length bytes], literals, offset (2 bytes LE), [match length bytes]
+ * </pre>
+ * where the token's high nibble is the literal count and its low nibble the match length minus
+ * 4, each extended with 255-valued bytes when it reaches 15. The last sequence has literals only.
+ * The decoder stops once the expected number of bytes has been produced.
+ */
+final class ChunkCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    // matches never start in the last MATCH_LIMIT bytes, and the last LAST_LITERALS bytes stay literals
+    private static final int MATCH_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_BITS = 14;
+    // the search step grows by one every 2^SKIP_TRIGGER bytes without a match, so incompressible data stays fast
+    private static final int SKIP_TRIGGER = 6;
+
+    private ChunkCodec() {
+    }
+
+    // worst case for incompressible input: one token plus length bytes
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    // replaces every byte but the first of each row with its difference from the byte to its left
+    static void deltaEncode(byte[] data, int offset, int rows, int width) {
+        for (int y = 0; y < rows; y++) {
+            int rowStart = offset + y * width;
+            for (int i = rowStart + width - 1; i > rowStart; i--) {
+                data[i] -= data[i - 1];
+            }
+        }
+    }
+
+    static void deltaDecode(byte[] data, int offset, int rows, int width) {
+        for (int y = 0; y < rows; y++) {
+            int rowStart = offset + y * width;
+            for (int i = rowStart + 1; i < rowStart + width; i++) {
+                data[i] += data[i - 1];
+            }
+        }
+    }
+
+    /**
+     * Compresses src[srcOff, srcOff + length) into dst, which must hold maxCompressedLength(length)
+     * bytes. Returns the compressed size.
+     */
+    static int compress(byte[] src, int srcOff, int length, byte[] dst) {
+        int end = srcOff + length;
+        int anchor = srcOff;                // first byte not yet emitted
+        int op = 0;
+
+        if (length > MATCH_LIMIT) {
+            int[] table = new int[1 << HASH_BITS];
+            Arrays.fill(table, -1);
+            int limit = end - MATCH_LIMIT;
+            int i = srcOff;
+            while (i < limit) {
+                int sequence = readInt(src, i);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = i;
+                if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    i += 1 + ((i - anchor) >> SKIP_TRIGGER);
+                    continue;
+                }
+
+                // grow the match backwards into pending literals, then forwards
+                while (i > anchor && ref > srcOff && src[i - 1] == src[ref - 1]) {
+                    i--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                int matchEnd = end - LAST_LITERALS;
+                while (i + matchLength < matchEnd && src[i + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                op = writeSequence(src, anchor, i - anchor, i - ref, matchLength, dst, op);
+                i += matchLength;
+                anchor = i;
+            }
+        }
+
+        // trailing literals, token without a match
+        int literals = end - anchor;
+        int token = op++;
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+        dst[token] = (byte) (Math.min(literals, 15) << 4);
+        return op;
+    }
+
+    /**
+     * Decompresses a block of srcLength bytes into exactly length bytes at dst[dstOff].
+     * Throws IllegalStateException when the block is corrupt or does not match length.
+     */
+    static void decompress(byte[] src, int srcOff, int srcLength, byte[] dst, int dstOff, int length) {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLength;
+        int op = dstOff;
+        int dstEnd = dstOff + length;
+
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (ip + literals > srcEnd || op + literals > dstEnd) {
+                    throw new IllegalStateException("Corrupt chunk: literals overrun");
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (op == dstEnd) break;
+
+                int offset = (src[ip++] & 0xFF) | ((src[ip++] & 0xFF) << 8);
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || op + matchLength > dstEnd) {
+                    throw new IllegalStateException("Corrupt chunk: bad match");
+                }
+                // byte by byte, the match may overlap the bytes it produces
+                for (int k = 0; k < matchLength; k++) {
+                    dst[op + k] = dst[ref + k];
+                }
+                op += matchLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalStateException("Corrupt chunk: truncated", e);
+        }
+        if (ip != srcEnd) {
+            throw new IllegalStateException("Corrupt chunk: " + (srcEnd - ip) + " trailing bytes");
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dst, int op) {
+        int token = op++;
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, literalStart, dst, op, literals);
+        op += literals;
+
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+
+        int extraMatch = matchLength - MIN_MATCH;
+        op = writeLength(extraMatch, dst, op);
+        dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(extraMatch, 15));
+        return op;
+    }
+
+    // the bytes following a nibble that saturated at 15
+    private static int writeLength(int value, byte[] dst, int op) {
+        if (value < 15) return op;
+        value -= 15;
+        while (value >= 255) {
+            dst[op++] = (byte) 255;
+            value -= 255;
+        }
+        dst[op++] = (byte) value;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
@@ -1,27 +1,147 @@
 package distributed.DImgProcessing;
 
+import Processing.BufferPool;
+import Processing.FilterPipeline;
+import Processing.GrayImage;
+import Processing.GrayRaster;
 import Processing.IMGProcessor;
+import Processing.ImageDecoder;
+import Processing.RgbImage;
+import batch.LatencyStats;
+import metrics.Metrics;
+import mpi.Datatype;
 import mpi.MPI;
+import mpi.Request;
 import mpi.Status;
 
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DImgProcMethods implements IMGProcessor {
 
-    private static final int MASTER = 0;
-    private static final int TAG_DIMENSIONS = 0;
-    private static final int TAG_PIXELS = 1;
-    private static final int TAG_KERNEL_DIMS = 10;
-    private static final int TAG_KERNEL_DATA = 11;
-    private static final int TAG_RESULT_DIMENSIONS = 20;
-    private static final int TAG_RESULT_PIXELS = 21;
-    private static final int TAG_STOP = 99;
+    // message protocol, shared with WorkerSession
+    static final int MASTER = 0;
+    static final int TAG_DIMENSIONS = 0;
+    static final int TAG_PIXELS = 1;
+    // kernel registration: {id, rows, cols} then the taps, sent once per kernel to every worker
+    static final int TAG_KERNEL_DIMS = 10;
+    static final int TAG_KERNEL_DATA = 11;
+    // pipeline registration: {id, length} then FilterPipeline.toArray(), for anything but a single kernel
+    static final int TAG_PIPELINE_DIMS = 12;
+    static final int TAG_PIPELINE_DATA = 13;
+    static final int TAG_RESULT_PIXELS = 21;
+    // sent once by each worker at startup: {threads it convolves with}
+    static final int TAG_HELLO = 30;
+    static final int TAG_STOP = 99;
+    // pipelined and dynamic results are tagged TAG_RESULT_BASE + piece so they can complete in any order
+    static final int TAG_RESULT_BASE = 1000;
+
+    // chunk header: {width, rows, startY, haloTop, coreRows, resultTag, format, payloadLength, kernelId}
+    static final int HEADER_LENGTH = 9;
+    // format bits: payload is colour rows for the worker to convert, and/or delta + LZ packed
+    static final int FORMAT_GRAY = 0;
+    static final int FORMAT_RGB = 1;
+    static final int FORMAT_COMPRESSED = 2;
+
+    // kernels and pipelines registered with the workers, by content, least recently used first;
+    // past MAX_REGISTERED the oldest one's id is handed to the next new pipeline
+    private static final int MAX_REGISTERED = 32;
+    private static final Map<FilterPipeline, Integer> KERNEL_IDS = new LinkedHashMap<>(16, 0.75f, true);
+    // threads of each worker rank (index 0 unused), read from the TAG_HELLO messages on first use
+    private static int[] workerThreads;
+    private static final int DEFAULT_PIECES_PER_WORKER = 4;
+
+    // result tags in use are TAG_RESULT_BASE .. TAG_RESULT_BASE + RESULT_TAGS - 1, inside MPI's guaranteed tag range
+    private static final int RESULT_TAGS = 30000;
+    // the GUI thread and the multi-image dispatcher never talk to the workers at the same time
+    private static final Object MPI_LOCK = new Object();
+
+    // dynamic mode: tiles queued per worker, so the next one is already there when a worker finishes
+    private static final int TILES_IN_FLIGHT = 2;
+    private static final int MIN_TILE_ROWS = 8;
+    private static final int DEFAULT_TILE_MILLIS = 50;
+    // weight of the newest throughput sample in the per-worker moving average
+    private static final double RATE_SMOOTHING = 0.5;
+    private static final int DEFAULT_IMAGES_IN_FLIGHT = 3;
+
+    /**
+     * How rows are handed out to the workers.
+     * STATIC: one band per worker, blocking messages.
+     * PIPELINED: piecesPerWorker bands per worker, dealt round robin with non-blocking messages.
+     * DYNAMIC: small tiles handed to whichever worker returns a result, sized from its throughput.
+     */
+    public enum Schedule { STATIC, PIPELINED, DYNAMIC }
+
+    private Schedule schedule = Schedule.STATIC;
+    private int piecesPerWorker = DEFAULT_PIECES_PER_WORKER;
+    private int tileMillis = DEFAULT_TILE_MILLIS;
+    private boolean workerGrayscale;
+    private boolean compression;
+    private int imagesInFlight = DEFAULT_IMAGES_IN_FLIGHT;
+
+    // per worker rank, in pixels per nanosecond; kept from image to image, 0 until measured
+    private double[] pixelsPerNano;
+    private int nextTileTag;
+
+    // multi-image mode: time from an image's decode to its last row, and the running throughput
+    private final LatencyStats imageLatency = new LatencyStats("image");
+    private volatile double imagesPerSecond;
+
+    public DImgProcMethods() {
+    }
+
+    /**
+     * piecesPerWorker applies to PIPELINED, tileMillis (target time per tile) to DYNAMIC;
+     * 0 keeps the default for either.
+     */
+    public DImgProcMethods(Schedule schedule, int piecesPerWorker, int tileMillis) {
+        this.schedule = schedule;
+        if (piecesPerWorker > 0) this.piecesPerWorker = piecesPerWorker;
+        if (tileMillis > 0) this.tileMillis = tileMillis;
+    }
+
+    /**
+     * Workers convert their own bands to gray: the master ships colour rows (ARGB ints, or RGB
+     * planes when compressed) instead of running convertToGrayscale over the whole image first.
+     */
+    public void setWorkerGrayscale(boolean workerGrayscale) {
+        this.workerGrayscale = workerGrayscale;
+    }
+
+    // delta + LZ compression of the chunk payloads in both directions, trading CPU for bandwidth
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    // images decoded ahead and worked on together by processImagesAsync
+    public void setImagesInFlight(int imagesInFlight) {
+        this.imagesInFlight = Math.max(1, imagesInFlight);
+    }
+
+    public LatencyStats getImageLatency() {
+        return imageLatency;
+    }
+
+    // completed images per second of the current or last processImagesAsync batch
+    public double getImagesPerSecond() {
+        return imagesPerSecond;
+    }
 
     @Override
     public BufferedImage convertToGrayscale(BufferedImage colorImage) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.GRAYSCALE);
         int width = colorImage.getWidth();
         int height = colorImage.getHeight();
         BufferedImage grayImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
@@ -37,6 +157,7 @@ public class DImgProcMethods implements IMGProcessor {
                 grayImage.setRGB(x, y, grayRgb);
             }
         }
+        span.end(5L * width * height, (long) width * height);
         return grayImage;
     }
 
@@ -51,6 +172,16 @@ public class DImgProcMethods implements IMGProcessor {
 
         BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
 
+        // plain gray rasters go through the shared kernels; raw samples in, raw samples out
+        byte[] inputPixels = GrayRaster.data(inputImage);
+        if (inputPixels != null) {
+            GrayRaster.convolveRows(inputPixels, 0, width, GrayRaster.IDENTITY_DECODE,
+                    width, height, kernel,
+                    GrayRaster.data(outputImage), 0, width, GrayRaster.IDENTITY_ENCODE,
+                    0, height);
+            return outputImage;
+        }
+
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
                 int sum = 0;
@@ -71,187 +202,984 @@ public class DImgProcMethods implements IMGProcessor {
         return outputImage;
     }
 
+    @Override
+    public GrayImage convertToGrayscale(RgbImage colorImage) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.GRAYSCALE);
+        GrayImage grayImage = new GrayImage(colorImage.width, colorImage.height);
+        grayRows(colorImage, grayImage.data, 0, colorImage.height);
+        span.end(5L * colorImage.width * colorImage.height, (long) colorImage.width * colorImage.height);
+        return grayImage;
+    }
+
+    /**
+     * Raw samples in, raw samples out, as for gray BufferedImages. On the master the rows are
+     * distributed over the workers like processImage, so an already converted image (such as a
+     * cached intermediate) still uses the cluster; anywhere else it is convolved locally.
+     */
+    @Override
+    public GrayImage applyConvolution(GrayImage inputImage, int[][] kernel) {
+        return applyPipeline(inputImage, FilterPipeline.of(kernel));
+    }
+
+    // as applyConvolution; every chunk carries the combined halo and the workers run the whole chain
+    @Override
+    public GrayImage applyPipeline(GrayImage inputImage, FilterPipeline pipeline) {
+        return applyPipeline(inputImage, pipeline, null);
+    }
+
+    // every chunk is reported as its result is stitched in on the master (listener may be null)
+    @Override
+    public GrayImage applyPipeline(GrayImage inputImage, FilterPipeline pipeline, BandListener listener) {
+        if (MPI.COMM_WORLD.Rank() == MASTER) {
+            return distribute(inputImage.width, inputImage.height, pipeline,
+                    (chunk, startY, endY) -> {
+                        for (int y = startY; y < endY; y++) {
+                            System.arraycopy(inputImage.data, inputImage.offset + y * inputImage.stride,
+                                    chunk, (y - startY) * inputImage.width, inputImage.width);
+                        }
+                    },
+                    null, listener);
+        }
+        GrayImage outputImage = new GrayImage(inputImage.width, inputImage.height);
+        pipeline.applyRows(inputImage.data, inputImage.offset, inputImage.stride, GrayRaster.IDENTITY_DECODE,
+                inputImage.width, inputImage.height,
+                outputImage.data, 0, outputImage.stride, GrayRaster.IDENTITY_ENCODE,
+                0, inputImage.height);
+        if (listener != null) listener.bandDone(outputImage, 0, inputImage.height);
+        return outputImage;
+    }
+
+    /**
+     * Distributed processing of an image that is already decoded. Chunks are converted to gray
+     * straight from the colour array, or with worker grayscale on, shipped from it without a copy
+     * where the rows are contiguous. Returns null off the master.
+     */
+    @Override
+    public GrayImage processImage(RgbImage colorImage, int[][] kernel) {
+        if (!isMaster()) return null;
+        FilterPipeline pipeline = FilterPipeline.of(kernel);
+        if (workerGrayscale) {
+            return distribute(colorImage.width, colorImage.height, pipeline, null, rgbRows(colorImage));
+        }
+        return distribute(colorImage.width, colorImage.height, pipeline,
+                (chunk, startY, endY) -> grayRows(colorImage, chunk, startY, endY),
+                null);
+    }
+
     /**
      * Master process: partition image into overlapping chunks, distribute,
      * collect results and reassemble without overlapping duplicates.
+     * With worker grayscale on, the master skips the conversion and ships colour rows instead.
      */
     @Override
     public BufferedImage processImage(String inputFilePath, int[][] kernel) {
-        int rank = MPI.COMM_WORLD.Rank();
-        int size = MPI.COMM_WORLD.Size();
+        return processImage(inputFilePath, FilterPipeline.of(kernel));
+    }
 
-        if (rank != MASTER) {
-            System.err.println("processImage() should only be called on MASTER.");
-            return null;
-        }
+    // the same for a whole pipeline, run by the workers on chunks with the combined halo
+    @Override
+    public BufferedImage processImage(String inputFilePath, FilterPipeline pipeline) {
+        return processImage(inputFilePath, pipeline, null);
+    }
+
+    @Override
+    public BufferedImage processImage(String inputFilePath, FilterPipeline pipeline, BandListener listener) {
+        if (!isMaster()) return null;
 
         try {
-            BufferedImage originalImage = ImageIO.read(new File(inputFilePath));
+            BufferedImage originalImage = ImageDecoder.read(inputFilePath);
             int width = originalImage.getWidth();
             int height = originalImage.getHeight();
+            if (workerGrayscale) {
+                return distribute(width, height, pipeline, null, rgbRows(originalImage), listener).toBufferedImage();
+            }
 
-            BufferedImage grayImage = convertToGrayscale(originalImage);
-            byte[] grayPixels = ((java.awt.image.DataBufferByte) grayImage.getRaster().getDataBuffer()).getData();
+            GrayImage grayImage = GrayImage.wrap(convertToGrayscale(originalImage));
 
-            int numWorkers = size - 1;
-            int kernelHeight = kernel.length;
-            int overlap = kernelHeight / 2; // overlap rows top & bottom
+            GrayImage outputImage = distribute(width, height, pipeline,
+                    (chunk, startY, endY) -> {
+                        for (int y = startY; y < endY; y++) {
+                            System.arraycopy(grayImage.data, grayImage.offset + y * grayImage.stride, chunk, (y - startY) * width, width);
+                        }
+                    },
+                    null, listener);
+            BufferPool.SHARED.release(grayImage);
+            return outputImage.toBufferedImage();
 
-            int baseChunkHeight = height / numWorkers;
+        } catch (IOException e) {
+            System.err.println("Master error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Master process, fused mode: no full grayscale image is built. Each chunk's rows are
+     * converted straight from the colour image into the buffer that gets sent to the worker.
+     */
+    @Override
+    public BufferedImage processImageFused(String inputFilePath, int[][] kernel) {
+        if (!isMaster()) return null;
 
-            // chunkStartY[i] = start row (inclusive) of chunk i (0-based for workers)
-            int[] chunkStartY = new int[numWorkers + 1];
-            chunkStartY[0] = 0;
-            for (int i = 1; i < numWorkers; i++) {
-                // start of chunk i = i * baseChunkHeight - overlap
-                int start = i * baseChunkHeight - overlap;
-                if (start < 0) start = 0;
-                chunkStartY[i] = start;
+        try {
+            BufferedImage originalImage = ImageDecoder.read(inputFilePath);
+            FilterPipeline pipeline = FilterPipeline.of(kernel);
+            if (workerGrayscale) {
+                return distribute(originalImage.getWidth(), originalImage.getHeight(), pipeline, null, rgbRows(originalImage))
+                        .toBufferedImage();
             }
-            chunkStartY[numWorkers] = height;
+            int[] rgbRow = new int[originalImage.getWidth()];
 
-            // Now send chunks to workers (worker rank = i + 1)
-            for (int i = 0; i < numWorkers; i++) {
-                int startY = chunkStartY[i];
-                int endY = chunkStartY[i + 1];
-                int rows = endY - startY;
+            return distribute(originalImage.getWidth(), originalImage.getHeight(), pipeline,
+                    (chunk, startY, endY) -> grayRows(originalImage, chunk, startY, endY, rgbRow),
+                    null).toBufferedImage();
 
-                byte[] chunkPixels = new byte[width * rows];
-                System.arraycopy(grayPixels, startY * width, chunkPixels, 0, width * rows);
+        } catch (IOException e) {
+            System.err.println("Master error: " + e.getMessage());
+            return null;
+        }
+    }
 
-                int workerRank = i + 1;
+    /**
+     * Multi-image mode. Decoder threads (up to one per core) read the images ahead, at most
+     * imagesInFlight at a time, and a single dispatcher thread schedules their tiles dynamically over all workers:
+     * tiles of the next image start going out while the last ones of the previous image are still
+     * being convolved, so no rank idles between images. Each future completes as soon as its
+     * image is stitched. Scheduling is always dynamic here, whatever the schedule setting.
+     * Results match processImage.
+     */
+    @Override
+    public List<CompletableFuture<BufferedImage>> processImagesAsync(List<String> inputFilePaths, int[][] kernel) {
+        List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+        for (int i = 0; i < inputFilePaths.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        if (!isMaster()) {
+            futures.forEach(f -> f.completeExceptionally(new IllegalStateException("Not the MPI master")));
+            return futures;
+        }
 
-                // Send chunk dimensions and startY
-                MPI.COMM_WORLD.Send(new int[]{width, rows, startY}, 0, 3, MPI.INT, workerRank, TAG_DIMENSIONS);
-                MPI.COMM_WORLD.Send(chunkPixels, 0, chunkPixels.length, MPI.BYTE, workerRank, TAG_PIXELS);
+        // decoded images on their way to the dispatcher, in whatever order they finish; an empty
+        // Optional marks the end
+        BlockingQueue<Optional<DecodedImage>> decoded = new ArrayBlockingQueue<>(imagesInFlight);
+        int decoderCount = Math.max(1, Math.min(Math.min(imagesInFlight, inputFilePaths.size()),
+                Runtime.getRuntime().availableProcessors()));
+        AtomicInteger nextImage = new AtomicInteger();
+        AtomicInteger decodersLeft = new AtomicInteger(decoderCount);
+        List<Thread> decoders = new ArrayList<>();
+        for (int d = 0; d < decoderCount; d++) {
+            decoders.add(new Thread(() -> {
+                int i = 0;
+                try {
+                    while ((i = nextImage.getAndIncrement()) < inputFilePaths.size()) {
+                        long start = System.nanoTime();
+                        try {
+                            BufferedImage image = ImageDecoder.read(new File(inputFilePaths.get(i)), null);
+                            if (image == null) throw new IOException("Unsupported image format: " + inputFilePaths.get(i));
+                            decoded.put(Optional.of(new DecodedImage(i, image, start)));
+                        } catch (InterruptedException e) {
+                            futures.get(i).completeExceptionally(e);
+                            throw e;
+                        } catch (Throwable e) {
+                            // corrupt files can throw anything, and one huge image may not fit the heap;
+                            // either way only that image fails
+                            futures.get(i).completeExceptionally(e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    // the last decoder out ends the stream however it got out, failing any image
+                    // nobody got to, so the dispatcher is never left waiting
+                    if (decodersLeft.decrementAndGet() == 0) {
+                        while ((i = nextImage.getAndIncrement()) < inputFilePaths.size()) {
+                            futures.get(i).completeExceptionally(new CancellationException("Decoders stopped"));
+                        }
+                        endStream(decoded);
+                    }
+                }
+            }, "distributed-decoder-" + (d + 1)));
+        }
 
-                // Send kernel info
-                MPI.COMM_WORLD.Send(new int[]{kernelHeight, kernel[0].length}, 0, 2, MPI.INT, workerRank, TAG_KERNEL_DIMS);
+        Thread dispatcher = new Thread(() -> {
+            long batchStart = System.nanoTime();
+            int[] completed = {0};
+            try {
+                synchronized (MPI_LOCK) {
+                    int kernelId = register(FilterPipeline.of(kernel));
+                    scheduleDynamic(new JobFeed() {
+                        @Override
+                        public Job poll() {
+                            Optional<DecodedImage> next = decoded.poll();
+                            return next == null ? null : toJob(next);
+                        }
 
-                int[] flatKernel = new int[kernelHeight * kernel[0].length];
-                for (int r = 0; r < kernelHeight; r++) {
-                    for (int c = 0; c < kernel[0].length; c++) {
-                        flatKernel[r * kernel[0].length + c] = kernel[r][c];
-                    }
+                        @Override
+                        public Job take() {
+                            try {
+                                return toJob(decoded.take());
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return null;
+                            }
+                        }
+
+                        // the end marker stays in the queue so later polls see it too
+                        private Job toJob(Optional<DecodedImage> next) {
+                            if (next.isEmpty()) {
+                                decoded.offer(next);
+                                return null;
+                            }
+                            DecodedImage image = next.get();
+                            return imageJob(image.image(), kernel, kernelId, () -> {
+                                long now = System.nanoTime();
+                                imageLatency.record(now - image.decodeStart());
+                                completed[0]++;
+                                imagesPerSecond = completed[0] / ((now - batchStart) / 1e9);
+                            }, futures.get(image.index()));
+                        }
+                    });
                 }
-                MPI.COMM_WORLD.Send(flatKernel, 0, flatKernel.length, MPI.INT, workerRank, TAG_KERNEL_DATA);
+            } catch (RuntimeException e) {
+                futures.forEach(f -> f.completeExceptionally(e));
+            }
+        }, "distributed-dispatcher");
+
+        for (Thread decoder : decoders) {
+            decoder.setDaemon(true);
+            decoder.start();
+        }
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        return futures;
+    }
+
+    private record DecodedImage(int index, BufferedImage image, long decodeStart) {
+    }
+
+    // puts the end marker even when the calling thread was interrupted
+    private static void endStream(BlockingQueue<Optional<DecodedImage>> decoded) {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                decoded.put(Optional.empty());
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // a dynamic-mode job for a whole image, converted to gray chunk by chunk like processImageFused
+    private Job imageJob(BufferedImage image, int[][] kernel, int kernelId, Runnable onFinished,
+                         CompletableFuture<BufferedImage> future) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int haloTop = kernel.length / 2;
+        int haloBottom = kernel.length - 1 - haloTop;
+        ChunkEncoder encoder;
+        if (workerGrayscale) {
+            encoder = header -> encodeChunk(header, null, rgbRows(image));
+        } else {
+            int[] rgbRow = new int[width];
+            encoder = header -> encodeChunk(header, (chunk, startY, endY) -> grayRows(image, chunk, startY, endY, rgbRow), null);
+        }
+        byte[] outputPixels = BufferPool.SHARED.take(width * height);
+        return new Job(width, height, haloTop, haloBottom, kernelId, encoder, outputPixels, null, () -> {
+            onFinished.run();
+            future.complete(new GrayImage(outputPixels, 0, width, width, height).toBufferedImage());
+        });
+    }
+
+    private static boolean isMaster() {
+        if (MPI.COMM_WORLD.Rank() != MASTER) {
+            System.err.println("processImage() should only be called on MASTER.");
+            return false;
+        }
+        return true;
+    }
+
+    // fills chunk with gray rows [startY, endY) of the image, first row at index 0
+    @FunctionalInterface
+    private interface ChunkSource {
+        void fill(byte[] chunk, int startY, int endY);
+    }
+
+    // TAG_PIXELS message of one chunk: count elements of buffer from offset on
+    private record Payload(Object buffer, int offset, Datatype type, int count, boolean pooled) {
+        // on the wire, header message included
+        long bytes() {
+            return (long) count * (type == MPI.INT ? 4 : 1) + 4 * HEADER_LENGTH;
+        }
+
+        // once the send has completed; buffers borrowed from the image itself are left alone
+        void release() {
+            if (pooled) BufferPool.SHARED.give((byte[]) buffer);
+        }
+    }
+
+    // colour rows [startY, startY + rows) of an image, as a view wherever the layout allows
+    @FunctionalInterface
+    private interface ColourRows {
+        RgbImage rows(int startY, int rows);
+    }
+
+    private static ColourRows rgbRows(RgbImage image) {
+        return (startY, rows) -> image.subImage(0, startY, image.width, rows);
+    }
+
+    // int-packed images are shared, other layouts copied one chunk at a time as getRGB did before;
+    // getSubimage rejects the empty pieces a halo-free pipeline leaves on images shorter than the split
+    private static ColourRows rgbRows(BufferedImage image) {
+        return (startY, rows) -> rows == 0
+                ? new RgbImage(image.getWidth(), 0)
+                : RgbImage.wrap(image.getSubimage(0, startY, image.getWidth(), rows));
+    }
+
+    // builds the TAG_PIXELS payload for a chunk and records its format and length in the header
+    @FunctionalInterface
+    private interface ChunkEncoder {
+        Payload encode(int[] header);
+    }
+
+    // same conversion as convertToGrayscale, restricted to a band of rows
+    private static void grayRows(BufferedImage colorImage, byte[] chunk, int startY, int endY, int[] rgbRow) {
+        int width = colorImage.getWidth();
+        for (int y = startY; y < endY; y++) {
+            colorImage.getRGB(0, y, width, 1, rgbRow, 0, width);
+            int base = (y - startY) * width;
+            for (int x = 0; x < width; x++) {
+                int rgb = rgbRow[x];
+                chunk[base + x] = grayOf((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+            }
+        }
+    }
+
+    private static void grayRows(RgbImage colorImage, byte[] chunk, int startY, int endY) {
+        int width = colorImage.width;
+        for (int y = startY; y < endY; y++) {
+            int base = colorImage.offset + y * colorImage.stride;
+            int out = (y - startY) * width;
+            for (int x = 0; x < width; x++) {
+                int rgb = colorImage.data[base + x];
+                chunk[out + x] = grayOf((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
             }
+        }
+    }
 
-            // Prepare output buffer
-            byte[] outputPixels = new byte[width * height];
-
-            // Receive processed chunks and stitch
-            for (int i = 0; i < numWorkers; i++) {
-                int workerRank = i + 1;
-
-                int[] dimsAndStart = new int[3];
-                MPI.COMM_WORLD.Recv(dimsAndStart, 0, 3, MPI.INT, workerRank, TAG_RESULT_DIMENSIONS);
-
-                int chunkWidth = dimsAndStart[0];
-                int chunkHeight = dimsAndStart[1];
-                int chunkStartYReceived = dimsAndStart[2];
-
-                byte[] processedChunkPixels = new byte[chunkWidth * chunkHeight];
-                MPI.COMM_WORLD.Recv(processedChunkPixels, 0, processedChunkPixels.length, MPI.BYTE, workerRank, TAG_RESULT_PIXELS);
-
-                // Calculate how many rows to copy excluding overlaps
-                int startCopyRow = 0;
-                int rowsToCopy = chunkHeight;
-
-                if (i == 0) {
-                    // First chunk: exclude bottom overlap rows
-                    rowsToCopy = chunkHeight - overlap;
-                } else if (i == numWorkers - 1) {
-                    // Last chunk: exclude top overlap rows
-                    startCopyRow = overlap;
-                    rowsToCopy = chunkHeight - overlap;
-                } else {
-                    // Middle chunks: exclude top and bottom overlap rows
-                    startCopyRow = overlap;
-                    rowsToCopy = chunkHeight - 2 * overlap;
+    // convertToGrayscale's channel average, as the raw sample setRGB leaves in a TYPE_BYTE_GRAY image
+    static byte grayOf(int r, int g, int b) {
+        return GrayRaster.ENCODE[(r + g + b) / 3];
+    }
+
+    private Payload encodeChunk(int[] header, ChunkSource source, ColourRows colour) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.CHUNK_ENCODE);
+        Payload payload = packChunk(header, source, colour);
+        span.end(payload.bytes(), (long) header[0] * header[1]);
+        return payload;
+    }
+
+    /**
+     * Payload for a chunk: gray bytes from source, or, when colour is given, its RGB rows for the
+     * worker to convert. Contiguous colour rows are sent straight from the image array. Compressed
+     * payloads are delta-filtered and LZ-packed bytes; colour is then sent as three planes
+     * (R, G, B) without the top byte.
+     */
+    private Payload packChunk(int[] header, ChunkSource source, ColourRows colour) {
+        int width = header[0];
+        int rows = header[1];
+        int startY = header[2];
+        int pixels = width * rows;
+
+        if (colour != null) {
+            RgbImage rgb = colour.rows(startY, rows);
+            if (!compression) {
+                header[6] = FORMAT_RGB;
+                header[7] = pixels;
+                if (rgb.stride == width) {
+                    return new Payload(rgb.data, rgb.offset, MPI.INT, pixels, false);
                 }
+                int[] packed = new int[pixels];
+                for (int y = 0; y < rows; y++) {
+                    System.arraycopy(rgb.data, rgb.offset + y * rgb.stride, packed, y * width, width);
+                }
+                return new Payload(packed, 0, MPI.INT, pixels, false);
+            }
+            byte[] planes = BufferPool.SHARED.take(3 * pixels);
+            for (int y = 0; y < rows; y++) {
+                int base = rgb.offset + y * rgb.stride;
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    int value = rgb.data[base + x];
+                    planes[i] = (byte) (value >> 16);
+                    planes[pixels + i] = (byte) (value >> 8);
+                    planes[2 * pixels + i] = (byte) value;
+                }
+            }
+            return compressed(header, FORMAT_RGB | FORMAT_COMPRESSED, planes, 3 * rows, width);
+        }
+
+        byte[] gray = BufferPool.SHARED.take(pixels);
+        source.fill(gray, startY, startY + rows);
+        if (!compression) {
+            header[6] = FORMAT_GRAY;
+            header[7] = pixels;
+            return new Payload(gray, 0, MPI.BYTE, pixels, true);
+        }
+        return compressed(header, FORMAT_COMPRESSED, gray, rows, width);
+    }
+
+    // packs rows x width bytes of raw, which goes back to the pool
+    private static Payload compressed(int[] header, int format, byte[] raw, int rows, int width) {
+        int rawLength = rows * width;
+        ChunkCodec.deltaEncode(raw, 0, rows, width);
+        byte[] packed = BufferPool.SHARED.take(ChunkCodec.maxCompressedLength(rawLength));
+        int length = ChunkCodec.compress(raw, 0, rawLength, packed);
+        BufferPool.SHARED.give(raw);
+        header[6] = format;
+        header[7] = length;
+        return new Payload(packed, 0, MPI.BYTE, length, true);
+    }
 
-                // Copy non-overlapping rows to output image
-                System.arraycopy(
-                        processedChunkPixels,
-                        startCopyRow * chunkWidth,
-                        outputPixels,
-                        (chunkStartYReceived + startCopyRow) * width,
-                        rowsToCopy * chunkWidth
-                );
+    private GrayImage distribute(int width, int height, FilterPipeline pipeline, ChunkSource source, ColourRows colour) {
+        return distribute(width, height, pipeline, source, colour, null);
+    }
+
+    // listener, if any, hears about every chunk's rows as they are stitched in
+    private GrayImage distribute(int width, int height, FilterPipeline pipeline, ChunkSource source, ColourRows colour,
+                                 BandListener listener) {
+        synchronized (MPI_LOCK) {
+            return distributeLocked(width, height, pipeline, source, colour, listener);
+        }
+    }
+
+    private GrayImage distributeLocked(int width, int height, FilterPipeline pipeline, ChunkSource source, ColourRows colour,
+                                       BandListener listener) {
+        int numWorkers = MPI.COMM_WORLD.Size() - 1;
+        int haloTop = pipeline.haloTop();                   // rows needed above a chunk's own rows
+        int haloBottom = pipeline.haloBottom();             // rows needed below them
+
+        int kernelId = register(pipeline);
+        int[] threads = workerThreads();
+        ChunkEncoder encoder = header -> encodeChunk(header, source, colour);
+
+        // workers send back only their core rows, which land straight in place
+        byte[] outputPixels = BufferPool.SHARED.take(width * height);
+        GrayImage outputImage = new GrayImage(outputPixels, 0, width, width, height);
+        RowsLanded landed = listener == null ? null : (y0, y1) -> listener.bandDone(outputImage, y0, y1);
+
+        switch (schedule) {
+            case STATIC -> scatterGather(width, height, splitRows(height, pieceWeights(threads, numWorkers)),
+                    haloTop, haloBottom, kernelId, encoder, outputPixels, landed);
+            case PIPELINED -> {
+                // every piece has its own result tag, and more pieces than rows would only be empty
+                int pieces = (int) Math.min((long) numWorkers * piecesPerWorker, Math.min(Math.max(height, 1), RESULT_TAGS));
+                scatterGatherPipelined(width, height, splitRows(height, pieceWeights(threads, pieces)),
+                        haloTop, haloBottom, kernelId, encoder, outputPixels, landed);
+            }
+            case DYNAMIC -> {
+                Job job = new Job(width, height, haloTop, haloBottom, kernelId, encoder, outputPixels, landed, () -> { });
+                scheduleDynamic(singleJob(job));
             }
+        }
 
-            BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-            outputImage.getRaster().setDataElements(0, 0, width, height, outputPixels);
+        return outputImage;
+    }
 
-            return outputImage;
+    // one piece per worker, blocking sends, results collected in worker order
+    private void scatterGather(int width, int height, int[] coreStartY, int haloTop, int haloBottom,
+                               int kernelId,
+                               ChunkEncoder encoder, byte[] outputPixels, RowsLanded landed) {
+        int pieces = coreStartY.length - 1;
+        // receives go up first, ahead of the sends
+        ResultSlot[] results = new ResultSlot[pieces];
+        for (int i = 0; i < pieces; i++) {
+            int[] header = chunkHeader(width, height, coreStartY[i], coreStartY[i + 1], haloTop, haloBottom, TAG_RESULT_PIXELS, kernelId);
+            Payload payload = encoder.encode(header);
+            int workerRank = i + 1;
+            results[i] = new ResultSlot(outputPixels, width, coreStartY[i], coreStartY[i + 1] - coreStartY[i],
+                    compression, workerRank, TAG_RESULT_PIXELS, landed);
 
-        } catch (IOException e) {
-            System.err.println("Master error: " + e.getMessage());
-            return null;
+            Metrics.Span span = Metrics.SHARED.start(Metrics.SEND);
+            MPI.COMM_WORLD.Send(header, 0, HEADER_LENGTH, MPI.INT, workerRank, TAG_DIMENSIONS);
+            MPI.COMM_WORLD.Send(payload.buffer(), payload.offset(), payload.count(), payload.type(), workerRank, TAG_PIXELS);
+            span.end(payload.bytes(), 0);
+            results[i].sent(payload.bytes());
+            payload.release();
+        }
+
+        for (ResultSlot slot : results) {
+            Metrics.Span span = Metrics.SHARED.start(Metrics.RESULT_WAIT);
+            Status status = slot.request.Wait();
+            span.end(0, 0);
+            slot.land(status, outputPixels);
         }
     }
 
+    /**
+     * Pipelined mode: the image is cut into piecesPerWorker pieces per worker (at most one per row
+     * and RESULT_TAGS in all), dealt out round robin with Isend so the master keeps preparing the
+     * next piece while earlier ones are in flight or being convolved. A receive is posted up front
+     * for every piece under its own tag, directly into its rows of the output unless it comes back
+     * compressed; pieces therefore complete in whatever order they arrive and nothing waits on the
+     * slowest early worker.
+     */
+    private void scatterGatherPipelined(int width, int height, int[] coreStartY, int haloTop, int haloBottom,
+                                        int kernelId,
+                                        ChunkEncoder encoder, byte[] outputPixels, RowsLanded landed) {
+        int numWorkers = MPI.COMM_WORLD.Size() - 1;
+        int pieces = coreStartY.length - 1;
+
+        ResultSlot[] results = new ResultSlot[pieces];
+        for (int i = 0; i < pieces; i++) {
+            results[i] = new ResultSlot(outputPixels, width, coreStartY[i], coreStartY[i + 1] - coreStartY[i],
+                    compression, i % numWorkers + 1, TAG_RESULT_BASE + i, landed);
+        }
+
+        // every piece keeps its own buffers until its sends have completed
+        List<Request> sends = new ArrayList<>();
+        List<Payload> payloads = new ArrayList<>();
+        boolean[] arrived = new boolean[pieces];
+        int arrivedCount = 0;
+        for (int i = 0; i < pieces; i++) {
+            int[] header = chunkHeader(width, height, coreStartY[i], coreStartY[i + 1], haloTop, haloBottom, TAG_RESULT_BASE + i, kernelId);
+            Payload payload = encoder.encode(header);
+            sends.addAll(List.of(isendChunk(header, payload, i % numWorkers + 1)));
+            results[i].sent(payload.bytes());
+            payloads.add(payload);
+
+            // stitch results that are already back while the rest is still being sent
+            for (int j = 0; j < i; j++) {
+                if (arrived[j]) continue;
+                Status status = results[j].request.Test();
+                if (status != null) {
+                    results[j].land(status, outputPixels);
+                    arrived[j] = true;
+                    arrivedCount++;
+                }
+            }
+        }
+
+        while (arrivedCount < pieces) {
+            waitAny(results, arrived, outputPixels);
+            arrivedCount++;
+        }
+        Request.Waitall(sends.toArray(new Request[0]));
+        payloads.forEach(Payload::release);
+    }
 
     /**
-     * Worker process: receive chunk with overlap, apply convolution, send back full processed chunk.
+     * Dynamic mode: self-scheduling over small halo-padded row tiles. Every worker is kept at
+     * TILES_IN_FLIGHT tiles; each result that comes back doubles as that worker's request for
+     * more and is answered with the next rows. A tile's height follows the worker's measured
+     * throughput so it takes about tileMillis, and is capped at a share of the rows left (guided
+     * self-scheduling) so the last tiles are small and no worker is left with a long tail. A slow
+     * or shared node simply ends up with fewer rows. Until a worker has been measured its tiles
+     * are scaled by its thread count.
+     * <p>
+     * Images come from feed; up to imagesInFlight of them are worked on at once, tiles going to
+     * the oldest image that still has rows, so the next image fills the workers while the last
+     * tiles of the previous one are still out. Returns once the feed is exhausted and every image
+     * is done.
      */
-    public static void workerProcess(int rank) {
+    private void scheduleDynamic(JobFeed feed) {
+        int numWorkers = MPI.COMM_WORLD.Size() - 1;
+        int[] threads = workerThreads();
+        if (pixelsPerNano == null) pixelsPerNano = new double[numWorkers + 1];
+
+        long[] lastArrival = new long[numWorkers + 1];
+        int[] queued = new int[numWorkers + 1];
+        List<Job> active = new ArrayList<>();
+        List<Tile> inFlight = new ArrayList<>();
+
         while (true) {
-            Status status = MPI.COMM_WORLD.Probe(MASTER, MPI.ANY_TAG);
-            int tag = status.tag;
+            // take on new images while there is room, without waiting for them
+            while (active.size() < imagesInFlight) {
+                Job job = feed.poll();
+                if (job == null) break;
+                active.add(job);
+            }
 
-            if (tag == TAG_STOP) {
-                MPI.COMM_WORLD.Recv(new byte[0], 0, 0, MPI.BYTE, MASTER, TAG_STOP);
-                break;
+            // top every worker up, one tile per worker per round
+            boolean sent = true;
+            while (sent) {
+                sent = false;
+                for (int workerRank = 1; workerRank <= numWorkers; workerRank++) {
+                    if (queued[workerRank] >= TILES_IN_FLIGHT) continue;
+                    Job job = firstWithRows(active);
+                    if (job == null) break;
+                    inFlight.add(sendTile(job, workerRank, tileRows(job, workerRank, threads[workerRank], numWorkers)));
+                    queued[workerRank]++;
+                    sent = true;
+                }
             }
 
-            if (tag == TAG_DIMENSIONS) {
-                // Receive chunk dimensions + start Y
-                int[] dimsAndStart = new int[3];
-                MPI.COMM_WORLD.Recv(dimsAndStart, 0, 3, MPI.INT, MASTER, TAG_DIMENSIONS);
-                int width = dimsAndStart[0];
-                int height = dimsAndStart[1];
-                int startY = dimsAndStart[2];
-
-                // Receive pixels
-                byte[] pixels = new byte[width * height];
-                MPI.COMM_WORLD.Recv(pixels, 0, pixels.length, MPI.BYTE, MASTER, TAG_PIXELS);
-
-                // Receive kernel dims
-                int[] kernelDims = new int[2];
-                MPI.COMM_WORLD.Recv(kernelDims, 0, 2, MPI.INT, MASTER, TAG_KERNEL_DIMS);
-                int kRows = kernelDims[0];
-                int kCols = kernelDims[1];
-
-                // Receive kernel data
-                int[] flatKernel = new int[kRows * kCols];
-                MPI.COMM_WORLD.Recv(flatKernel, 0, flatKernel.length, MPI.INT, MASTER, TAG_KERNEL_DATA);
-
-                // Rebuild kernel 2D array
-                int[][] kernel = new int[kRows][kCols];
-                for (int i = 0; i < kRows; i++) {
-                    for (int j = 0; j < kCols; j++) {
-                        kernel[i][j] = flatKernel[i * kCols + j];
-                    }
+            if (inFlight.isEmpty()) {
+                // every image taken on so far is finished: wait for the next one, or stop
+                Job job = feed.take();
+                if (job == null) return;
+                active.add(job);
+                continue;
+            }
+
+            Tile tile = waitAnyTile(inFlight);
+            long now = System.nanoTime();
+            int workerRank = tile.workerRank;
+            queued[workerRank]--;
+
+            // with tiles queued back to back, the gap since the worker's previous result is its busy time
+            long busy = Math.max(1, now - Math.max(tile.sentAt, lastArrival[workerRank]));
+            lastArrival[workerRank] = now;
+            double rate = (double) tile.coreRows * tile.job.width / busy;
+            pixelsPerNano[workerRank] = pixelsPerNano[workerRank] == 0
+                    ? rate
+                    : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * pixelsPerNano[workerRank];
+
+            // the worker has everything it was sent, so the send buffers can go
+            Request.Waitall(tile.sends);
+            tile.payload.release();
+
+            Job job = tile.job;
+            job.outstanding--;
+            if (job.outstanding == 0 && job.nextRow == job.height) {
+                active.remove(job);
+                job.onDone.run();
+            }
+        }
+    }
+
+    private static Job firstWithRows(List<Job> active) {
+        for (Job job : active) {
+            if (job.nextRow < job.height) return job;
+        }
+        return null;
+    }
+
+    private int tileRows(Job job, int workerRank, int threads, int numWorkers) {
+        int remaining = job.height - job.nextRow;
+        int rows;
+        if (pixelsPerNano[workerRank] > 0) {
+            rows = (int) Math.min(Integer.MAX_VALUE, pixelsPerNano[workerRank] * tileMillis * 1_000_000L / job.width);
+        } else {
+            rows = threads * Math.max(job.minRows, job.height / (numWorkers * TILES_IN_FLIGHT * 4));
+        }
+        rows = Math.min(rows, (remaining + 2 * numWorkers - 1) / (2 * numWorkers));
+        return Math.min(remaining, Math.max(rows, job.minRows));
+    }
+
+    private static JobFeed singleJob(Job job) {
+        return new JobFeed() {
+            private Job next = job;
+
+            @Override
+            public Job poll() {
+                Job result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public Job take() {
+                return poll();
+            }
+        };
+    }
+
+    // one image in dynamic mode
+    private static final class Job {
+        final int width;
+        final int height;
+        final int haloTop;
+        final int haloBottom;
+        final int kernelId;
+        // below about twice the halo a tile would mostly be halo
+        final int minRows;
+        final ChunkEncoder encoder;
+        final byte[] outputPixels;
+        // null, or told about every tile's rows as they come back
+        final RowsLanded landed;
+        // runs on the scheduling thread once every row is back
+        final Runnable onDone;
+        int nextRow;
+        int outstanding;
+
+        Job(int width, int height, int haloTop, int haloBottom, int kernelId,
+            ChunkEncoder encoder, byte[] outputPixels, RowsLanded landed, Runnable onDone) {
+            this.width = width;
+            this.height = height;
+            this.haloTop = haloTop;
+            this.haloBottom = haloBottom;
+            this.kernelId = kernelId;
+            this.minRows = Math.max(MIN_TILE_ROWS, 2 * (haloTop + haloBottom));
+            this.encoder = encoder;
+            this.outputPixels = outputPixels;
+            this.landed = landed;
+            this.onDone = onDone;
+        }
+    }
+
+    // images for scheduleDynamic
+    private interface JobFeed {
+        // next image if one is ready, without waiting
+        Job poll();
+
+        // next image, waiting for it if needed; null once there are no more
+        Job take();
+    }
+
+    // one outstanding dynamic-mode tile
+    private static final class Tile {
+        final Job job;
+        final int workerRank;
+        final int coreRows;
+        final long sentAt;
+        final ResultSlot result;
+        final Payload payload;
+        final Request[] sends;
+
+        Tile(Job job, int workerRank, int coreRows, long sentAt, ResultSlot result, Payload payload, Request[] sends) {
+            this.job = job;
+            this.workerRank = workerRank;
+            this.coreRows = coreRows;
+            this.sentAt = sentAt;
+            this.result = result;
+            this.payload = payload;
+            this.sends = sends;
+        }
+    }
+
+    // output rows [y0, y1) are in place
+    private interface RowsLanded {
+        void rows(int y0, int y1);
+    }
+
+    // where a chunk's result lands: straight in its output rows, or in a buffer unpacked into them on arrival
+    private static final class ResultSlot {
+        final Request request;
+        private final byte[] packed;
+        private final int offset;
+        private final int length;
+        private final int width;
+        private final RowsLanded landed;
+        private final int workerRank;
+        // the worker's round trip, from the chunk's send to its result landing; null until sent
+        private Metrics.Span trip;
+        // what went out for this chunk
+        private long sentBytes;
+
+        // only posts the receive; the round trip starts with sent
+        ResultSlot(byte[] outputPixels, int width, int coreStart, int coreRows, boolean compressed, int workerRank, int tag,
+                   RowsLanded landed) {
+            this.workerRank = workerRank;
+            this.offset = coreStart * width;
+            this.length = coreRows * width;
+            this.width = width;
+            this.landed = landed;
+            if (compressed) {
+                int capacity = ChunkCodec.maxCompressedLength(length);
+                packed = BufferPool.SHARED.take(capacity);
+                request = MPI.COMM_WORLD.Irecv(packed, 0, capacity, MPI.BYTE, workerRank, tag);
+            } else {
+                packed = null;
+                request = MPI.COMM_WORLD.Irecv(outputPixels, offset, length, MPI.BYTE, workerRank, tag);
+            }
+        }
+
+        // called right after the chunk's sends are out, so encoding and sending earlier chunks is
+        // not counted against this worker
+        void sent(long bytes) {
+            sentBytes = bytes;
+            trip = Metrics.SHARED.start(Metrics.worker(workerRank));
+        }
+
+        // called once the request has completed with this status
+        void land(Status status, byte[] outputPixels) {
+            long received = packed != null ? status.Get_count(MPI.BYTE) : length;
+            if (trip != null) trip.end(sentBytes + received, length);
+            Metrics.Span span = Metrics.SHARED.start(Metrics.STITCH);
+            if (packed != null) {
+                ChunkCodec.decompress(packed, 0, status.Get_count(MPI.BYTE), outputPixels, offset, length);
+                ChunkCodec.deltaDecode(outputPixels, offset, length / width, width);
+                BufferPool.SHARED.give(packed);
+            }
+            if (landed != null) landed.rows(offset / width, (offset + length) / width);
+            span.end(received + length, length);
+        }
+    }
+
+    // posts the receive for the job's next rows under a fresh tag, then sends them as a tile
+    private Tile sendTile(Job job, int workerRank, int rows) {
+        int coreStart = job.nextRow;
+        int coreEnd = coreStart + rows;
+        job.nextRow = coreEnd;
+        job.outstanding++;
+
+        // tags are recycled; far fewer than RESULT_TAGS tiles are ever outstanding
+        int tag = TAG_RESULT_BASE + nextTileTag;
+        nextTileTag = (nextTileTag + 1) % RESULT_TAGS;
+
+        ResultSlot result = new ResultSlot(job.outputPixels, job.width, coreStart, rows, compression, workerRank, tag, job.landed);
+        int[] header = chunkHeader(job.width, job.height, coreStart, coreEnd, job.haloTop, job.haloBottom, tag, job.kernelId);
+        Payload payload = job.encoder.encode(header);
+        long sentAt = System.nanoTime();
+        Request[] sends = isendChunk(header, payload, workerRank);
+        result.sent(payload.bytes());
+        return new Tile(job, workerRank, rows, sentAt, result, payload, sends);
+    }
+
+    // waits for the first tile whose result is in, stitches it and removes it from the list
+    private static Tile waitAnyTile(List<Tile> inFlight) {
+        Request[] results = new Request[inFlight.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = inFlight.get(i).result.request;
+        }
+        Metrics.Span span = Metrics.SHARED.start(Metrics.RESULT_WAIT);
+        Status status = Request.Waitany(results);
+        span.end(0, 0);
+        Tile tile = inFlight.remove(status.index);
+        tile.result.land(status, tile.job.outputPixels);
+        return tile;
+    }
+
+    // header for output rows [coreStart, coreEnd), halo clipped to the image; format and
+    // payloadLength are filled in by the encoder
+    private static int[] chunkHeader(int width, int height, int coreStart, int coreEnd,
+                                     int haloTop, int haloBottom, int resultTag, int kernelId) {
+        int startY = Math.max(0, coreStart - haloTop);
+        int endY = Math.min(height, coreEnd + haloBottom);
+        return new int[]{width, endY - startY, startY, coreStart - startY, coreEnd - coreStart, resultTag, 0, 0, kernelId};
+    }
+
+    // the two messages of one chunk, without blocking; the buffers must stay untouched until they complete
+    private static Request[] isendChunk(int[] header, Payload payload, int workerRank) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.SEND);
+        Request[] sends = {
+                MPI.COMM_WORLD.Isend(header, 0, HEADER_LENGTH, MPI.INT, workerRank, TAG_DIMENSIONS),
+                MPI.COMM_WORLD.Isend(payload.buffer(), payload.offset(), payload.count(), payload.type(), workerRank, TAG_PIXELS)
+        };
+        span.end(payload.bytes(), 0);
+        return sends;
+    }
+
+    /**
+     * Id of the pipeline on the workers, registering it with every worker the first time it is
+     * seen. A single kernel goes out as {id, rows, cols} and its taps, anything longer as its
+     * FilterPipeline.toArray() form. Registration goes out ahead of any chunk that uses it, and
+     * messages from the master are seen by a worker in the order they were sent, so the pipeline
+     * is always there in time.
+     * <p>
+     * Only MAX_REGISTERED pipelines are kept, so editing weights in the GUI over and over does not
+     * grow the tables on either side: a new pipeline beyond that takes over the id of the least
+     * recently used one, and the worker's entry for the id is simply replaced. That is safe because
+     * registration and every chunk naming the id go out under MPI_LOCK, so no chunk of the evicted
+     * pipeline is still on its way.
+     */
+    private static synchronized int register(FilterPipeline pipeline) {
+        Integer known = KERNEL_IDS.get(pipeline);
+        if (known != null) return known;
+
+        int id;
+        if (KERNEL_IDS.size() < MAX_REGISTERED) {
+            id = KERNEL_IDS.size();
+        } else {
+            Iterator<Integer> eldest = KERNEL_IDS.values().iterator();
+            id = eldest.next();
+            eldest.remove();
+        }
+        int[][] kernel = pipeline.singleKernel();
+        for (int workerRank = 1; workerRank < MPI.COMM_WORLD.Size(); workerRank++) {
+            if (kernel != null) {
+                int rows = kernel.length;
+                int cols = kernel[0].length;
+                int[] taps = new int[rows * cols];
+                for (int r = 0; r < rows; r++) {
+                    System.arraycopy(kernel[r], 0, taps, r * cols, cols);
                 }
+                MPI.COMM_WORLD.Send(new int[]{id, rows, cols}, 0, 3, MPI.INT, workerRank, TAG_KERNEL_DIMS);
+                MPI.COMM_WORLD.Send(taps, 0, taps.length, MPI.INT, workerRank, TAG_KERNEL_DATA);
+            } else {
+                int[] flat = pipeline.toArray();
+                MPI.COMM_WORLD.Send(new int[]{id, flat.length}, 0, 2, MPI.INT, workerRank, TAG_PIPELINE_DIMS);
+                MPI.COMM_WORLD.Send(flat, 0, flat.length, MPI.INT, workerRank, TAG_PIPELINE_DATA);
+            }
+        }
+        KERNEL_IDS.put(pipeline, id);
+        return id;
+    }
 
-                // Build input chunk image
-                BufferedImage chunkImg = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-                chunkImg.getRaster().setDataElements(0, 0, width, height, pixels);
+    // boundaries of row ranges covering [0, height), range i sized in proportion to weights[i]
+    private static int[] splitRows(int height, int[] weights) {
+        long total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int[] bounds = new int[weights.length + 1];
+        long cumulative = 0;
+        for (int i = 0; i < weights.length; i++) {
+            cumulative += weights[i];
+            bounds[i + 1] = (int) (height * cumulative / total);
+        }
+        return bounds;
+    }
 
-                // Apply convolution on entire chunk (including overlap)
-                DImgProcMethods proc = new DImgProcMethods();
-                BufferedImage processedChunk = proc.applyConvolution(chunkImg, kernel);
+    // piece i goes to worker rank i % numWorkers + 1 and is weighted by that worker's threads
+    private static int[] pieceWeights(int[] threads, int pieces) {
+        int numWorkers = threads.length - 1;
+        int[] weights = new int[pieces];
+        for (int i = 0; i < pieces; i++) {
+            weights[i] = threads[i % numWorkers + 1];
+        }
+        return weights;
+    }
 
-                // Convert back to byte array
-                byte[] processedPixels = ((java.awt.image.DataBufferByte) processedChunk.getRaster().getDataBuffer()).getData();
+    private static synchronized int[] workerThreads() {
+        if (workerThreads == null) {
+            int[] threads = new int[MPI.COMM_WORLD.Size()];
+            int[] hello = new int[1];
+            for (int workerRank = 1; workerRank < threads.length; workerRank++) {
+                MPI.COMM_WORLD.Recv(hello, 0, 1, MPI.INT, workerRank, TAG_HELLO);
+                threads[workerRank] = Math.max(1, hello[0]);
+            }
+            workerThreads = threads;
+        }
+        return workerThreads;
+    }
 
-                // Send back processed chunk + startY for stitching
-                MPI.COMM_WORLD.Send(new int[]{width, height, startY}, 0, 3, MPI.INT, MASTER, TAG_RESULT_DIMENSIONS);
-                MPI.COMM_WORLD.Send(processedPixels, 0, processedPixels.length, MPI.BYTE, MASTER, TAG_RESULT_PIXELS);
+    // waits for one result that has not arrived yet, stitches it, marks it and returns its index
+    private static int waitAny(ResultSlot[] results, boolean[] arrived, byte[] outputPixels) {
+        int open = 0;
+        for (boolean a : arrived) {
+            if (!a) open++;
+        }
+        // completed requests are left out; MPJ would report them again
+        Request[] pending = new Request[open];
+        int[] index = new int[open];
+        for (int i = 0, n = 0; i < results.length; i++) {
+            if (!arrived[i]) {
+                pending[n] = results[i].request;
+                index[n++] = i;
             }
         }
+        Metrics.Span span = Metrics.SHARED.start(Metrics.RESULT_WAIT);
+        Status status = Request.Waitany(pending);
+        span.end(0, 0);
+        int completed = index[status.index];
+        results[completed].land(status, outputPixels);
+        arrived[completed] = true;
+        return completed;
+    }
+
+
+    /**
+     * Worker process: serves chunks until the master stops it. Registered kernels and buffers
+     * stay with the worker for the whole run (see WorkerSession).
+     */
+    public static void workerProcess(int rank) {
+        workerProcess(rank, 1);
+    }
+
+    // hybrid worker: each chunk is split over threads cores (0 = all of them) inside the rank
+    public static void workerProcess(int rank, int threads) {
+        new WorkerSession(threads).run();
     }
 
     public static void stopWorkers(int numWorkers) {
@@ -261,6 +1189,8 @@ public class DImgProcMethods implements IMGProcessor {
     }
     @Override
     public String toString() {
-        return "Distributed Image Processor";
+        return schedule == Schedule.STATIC
+                ? "Distributed Image Processor"
+                : "Distributed Image Processor (" + schedule.name().toLowerCase() + ")";
     }
 }
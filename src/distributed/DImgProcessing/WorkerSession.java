@@ -0,0 +1,206 @@
+package distributed.DImgProcessing;
+
+import Processing.FilterPipeline;
+import Processing.GrayRaster;
+import mpi.MPI;
+import mpi.Status;
+import parallel.PImgProcessing.PImgProcMethods;
+import parallel.PImgProcessing.RowBandTask;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static distributed.DImgProcessing.DImgProcMethods.*;
+
+/**
+ * Worker side of the chunk protocol. One session lives for the whole run of a worker rank:
+ * kernels and pipelines the master registers are kept by id, so a chunk only names them, and the
+ * receive, conversion and result buffers grow to the largest chunk seen and are then reused for
+ * every following chunk and image.
+ * <p>
+ * With more than one thread the session runs hybrid: conversion and convolution of a chunk are
+ * split into row bands on a ForkJoin pool, as PImgProcMethods does for a whole image, so one rank
+ * per node can still use every core. The thread count is reported to the master at startup.
+ */
+final class WorkerSession {
+
+    // a registered kernel is kept as a pipeline of one stage; the master reuses ids once it has
+    // registered its maximum, and a reused id replaces the entry, so this stays as small as its cache
+    private final Map<Integer, FilterPipeline> kernels = new HashMap<>();
+    private final ForkJoinPool pool;       // null when single-threaded
+    private final int threads;
+
+    private final int[] header = new int[HEADER_LENGTH];
+    private byte[] pixels = new byte[0];
+    private int[] argb = new int[0];
+    private byte[] raw = new byte[0];
+    private byte[] packed = new byte[0];
+    private byte[] result = new byte[0];
+
+    // threads: 1 for the plain single-threaded worker, 0 for one per core
+    WorkerSession(int threads) {
+        this.pool = threads == 1 ? null : PImgProcMethods.poolFor(threads);
+        this.threads = pool == null ? 1 : pool.getParallelism();
+    }
+
+    // serves the master until it sends TAG_STOP
+    void run() {
+        MPI.COMM_WORLD.Send(new int[]{threads}, 0, 1, MPI.INT, MASTER, TAG_HELLO);
+        while (true) {
+            Status status = MPI.COMM_WORLD.Probe(MASTER, MPI.ANY_TAG);
+            int tag = status.tag;
+
+            if (tag == TAG_STOP) {
+                MPI.COMM_WORLD.Recv(new byte[0], 0, 0, MPI.BYTE, MASTER, TAG_STOP);
+                break;
+            }
+            if (tag == TAG_KERNEL_DIMS) {
+                receiveKernel();
+            } else if (tag == TAG_PIPELINE_DIMS) {
+                receivePipeline();
+            } else if (tag == TAG_DIMENSIONS) {
+                processChunk();
+            }
+        }
+    }
+
+    // {id, rows, cols} followed by the taps row by row
+    private void receiveKernel() {
+        int[] description = new int[3];
+        MPI.COMM_WORLD.Recv(description, 0, 3, MPI.INT, MASTER, TAG_KERNEL_DIMS);
+        int kRows = description[1];
+        int kCols = description[2];
+
+        int[] flatKernel = new int[kRows * kCols];
+        MPI.COMM_WORLD.Recv(flatKernel, 0, flatKernel.length, MPI.INT, MASTER, TAG_KERNEL_DATA);
+
+        int[][] kernel = new int[kRows][kCols];
+        for (int i = 0; i < kRows; i++) {
+            System.arraycopy(flatKernel, i * kCols, kernel[i], 0, kCols);
+        }
+        kernels.put(description[0], FilterPipeline.of(kernel));
+    }
+
+    // {id, length} followed by FilterPipeline.toArray()
+    private void receivePipeline() {
+        int[] description = new int[2];
+        MPI.COMM_WORLD.Recv(description, 0, 2, MPI.INT, MASTER, TAG_PIPELINE_DIMS);
+        int[] flat = new int[description[1]];
+        MPI.COMM_WORLD.Recv(flat, 0, flat.length, MPI.INT, MASTER, TAG_PIPELINE_DATA);
+        kernels.put(description[0], FilterPipeline.fromArray(flat));
+    }
+
+    /**
+     * Receive chunk with overlap, convert it to gray if it came as colour, convolve the rows it
+     * owns and send only those back, on the tag named in the chunk header and compressed if the
+     * chunk was.
+     */
+    private void processChunk() {
+        MPI.COMM_WORLD.Recv(header, 0, HEADER_LENGTH, MPI.INT, MASTER, TAG_DIMENSIONS);
+        int width = header[0];
+        int height = header[1];
+        int haloTop = header[3];
+        int coreRows = header[4];
+        int resultTag = header[5];
+        int format = header[6];
+        FilterPipeline pipeline = kernels.get(header[8]);
+        if (pipeline == null) {
+            throw new IllegalStateException("Chunk refers to unknown kernel " + header[8]);
+        }
+        int[][] kernel = pipeline.singleKernel();
+
+        receivePixels(width, height, format, header[7]);
+
+        // Convolve only rows [haloTop, haloTop + coreRows) of the chunk; the halo is input only and
+        // covers every stage of a pipeline. Raw samples in and out, as applyConvolution does.
+        int resultLength = coreRows * width;
+        result = grow(result, resultLength);
+        byte[] source = pixels;
+        byte[] target = result;
+        int grain;
+        if (kernel != null && GrayRaster.usesFFT(kernel, false)) {
+            // FFT blocks cover many rows at once, so thin bands would waste most of each transform
+            grain = (coreRows + threads - 1) / threads;
+        } else {
+            grain = RowBandTask.grainFor(width, coreRows, 1 + pipeline.kernelRows(), threads);
+            if (kernel == null) {
+                // pipeline bands redo their halo rows
+                grain = Math.max(grain, 4 * (pipeline.haloTop() + pipeline.haloBottom()));
+            }
+        }
+        forRows(haloTop, haloTop + coreRows, grain,
+                (y0, y1) -> pipeline.applyRows(source, 0, width, GrayRaster.IDENTITY_DECODE,
+                        width, height,
+                        target, -haloTop * width, width, GrayRaster.IDENTITY_ENCODE,
+                        y0, y1));
+
+        if ((format & FORMAT_COMPRESSED) != 0) {
+            ChunkCodec.deltaEncode(result, 0, coreRows, width);
+            packed = grow(packed, ChunkCodec.maxCompressedLength(resultLength));
+            int length = ChunkCodec.compress(result, 0, resultLength, packed);
+            MPI.COMM_WORLD.Send(packed, 0, length, MPI.BYTE, MASTER, resultTag);
+        } else {
+            MPI.COMM_WORLD.Send(result, 0, resultLength, MPI.BYTE, MASTER, resultTag);
+        }
+    }
+
+    // receives the TAG_PIXELS payload described by format into pixels as gray samples
+    private void receivePixels(int width, int rows, int format, int payloadLength) {
+        int count = width * rows;
+        pixels = grow(pixels, count);
+        boolean rgb = (format & FORMAT_RGB) != 0;
+
+        if ((format & FORMAT_COMPRESSED) != 0) {
+            packed = grow(packed, payloadLength);
+            MPI.COMM_WORLD.Recv(packed, 0, payloadLength, MPI.BYTE, MASTER, TAG_PIXELS);
+            byte[] target = pixels;
+            if (rgb) {
+                raw = grow(raw, 3 * count);
+                target = raw;
+            }
+            ChunkCodec.decompress(packed, 0, payloadLength, target, 0, rgb ? 3 * count : count);
+            ChunkCodec.deltaDecode(target, 0, rgb ? 3 * rows : rows, width);
+            if (rgb) {
+                // R, G and B planes
+                byte[] planes = raw;
+                byte[] gray = pixels;
+                forRows(0, rows, RowBandTask.grainFor(width, rows, 4, threads), (y0, y1) -> {
+                    for (int i = y0 * width; i < y1 * width; i++) {
+                        gray[i] = grayOf(planes[i] & 0xFF, planes[count + i] & 0xFF, planes[2 * count + i] & 0xFF);
+                    }
+                });
+            }
+        } else if (rgb) {
+            argb = grow(argb, count);
+            MPI.COMM_WORLD.Recv(argb, 0, count, MPI.INT, MASTER, TAG_PIXELS);
+            int[] colour = argb;
+            byte[] gray = pixels;
+            forRows(0, rows, RowBandTask.grainFor(width, rows, 5, threads), (y0, y1) -> {
+                for (int i = y0 * width; i < y1 * width; i++) {
+                    int value = colour[i];
+                    gray[i] = grayOf((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+                }
+            });
+        } else {
+            MPI.COMM_WORLD.Recv(pixels, 0, count, MPI.BYTE, MASTER, TAG_PIXELS);
+        }
+    }
+
+    // rows [y0, y1) in bands on the pool, or in one go when single-threaded
+    private void forRows(int y0, int y1, int grain, RowBandTask.RowRange body) {
+        if (pool == null) {
+            body.run(y0, y1);
+        } else {
+            pool.invoke(new RowBandTask(body, y0, y1, grain));
+        }
+    }
+
+    private static byte[] grow(byte[] buffer, int length) {
+        return buffer.length >= length ? buffer : new byte[length];
+    }
+
+    private static int[] grow(int[] buffer, int length) {
+        return buffer.length >= length ? buffer : new int[length];
+    }
+}
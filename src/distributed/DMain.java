@@ -1,13 +1,53 @@
 package distributed;
 
-import Processing.IMGProcessor;
+import Constants.CONSTANTS;
+import Processing.BufferPool;
+import Processing.Kernels;
+import batch.BatchMain;
+import batch.LatencyStats;
 import distributed.DImgProcessing.DImgProcMethods;
+import metrics.Metrics;
 import mpi.MPI;
 import GUI.GUI;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Usage: mpjrun.sh -np N distributed.DMain [--pipelined [--pieces N] | --dynamic [--tile-ms MS]]
+ *                                            [--worker-gray] [--compress] [--threads-per-rank N]
+ *                                            [--batch DIR [--output DIR] [--kernel NAME|FILE] [--images-in-flight N]
+ *                                             [--metrics FILE]]
+ * --pipelined overlaps scatter, convolution and gather using non-blocking messages, cutting the
+ * image into --pieces pieces per worker (default 4).
+ * --dynamic hands out small tiles to whichever worker finishes first, each sized to take about
+ * --tile-ms milliseconds on that worker (default 50).
+ * --worker-gray ships colour rows and lets the workers convert them; --compress packs chunk
+ * payloads and results with a delta + LZ codec.
+ * --threads-per-rank runs each worker's chunks on N threads (0 = every core of its node, default 1),
+ * for one rank per node; the master weights chunk sizes by the thread counts the workers report.
+ * --batch runs every image of DIR through processImagesAsync without the GUI, keeping
+ * --images-in-flight images (default 3) on the workers at once, and prints images/sec and the
+ * per-image latency. --metrics also writes the per-stage timings (decode, chunk encode, send,
+ * result wait, stitch and one row per worker rank) to FILE, as JSON if it ends in .json and CSV
+ * otherwise.
+ * <p>
+ * Several local processes on one machine (rank 0 runs the GUI):
+ * <pre>
+ *     mpjrun.sh -np 4 -dev niodev -cp out distributed.DMain --dynamic
+ * </pre>
+ * with a machines file listing localhost, or -dev multicore to run the ranks as threads of one JVM.
+ */
 public class DMain {
     public static void main(String[] args) {
-        MPI.Init(args);
+        String[] appArgs = MPI.Init(args);
         int rank = MPI.COMM_WORLD.Rank();
         int size = MPI.COMM_WORLD.Size();
 
@@ -19,20 +59,119 @@ public class DMain {
             return;
         }
 
-        IMGProcessor processor = new DImgProcMethods();
+        DImgProcMethods.Schedule schedule = DImgProcMethods.Schedule.STATIC;
+        int piecesPerWorker = 0;
+        int tileMillis = 0;
+        boolean workerGrayscale = false;
+        boolean compression = false;
+        int threadsPerRank = 1;
+        String batchInput = null;
+        String batchOutput = CONSTANTS.OUTPUT_IMAGES_DIRECTORY;
+        String kernelName = "ridge";
+        int imagesInFlight = 0;
+        String metricsFile = null;
+        for (int i = 0; i < appArgs.length; i++) {
+            switch (appArgs[i]) {
+                case "--pipelined" -> schedule = DImgProcMethods.Schedule.PIPELINED;
+                case "--dynamic" -> schedule = DImgProcMethods.Schedule.DYNAMIC;
+                case "--pieces" -> piecesPerWorker = Integer.parseInt(appArgs[++i]);
+                case "--tile-ms" -> tileMillis = Integer.parseInt(appArgs[++i]);
+                case "--worker-gray" -> workerGrayscale = true;
+                case "--compress" -> compression = true;
+                case "--threads-per-rank" -> threadsPerRank = Integer.parseInt(appArgs[++i]);
+                case "--batch" -> batchInput = appArgs[++i];
+                case "--output" -> batchOutput = appArgs[++i];
+                case "--kernel" -> kernelName = appArgs[++i];
+                case "--images-in-flight" -> imagesInFlight = Integer.parseInt(appArgs[++i]);
+                case "--metrics" -> metricsFile = appArgs[++i];
+                default -> {
+                    if (rank == 0) System.err.println("Ignoring unknown argument: " + appArgs[i]);
+                }
+            }
+        }
+
+        DImgProcMethods processor = new DImgProcMethods(schedule, piecesPerWorker, tileMillis);
+        processor.setWorkerGrayscale(workerGrayscale);
+        processor.setCompression(compression);
+        if (imagesInFlight > 0) processor.setImagesInFlight(imagesInFlight);
 
         if (rank == 0) {
-            // Run the GUI on the master process
-            GUI.run(processor);
+            if (batchInput != null) {
+                runBatch(processor, batchInput, batchOutput, kernelName, metricsFile);
+            } else {
+                // Run the GUI on the master process
+                GUI.run(processor);
+            }
 
-            // Once GUI closes, stop workers
-            DImgProcMethods.stopWorkers(size);
+            // Once GUI closes, stop workers (ranks 1 .. size - 1)
+            DImgProcMethods.stopWorkers(size - 1);
 
         } else {
             // Worker process loop
-            DImgProcMethods.workerProcess(rank);
+            DImgProcMethods.workerProcess(rank, threadsPerRank);
         }
 
         MPI.Finalize(); // Finalize ONLY after work is fully done
     }
+
+    // headless multi-image run on the master: all images of a directory, results written as PNG
+    private static void runBatch(DImgProcMethods processor, String input, String output, String kernelName,
+                                 String metricsFile) {
+        int[][] kernel;
+        try {
+            kernel = Kernels.resolve(kernelName);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        File[] files = new File(input).listFiles(f -> f.isFile() && BatchMain.isImage(f.getName()));
+        if (files == null || files.length == 0) {
+            System.err.println("No images found in " + new File(input).getAbsolutePath());
+            return;
+        }
+        Arrays.sort(files);
+        File outputDirectory = new File(output);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.println("Cannot create output directory " + outputDirectory.getAbsolutePath());
+            return;
+        }
+
+        List<String> paths = new ArrayList<>();
+        for (File file : files) {
+            paths.add(file.getPath());
+        }
+
+        long start = System.nanoTime();
+        List<CompletableFuture<BufferedImage>> futures = processor.processImagesAsync(paths, kernel);
+        int failed = 0;
+        // results are written in order while later images are still on the workers
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            int dot = name.lastIndexOf('.');
+            File outputFile = new File(outputDirectory, (dot > 0 ? name.substring(0, dot) : name) + ".png");
+            try {
+                BufferedImage outputImage = futures.get(i).join();
+                ImageIO.write(outputImage, "png", outputFile);
+                BufferPool.SHARED.release(outputImage);
+            } catch (CompletionException | IOException e) {
+                failed++;
+                System.err.println("Failed " + name + ": " + e.getMessage());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Processed %d images (%d failed) in %.2f s: %.2f images/sec (%.2f images/sec on the workers)%n",
+                files.length - failed, failed, seconds, (files.length - failed) / seconds, processor.getImagesPerSecond());
+        System.out.println(LatencyStats.header());
+        System.out.println(processor.getImageLatency().summary());
+        System.out.println(BufferPool.SHARED.summary());
+        if (metricsFile != null) {
+            try {
+                Metrics.SHARED.export(new File(metricsFile));
+            } catch (IOException e) {
+                System.err.println("Cannot write " + metricsFile + ": " + e.getMessage());
+            }
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-stage instrumentation shared by the processors. A stage is timed with a Span:
+ * <pre>
+ *     Metrics.Span span = Metrics.SHARED.start(Metrics.GRAYSCALE);
+ *     ... the work ...
+ *     span.end(bytesMoved, pixels);
+ * </pre>
+ * which records System.nanoTime deltas into the stage's histogram, adds up bytes and pixels and
+ * commits a StageEvent for JFR. Stages appear in the order they were first used. The
+ * distributed processor adds one "worker N" stage per rank, timed from a chunk's send to its
+ * result landing, which is where imbalance between ranks shows.
+ * <p>
+ * The registry only grows; reset clears the numbers, for instance between two runs in the GUI.
+ * snapshot, toCsv and toJson read it while other threads may still be recording.
+ */
+public final class Metrics {
+
+    public static final Metrics SHARED = new Metrics();
+
+    public static final String DECODE = "decode";
+    public static final String GRAYSCALE = "grayscale";
+    public static final String CONVOLUTION = "convolution";
+    public static final String PIPELINE = "pipeline";
+    public static final String FUSED = "fused";
+    // distributed master: packing chunks, sending them, waiting for and stitching in results
+    public static final String CHUNK_ENCODE = "chunk encode";
+    public static final String SEND = "send";
+    public static final String RESULT_WAIT = "result wait";
+    public static final String STITCH = "stitch";
+    private static final String WORKER_PREFIX = "worker ";
+
+    private final Map<String, StageStats> stages = new LinkedHashMap<>();
+
+    public static String worker(int rank) {
+        return WORKER_PREFIX + rank;
+    }
+
+    public static boolean isWorker(String stage) {
+        return stage.startsWith(WORKER_PREFIX);
+    }
+
+    public synchronized StageStats stage(String name) {
+        return stages.computeIfAbsent(name, StageStats::new);
+    }
+
+    public Span start(String stage) {
+        return new Span(stage(stage));
+    }
+
+    /** One timing of a stage, begun by start and recorded by end. */
+    public static final class Span {
+        private final StageStats stats;
+        private final StageEvent event = new StageEvent();
+        private final long start;
+
+        private Span(StageStats stats) {
+            this.stats = stats;
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        public void end(long bytes, long pixels) {
+            stats.record(System.nanoTime() - start, bytes, pixels);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stats.getName();
+                event.bytes = bytes;
+                event.pixels = pixels;
+                event.commit();
+            }
+        }
+    }
+
+    public synchronized List<StageStats> snapshot() {
+        List<StageStats> used = new ArrayList<>();
+        for (StageStats stats : stages.values()) {
+            if (stats.count() > 0) used.add(stats);
+        }
+        return used;
+    }
+
+    public synchronized void reset() {
+        stages.values().forEach(StageStats::reset);
+    }
+
+    public static String csvHeader() {
+        return "stage,count,p50_ms,p99_ms,max_ms,total_ms,bytes,pixels,mb_per_s,mpixels_per_s";
+    }
+
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder(csvHeader()).append('\n');
+        for (StageStats s : snapshot()) {
+            csv.append(String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%.3f,%d,%d,%.2f,%.2f%n",
+                    s.getName(), s.count(), s.percentileMs(50), s.percentileMs(99), s.percentileMs(100),
+                    s.totalMs(), s.bytes(), s.pixels(), s.bytesPerSecond() / 1e6, s.pixelsPerSecond() / 1e6));
+        }
+        return csv.toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("[\n");
+        List<StageStats> snapshot = snapshot();
+        for (int i = 0; i < snapshot.size(); i++) {
+            StageStats s = snapshot.get(i);
+            json.append(String.format(Locale.ROOT,
+                    "  {\"stage\": \"%s\", \"count\": %d, \"p50_ms\": %.3f, \"p99_ms\": %.3f, \"max_ms\": %.3f, "
+                            + "\"total_ms\": %.3f, \"bytes\": %d, \"pixels\": %d, \"mb_per_s\": %.2f, \"mpixels_per_s\": %.2f}",
+                    s.getName().replace("\\", "\\\\").replace("\"", "\\\""), s.count(),
+                    s.percentileMs(50), s.percentileMs(99), s.percentileMs(100),
+                    s.totalMs(), s.bytes(), s.pixels(), s.bytesPerSecond() / 1e6, s.pixelsPerSecond() / 1e6));
+            json.append(i + 1 < snapshot.size() ? ",\n" : "\n");
+        }
+        return json.append("]\n").toString();
+    }
+
+    // JSON when the name ends in .json, CSV otherwise
+    public void export(File file) throws IOException {
+        String text = file.getName().toLowerCase(Locale.ROOT).endsWith(".json") ? toJson() : toCsv();
+        Files.writeString(file.toPath(), text, StandardCharsets.UTF_8);
+    }
+}
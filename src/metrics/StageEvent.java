@@ -0,0 +1,32 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one timed stage (see Metrics.Span), so a flight recording shows decode,
+ * grayscale, convolution and MPI traffic on the thread timelines next to GC and I/O. Costs next
+ * to nothing unless a recording with the event enabled is running.
+ */
+@Name("imgproc.Stage")
+@Label("Image Processing Stage")
+@Category("Image Processing")
+@Description("One decode, grayscale, convolution or distribution step")
+@StackTrace(false)
+public class StageEvent extends Event {
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Bytes Moved")
+    @DataAmount
+    public long bytes;
+
+    @Label("Pixels")
+    public long pixels;
+}
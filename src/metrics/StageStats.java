@@ -0,0 +1,70 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Everything recorded for one stage: a histogram of its durations, and the bytes and pixels it
+ * went through, from which the throughputs follow. Thread safe.
+ */
+public final class StageStats {
+
+    private final String name;
+    private final Histogram nanos = new Histogram();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder pixels = new LongAdder();
+
+    StageStats(String name) {
+        this.name = name;
+    }
+
+    public void record(long elapsedNanos, long bytesMoved, long pixelCount) {
+        nanos.record(elapsedNanos);
+        bytes.add(bytesMoved);
+        pixels.add(pixelCount);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Histogram getHistogram() {
+        return nanos;
+    }
+
+    public long count() {
+        return nanos.count();
+    }
+
+    public double percentileMs(double percentile) {
+        return nanos.percentile(percentile) / 1e6;
+    }
+
+    public double totalMs() {
+        return nanos.sum() / 1e6;
+    }
+
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long pixels() {
+        return pixels.sum();
+    }
+
+    // over the time spent inside the stage, not wall time; 0 before anything was recorded
+    public double pixelsPerSecond() {
+        long total = nanos.sum();
+        return total == 0 ? 0 : pixels() * 1e9 / total;
+    }
+
+    public double bytesPerSecond() {
+        long total = nanos.sum();
+        return total == 0 ? 0 : bytes() * 1e9 / total;
+    }
+
+    void reset() {
+        nanos.reset();
+        bytes.reset();
+        pixels.reset();
+    }
+}
@@ -0,0 +1,70 @@
+package outofcore;
+
+import Processing.Kernels;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Headless out-of-core mode for images that do not fit on the heap (gigapixel scans, stitched
+ * panoramas).
+ * <p>
+ * Usage: OutOfCoreMain INPUT OUTPUT.tif [--kernel NAME|FILE] [--tile N] [--strip-mb MB]
+ * [--threads N] [--scratch DIR]
+ * <p>
+ * --tile sets the square tile edge in pixels (default 1024), --strip-mb the heap budget for one
+ * decoded input strip or output strip (default 64), --threads the number of tiles convolved at
+ * once (default 1, 0 = every core) and --scratch where the temporary gray file goes (default
+ * java.io.tmpdir). The scratch file takes width x height bytes plus one band of tile rows.
+ */
+public class OutOfCoreMain {
+
+    public static void main(String[] args) {
+        String input = null;
+        String output = null;
+        String kernelName = "ridge";
+        int tileSize = OutOfCoreProcessor.DEFAULT_TILE_SIZE;
+        long stripBudget = OutOfCoreProcessor.DEFAULT_STRIP_BUDGET;
+        int threads = 1;
+        File scratch = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--kernel" -> kernelName = args[++i];
+                case "--tile" -> tileSize = Integer.parseInt(args[++i]);
+                case "--strip-mb" -> stripBudget = Long.parseLong(args[++i]) << 20;
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--scratch" -> scratch = new File(args[++i]);
+                default -> {
+                    if (args[i].startsWith("--")) {
+                        System.err.println("Unknown argument: " + args[i]);
+                        System.exit(2);
+                    } else if (input == null) {
+                        input = args[i];
+                    } else if (output == null) {
+                        output = args[i];
+                    } else {
+                        System.err.println("Unexpected argument: " + args[i]);
+                        System.exit(2);
+                    }
+                }
+            }
+        }
+        if (input == null || output == null) {
+            System.err.println("Usage: OutOfCoreMain INPUT OUTPUT.tif [--kernel NAME|FILE] [--tile N] "
+                    + "[--strip-mb MB] [--threads N] [--scratch DIR]");
+            System.exit(2);
+        }
+
+        OutOfCoreProcessor processor = new OutOfCoreProcessor(tileSize, stripBudget, scratch, threads);
+        try {
+            int[][] kernel = Kernels.resolve(kernelName);
+            long start = System.nanoTime();
+            processor.process(new File(input), new File(output), kernel);
+            System.out.printf("%s: %s -> %s in %.2f s%n", processor, input, output, (System.nanoTime() - start) / 1e9);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
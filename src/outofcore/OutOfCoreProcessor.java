@@ -0,0 +1,276 @@
+package outofcore;
+
+import Processing.GrayRaster;
+import parallel.PImgProcessing.PImgProcMethods;
+import parallel.PImgProcessing.RowBandTask;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Grayscale conversion and convolution for images too large for the heap.
+ * <p>
+ * The input is decoded in full-width strips through ImageReadParam.setSourceRegion, converted
+ * to gray row by row and written into a scratch file that is only ever accessed through
+ * FileChannel.map windows. The convolution then walks the scratch file in bands of tile rows:
+ * each band is mapped with its kernel halo, cut into square tiles, and every tile is copied
+ * out with its halo and convolved on its own. Finished bands are streamed into an uncompressed
+ * strip TIFF with ImageWriter.replacePixels, so the output is never held in memory either.
+ * <p>
+ * Heap use is a few tile buffers plus one decode strip and one output strip, both capped by the
+ * strip budget (never less than a single row), whatever the image height. Output samples are
+ * the same bytes processImage would put in its TYPE_BYTE_GRAY raster.
+ * <p>
+ * Readers for sequential formats such as PNG and JPEG decode everything above a source region
+ * again for every strip, so strips are made as tall as the budget allows; TIFF inputs seek
+ * straight to their strips.
+ */
+public class OutOfCoreProcessor {
+
+    public static final int DEFAULT_TILE_SIZE = 1024;
+    public static final long DEFAULT_STRIP_BUDGET = 64L << 20;
+
+    private final int tileSize;
+    private final long stripBudget;
+    private final File scratchDirectory; // null = java.io.tmpdir
+    private final ForkJoinPool pool;     // null when single-threaded
+
+    // per-thread tile buffers, grown once to the largest tile plus halo
+    private final ThreadLocal<TileBuffers> tileBuffers = ThreadLocal.withInitial(TileBuffers::new);
+
+    public OutOfCoreProcessor() {
+        this(DEFAULT_TILE_SIZE, DEFAULT_STRIP_BUDGET, null, 1);
+    }
+
+    // threads: 1 to stay on the calling thread, 0 for one per core
+    public OutOfCoreProcessor(int tileSize, long stripBudget, File scratchDirectory, int threads) {
+        if (tileSize < 1) throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        this.tileSize = tileSize;
+        this.stripBudget = Math.max(1, stripBudget);
+        this.scratchDirectory = scratchDirectory;
+        this.pool = threads == 1 ? null : PImgProcMethods.poolFor(threads);
+    }
+
+    /**
+     * Converts input to gray, convolves it with kernel and writes the result to output as a
+     * single-band 8-bit TIFF.
+     */
+    public void process(File input, File output, int[][] kernel) throws IOException {
+        Path scratch = scratchDirectory == null
+                ? Files.createTempFile("outofcore", ".gray")
+                : Files.createTempFile(scratchDirectory.toPath(), "outofcore", ".gray");
+        try (FileChannel channel = FileChannel.open(scratch, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ImageSize size = decodeToGray(input, channel);
+            convolveToTiff(channel, size.width, size.height, kernel, output);
+        } finally {
+            // mapped windows may still pin the file on some platforms until they are collected
+            if (!scratch.toFile().delete()) scratch.toFile().deleteOnExit();
+        }
+    }
+
+    private record ImageSize(int width, int height) {
+    }
+
+    // decodes the input strip by strip into gray samples at scratch[y * width + x]
+    private ImageSize decodeToGray(File input, FileChannel scratch) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) throw new IOException("Cannot open " + input);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) throw new IOException("No image reader for " + input);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, false, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // 4 bytes per decoded pixel covers every layout grayscaleRows has a fast path for
+                int stripRows = stripRows(width, 4, height);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                byte[] grayRow = new byte[width];
+                int[] rgbRow = new int[width];
+                for (int y0 = 0; y0 < height; y0 += stripRows) {
+                    int rows = Math.min(stripRows, height - y0);
+                    param.setSourceRegion(new Rectangle(0, y0, width, rows));
+                    BufferedImage strip = reader.read(0, param);
+
+                    MappedByteBuffer window = scratch.map(FileChannel.MapMode.READ_WRITE, (long) y0 * width, (long) rows * width);
+                    for (int y = 0; y < rows; y++) {
+                        GrayRaster.grayscaleRows(strip, grayRow, -y * width, width, y, y + 1, rgbRow);
+                        window.put(y * width, grayRow, 0, width);
+                    }
+                }
+                return new ImageSize(width, height);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private void convolveToTiff(FileChannel scratch, int width, int height, int[][] kernel, File output) throws IOException {
+        int kernelHeight = kernel.length;
+        int centerY = kernelHeight / 2;
+        int bandRows = Math.min(tileSize, height);
+        if ((long) width * (bandRows + kernelHeight - 1) > Integer.MAX_VALUE) {
+            throw new IOException("Image is too wide for " + bandRows + "-row bands: " + width + " pixels");
+        }
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+        if (!writers.hasNext()) throw new IOException("No TIFF writer available");
+        ImageWriter writer = writers.next();
+        Files.deleteIfExists(output.toPath());
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            ImageTypeSpecifier gray = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY);
+            // uncompressed strips are laid out up front, so they can be filled in any order
+            writer.prepareWriteEmpty(null, gray, width, height, null, null, writer.getDefaultWriteParam());
+            writer.endWriteEmpty();
+            writer.prepareReplacePixels(0, new Rectangle(0, 0, width, height));
+
+            // output bands go to the end of the scratch file, after the gray image
+            long outputStart = (long) width * height;
+            int writeRows = stripRows(width, 1, bandRows);
+            byte[] writeBuffer = new byte[writeRows * width];
+
+            for (int y0 = 0; y0 < height; y0 += bandRows) {
+                int y1 = Math.min(height, y0 + bandRows);
+                int firstRow = Math.max(0, y0 - centerY);
+                int lastRow = Math.min(height, y1 + kernelHeight - 1 - centerY);
+                MappedByteBuffer source = scratch.map(FileChannel.MapMode.READ_ONLY,
+                        (long) firstRow * width, (long) (lastRow - firstRow) * width);
+                MappedByteBuffer target = scratch.map(FileChannel.MapMode.READ_WRITE,
+                        outputStart, (long) (y1 - y0) * width);
+
+                int tiles = (width + tileSize - 1) / tileSize;
+                Band band = new Band(source, firstRow, lastRow, target, y0, y1, width, kernel);
+                if (pool == null) {
+                    for (int t = 0; t < tiles; t++) band.tile(t);
+                } else {
+                    pool.invoke(new RowBandTask((t0, t1) -> {
+                        for (int t = t0; t < t1; t++) band.tile(t);
+                    }, 0, tiles, 1));
+                }
+
+                for (int s = y0; s < y1; s += writeRows) {
+                    int rows = Math.min(writeRows, y1 - s);
+                    target.get((s - y0) * width, writeBuffer, 0, rows * width);
+                    WritableRaster strip = Raster.createInterleavedRaster(new DataBufferByte(writeBuffer, rows * width),
+                            width, rows, width, 1, new int[]{0}, null);
+                    ImageWriteParam param = writer.getDefaultWriteParam();
+                    param.setDestinationOffset(new Point(0, s));
+                    writer.replacePixels(strip, param);
+                }
+            }
+            writer.endReplacePixels();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // rows per strip so that a strip of bytesPerPixel-sized pixels fits the budget, at least one
+    private int stripRows(int width, int bytesPerPixel, int limit) {
+        long rows = stripBudget / ((long) width * bytesPerPixel);
+        return (int) Math.max(1, Math.min(limit, rows));
+    }
+
+    /**
+     * One band of output rows [y0, y1). The mapped source holds gray rows [firstRow, lastRow),
+     * which is the band plus its kernel halo clipped to the image.
+     */
+    private final class Band {
+        final MappedByteBuffer source;
+        final int firstRow;
+        final int lastRow;
+        final MappedByteBuffer target;
+        final int y0;
+        final int y1;
+        final int width;
+        final int[][] kernel;
+
+        Band(MappedByteBuffer source, int firstRow, int lastRow, MappedByteBuffer target,
+             int y0, int y1, int width, int[][] kernel) {
+            this.source = source;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            this.target = target;
+            this.y0 = y0;
+            this.y1 = y1;
+            this.width = width;
+            this.kernel = kernel;
+        }
+
+        /**
+         * Tile t covers columns [x0, x1). It is copied out with its halo columns and convolved
+         * as a small image of its own; the halo only feeds the core, and where the halo is cut
+         * off by the image edge the zero padding is exactly what the whole image would see.
+         */
+        void tile(int t) {
+            int centerX = kernel[0].length / 2;
+            int x0 = t * tileSize;
+            int x1 = Math.min(width, x0 + tileSize);
+            int firstColumn = Math.max(0, x0 - centerX);
+            int lastColumn = Math.min(width, x1 + kernel[0].length - 1 - centerX);
+            int tileWidth = lastColumn - firstColumn;
+            int tileHeight = lastRow - firstRow;
+            int coreRows = y1 - y0;
+
+            TileBuffers buffers = tileBuffers.get();
+            byte[] in = buffers.in(tileWidth * tileHeight);
+            byte[] out = buffers.out(tileWidth * coreRows);
+            for (int r = 0; r < tileHeight; r++) {
+                source.get(r * width + firstColumn, in, r * tileWidth, tileWidth);
+            }
+
+            // local rows [y0 - firstRow, y1 - firstRow) of the tile land at out[0]
+            int coreTop = y0 - firstRow;
+            GrayRaster.convolveRows(in, 0, tileWidth, GrayRaster.DECODE,
+                    tileWidth, tileHeight, kernel,
+                    out, -coreTop * tileWidth, tileWidth, GrayRaster.ENCODE,
+                    coreTop, coreTop + coreRows);
+
+            for (int r = 0; r < coreRows; r++) {
+                target.put(r * width + x0, out, r * tileWidth + x0 - firstColumn, x1 - x0);
+            }
+        }
+    }
+
+    private static final class TileBuffers {
+        private byte[] in = new byte[0];
+        private byte[] out = new byte[0];
+
+        byte[] in(int length) {
+            if (in.length < length) in = new byte[length];
+            return in;
+        }
+
+        byte[] out(int length) {
+            if (out.length < length) out = new byte[length];
+            return out;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Out-of-core Image Processor";
+    }
+}
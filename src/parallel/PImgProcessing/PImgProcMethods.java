@@ -1,88 +1,183 @@
 package parallel.PImgProcessing;
 
+import Processing.BufferPool;
+import Processing.FilterPipeline;
+import Processing.FusedConvolver;
+import Processing.GrayImage;
+import Processing.GrayRaster;
 import Processing.IMGProcessor;
+import Processing.ImageDecoder;
+import Processing.RgbImage;
+import metrics.Metrics;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
-import java.util.stream.IntStream;
 
 public class PImgProcMethods implements IMGProcessor {
 
+    // long-lived pools, one per thread count, shared by every processor instance
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private final ForkJoinPool pool;
+    private final int grainRows; // 0 = pick from L2 size
+    private final boolean lanes; // use LaneConvolver instead of the scalar direct loop
+
+    public PImgProcMethods() {
+        this(0, 0);
+    }
+
+    public PImgProcMethods(int threads, int grainRows) {
+        this(threads, grainRows, false);
+    }
+
+    public PImgProcMethods(int threads, int grainRows, boolean lanes) {
+        this.pool = poolFor(threads);
+        this.grainRows = Math.max(0, grainRows);
+        this.lanes = lanes;
+    }
+
+    public static ForkJoinPool poolFor(int threads) {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+
+    private int grain(int width, int height, int bytesPerPixel) {
+        if (grainRows > 0) return grainRows;
+        return RowBandTask.grainFor(width, height, bytesPerPixel, pool.getParallelism());
+    }
+
     @Override
     public BufferedImage convertToGrayscale(BufferedImage colorImage) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.GRAYSCALE);
         int width = colorImage.getWidth();
         int height = colorImage.getHeight();
 
         // create new image to store grayscale pixels
-        BufferedImage grayImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-
-        // run parallel processing using ForkJoinPool sized to available CPUs
-        try (ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors())) {
-            pool.submit(() ->
-                    // we flatten 2D image pixels into 1D stream and process in parallel
-                    IntStream.range(0, width * height).parallel().forEach(i -> {
-                        int x = i % width;       // x coordinate of pixel
-                        int y = i / width;       // y coordinate of pixel
-                        Color color = new Color(colorImage.getRGB(x, y));
-                        int r = color.getRed();
-                        int g = color.getGreen();
-                        int b = color.getBlue();
-                        // convert to grayscale using weighted formula
-                        int gray = (int) (0.299 * r + 0.587 * g + 0.114 * b);
-                        Color grayColor = new Color(gray, gray, gray);
-                        grayImage.setRGB(x, y, grayColor.getRGB());
-                    })
-            ).join();  // wait until all pixels are processed
-        }
+        BufferedImage grayImage = BufferPool.SHARED.grayImage(width, height);
+        byte[] grayPixels = GrayRaster.data(grayImage);
+
+        // each band converts whole rows straight into the gray raster (4 bytes in + 1 out per pixel)
+        pool.invoke(new RowBandTask(
+                (y0, y1) -> GrayRaster.grayscaleRows(colorImage, grayPixels, 0, width, y0, y1, new int[width]),
+                0, height, grain(width, height, 5)));
 
+        span.end(5L * width * height, (long) width * height);
         return grayImage;
     }
 
     @Override
     public BufferedImage applyConvolution(BufferedImage inputImage, int[][] kernel) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.CONVOLUTION);
         int width = inputImage.getWidth();
         int height = inputImage.getHeight();
-        int kernelSize = kernel.length;
-        int halfKernel = kernelSize / 2;
-
-        BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-
-        // same parallel approach here for the convolution operation
-        try (ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors())) {
-            pool.submit(() ->
-                    IntStream.range(0, width * height).parallel().forEach(i -> {
-                        int x = i % width;
-                        int y = i / width;
-
-                        int accumulator = 0;
-
-                        // apply kernel to pixel neighborhood
-                        for (int ky = 0; ky < kernelSize; ky++) {
-                            for (int kx = 0; kx < kernelSize; kx++) {
-                                int pixelX = x + kx - halfKernel;
-                                int pixelY = y + ky - halfKernel;
-
-                                // check boundaries so we don’t go out of the image
-                                if (pixelX >= 0 && pixelX < width && pixelY >= 0 && pixelY < height) {
-                                    int pixel = new Color(inputImage.getRGB(pixelX, pixelY)).getRed();
-                                    int kernelValue = kernel[ky][kx];
-                                    accumulator += pixel * kernelValue;
-                                }
-                            }
-                        }
-
-                        // clamp value between 0-255 so it fits in grayscale
-                        int outputPixel = Math.min(255, Math.max(0, accumulator));
-                        Color outColor = new Color(outputPixel, outputPixel, outputPixel);
-                        outputImage.setRGB(x, y, outColor.getRGB());
-                    })
-            ).join();
+
+        BufferedImage outputImage = BufferPool.SHARED.grayImage(width, height);
+        byte[] inputPixels = GrayRaster.grayPlane(inputImage);
+        byte[] outputPixels = GrayRaster.data(outputImage);
+        int[] decode = GrayRaster.decodeFor(inputImage);
+
+        // a band reads its own rows plus the kernel halo and writes its own rows
+        int grain = grain(width, height, 1 + kernel.length);
+        if (GrayRaster.usesFFT(kernel, lanes)) {
+            // FFT blocks cover many rows at once, so thin bands would waste most of each transform
+            grain = Math.max(grain, (height + pool.getParallelism() - 1) / pool.getParallelism());
+        }
+        pool.invoke(new RowBandTask(
+                (y0, y1) -> GrayRaster.convolveRows(inputPixels, 0, width, decode,
+                        width, height, kernel,
+                        outputPixels, 0, width, GrayRaster.ENCODE,
+                        y0, y1, lanes),
+                0, height, grain));
+
+        span.end(2L * width * height, (long) width * height);
+        return outputImage;
+    }
+
+    @Override
+    public GrayImage convertToGrayscale(RgbImage colorImage) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.GRAYSCALE);
+        int width = colorImage.width;
+        int height = colorImage.height;
+        GrayImage grayImage = BufferPool.SHARED.gray(width, height);
+
+        pool.invoke(new RowBandTask(
+                (y0, y1) -> GrayRaster.grayscaleRows(colorImage.data, colorImage.offset, colorImage.stride, width,
+                        grayImage.data, 0, width, y0, y1),
+                0, height, grain(width, height, 5)));
+
+        span.end(5L * width * height, (long) width * height);
+        return grayImage;
+    }
+
+    @Override
+    public GrayImage applyConvolution(GrayImage inputImage, int[][] kernel) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.CONVOLUTION);
+        int width = inputImage.width;
+        int height = inputImage.height;
+        GrayImage outputImage = BufferPool.SHARED.gray(width, height);
+
+        int grain = grain(width, height, 1 + kernel.length);
+        if (GrayRaster.usesFFT(kernel, lanes)) {
+            grain = Math.max(grain, (height + pool.getParallelism() - 1) / pool.getParallelism());
         }
+        pool.invoke(new RowBandTask(
+                (y0, y1) -> GrayRaster.convolveRows(inputImage.data, inputImage.offset, inputImage.stride, GrayRaster.DECODE,
+                        width, height, kernel,
+                        outputImage.data, 0, width, GrayRaster.ENCODE,
+                        y0, y1, lanes),
+                0, height, grain));
+
+        span.end(2L * width * height, (long) width * height);
+        return outputImage;
+    }
+
+    // bands of the fused pipeline run side by side; each recomputes its own halo rows
+    @Override
+    public GrayImage applyPipeline(GrayImage inputImage, FilterPipeline pipeline) {
+        int[][] kernel = pipeline.singleKernel();
+        if (kernel != null) return applyConvolution(inputImage, kernel);
+        return applyPipeline(inputImage, pipeline, null);
+    }
 
+    // every band is reported by the pool thread that finished it (listener may be null)
+    @Override
+    public GrayImage applyPipeline(GrayImage inputImage, FilterPipeline pipeline, BandListener listener) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.PIPELINE);
+        int width = inputImage.width;
+        int height = inputImage.height;
+        GrayImage outputImage = BufferPool.SHARED.gray(width, height);
+
+        int[][] kernel = pipeline.singleKernel();
+        int grain;
+        if (kernel != null) {
+            // same bands as applyConvolution
+            grain = grain(width, height, 1 + kernel.length);
+            if (GrayRaster.usesFFT(kernel, lanes)) {
+                grain = Math.max(grain, (height + pool.getParallelism() - 1) / pool.getParallelism());
+            }
+        } else {
+            // halo rows are redone by every band, so bands stay well above the combined halo
+            grain = Math.max(grain(width, height, 1 + pipeline.kernelRows()),
+                    4 * (pipeline.haloTop() + pipeline.haloBottom()));
+        }
+        pool.invoke(new RowBandTask(
+                (y0, y1) -> {
+                    pipeline.applyRows(inputImage.data, inputImage.offset, inputImage.stride, GrayRaster.DECODE,
+                            width, height,
+                            outputImage.data, 0, width, GrayRaster.ENCODE,
+                            y0, y1, lanes);
+                    if (listener != null) listener.bandDone(outputImage, y0, y1);
+                },
+                0, height, grain));
+
+        span.end(2L * width * height, (long) width * height);
         return outputImage;
     }
 
@@ -90,14 +185,42 @@ public class PImgProcMethods implements IMGProcessor {
     public BufferedImage processImage(String inputFilePath, int[][] kernel) {
         try {
             // read input image from file
-            BufferedImage inputImage = ImageIO.read(new File(inputFilePath));
+            BufferedImage inputImage = ImageDecoder.read(inputFilePath);
 
             // convert to grayscale (parallelized)
             BufferedImage grayImage = convertToGrayscale(inputImage);
 
-            // apply convolution with given kernel (also parallelized)
-            return applyConvolution(grayImage, kernel);
+            // apply convolution with given kernel (also parallelized), then recycle the intermediate
+            BufferedImage outputImage = applyConvolution(grayImage, kernel);
+            BufferPool.SHARED.release(grayImage);
+            return outputImage;
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
+    @Override
+    public BufferedImage processImageFused(String inputFilePath, int[][] kernel) {
+        try {
+            BufferedImage inputImage = ImageDecoder.read(inputFilePath);
+            Metrics.Span span = Metrics.SHARED.start(Metrics.FUSED);
+            int width = inputImage.getWidth();
+            int height = inputImage.getHeight();
+
+            BufferedImage outputImage = BufferPool.SHARED.grayImage(width, height);
+            byte[] outputPixels = GrayRaster.data(outputImage);
+
+            // every band keeps its own ring buffer and re-converts the few halo rows it shares
+            // with its neighbours, so taller bands are cheaper here than in applyConvolution
+            int grain = Math.max(grain(width, height, 1 + kernel.length), 4 * kernel.length);
+            pool.invoke(new RowBandTask(
+                    (y0, y1) -> FusedConvolver.convolveRows(inputImage, kernel, outputPixels, 0, width, y0, y1),
+                    0, height, grain));
+
+            span.end(5L * width * height, (long) width * height);
+            return outputImage;
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -107,6 +230,6 @@ public class PImgProcMethods implements IMGProcessor {
 
     @Override
     public String toString() {
-        return "Parallel Image Processor";
+        return lanes ? "Parallel Image Processor (lanes)" : "Parallel Image Processor";
     }
 }
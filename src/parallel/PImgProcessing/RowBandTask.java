@@ -0,0 +1,51 @@
+package parallel.PImgProcessing;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of image rows in half until a band is at most grainRows tall, then runs
+ * the body on that band. Bands keep whole rows so every worker walks memory linearly.
+ */
+@SuppressWarnings("serial") // fork/join tasks are never serialized
+public class RowBandTask extends RecursiveAction {
+
+    // rough per-core L2 size, used to pick a band height when none is configured
+    public static final int L2_CACHE_BYTES = 256 * 1024;
+
+    @FunctionalInterface
+    public interface RowRange {
+        void run(int y0, int y1);
+    }
+
+    private final RowRange body;
+    private final int y0;
+    private final int y1;
+    private final int grainRows;
+
+    public RowBandTask(RowRange body, int y0, int y1, int grainRows) {
+        this.body = body;
+        this.y0 = y0;
+        this.y1 = y1;
+        this.grainRows = Math.max(1, grainRows);
+    }
+
+    @Override
+    protected void compute() {
+        if (y1 - y0 <= grainRows) {
+            body.run(y0, y1);
+            return;
+        }
+        int mid = (y0 + y1) >>> 1;
+        invokeAll(new RowBandTask(body, y0, mid, grainRows), new RowBandTask(body, mid, y1, grainRows));
+    }
+
+    /**
+     * Band height so that the bytes touched per band (bytesPerPixel for every pixel of the band)
+     * fit in L2, but never so tall that there are fewer than four bands per thread.
+     */
+    public static int grainFor(int width, int height, int bytesPerPixel, int parallelism) {
+        int cacheRows = Math.max(1, L2_CACHE_BYTES / Math.max(1, width * bytesPerPixel));
+        int balanceRows = Math.max(1, (height + 4 * parallelism - 1) / (4 * parallelism));
+        return Math.min(cacheRows, balanceRows);
+    }
+}
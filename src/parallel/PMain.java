@@ -3,9 +3,28 @@ package parallel;
 import GUI.GUI;
 import Processing.IMGProcessor;
 import parallel.PImgProcessing.PImgProcMethods;
+
+/**
+ * Usage: PMain [--threads N] [--grain ROWS] [--lanes]
+ * Defaults to one thread per core and a band height picked from the L2 size.
+ * --lanes switches the direct convolution loop to the SIMD-friendly LaneConvolver, which runs on
+ * the Vector API when the JVM is started with --add-modules jdk.incubator.vector.
+ */
 public class PMain {
         public static void main(String[] args) {
-            IMGProcessor processor = new PImgProcMethods();
+            int threads = 0;
+            int grainRows = 0;
+            boolean lanes = false;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--grain" -> grainRows = Integer.parseInt(args[++i]);
+                    case "--lanes" -> lanes = true;
+                    default -> System.err.println("Ignoring unknown argument: " + args[i]);
+                }
+            }
+
+            IMGProcessor processor = new PImgProcMethods(threads, grainRows, lanes);
             GUI.run(processor);
         }
 }
@@ -0,0 +1,118 @@
+package raster.RImgProcessing;
+
+import Processing.BufferPool;
+import Processing.FusedConvolver;
+import Processing.GrayImage;
+import Processing.GrayRaster;
+import Processing.IMGProcessor;
+import Processing.ImageDecoder;
+import Processing.RgbImage;
+import metrics.Metrics;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Single threaded processor that reads and writes the DataBufferByte of TYPE_BYTE_GRAY rasters
+ * directly instead of going through getRGB/setRGB and java.awt.Color.
+ * Output is byte-identical to the sequential processor.
+ */
+public class RImgProcMethods implements IMGProcessor {
+
+    private final boolean lanes; // use LaneConvolver instead of the scalar direct loop
+
+    public RImgProcMethods() {
+        this(false);
+    }
+
+    public RImgProcMethods(boolean lanes) {
+        this.lanes = lanes;
+    }
+
+    @Override
+    public BufferedImage convertToGrayscale(BufferedImage colorImage) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.GRAYSCALE);
+        int width = colorImage.getWidth();
+        int height = colorImage.getHeight();
+        BufferedImage grayImage = BufferPool.SHARED.grayImage(width, height);
+
+        byte[] grayPixels = GrayRaster.data(grayImage);
+        GrayRaster.grayscaleRows(colorImage, grayPixels, 0, width, 0, height, new int[width]);
+        span.end(5L * width * height, (long) width * height);
+        return grayImage;
+    }
+
+    @Override
+    public BufferedImage applyConvolution(BufferedImage inputImage, int[][] kernel) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.CONVOLUTION);
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
+        BufferedImage outputImage = BufferPool.SHARED.grayImage(width, height);
+
+        byte[] inputPixels = GrayRaster.grayPlane(inputImage);
+        byte[] outputPixels = GrayRaster.data(outputImage);
+
+        GrayRaster.convolveRows(inputPixels, 0, width, GrayRaster.decodeFor(inputImage),
+                width, height, kernel,
+                outputPixels, 0, width, GrayRaster.ENCODE,
+                0, height, lanes);
+        span.end(2L * width * height, (long) width * height);
+        return outputImage;
+    }
+
+    @Override
+    public GrayImage convertToGrayscale(RgbImage colorImage) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.GRAYSCALE);
+        GrayImage grayImage = BufferPool.SHARED.gray(colorImage.width, colorImage.height);
+        GrayRaster.grayscaleRows(colorImage.data, colorImage.offset, colorImage.stride, colorImage.width,
+                grayImage.data, 0, grayImage.stride, 0, colorImage.height);
+        span.end(5L * colorImage.width * colorImage.height, (long) colorImage.width * colorImage.height);
+        return grayImage;
+    }
+
+    @Override
+    public GrayImage applyConvolution(GrayImage inputImage, int[][] kernel) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.CONVOLUTION);
+        GrayImage outputImage = BufferPool.SHARED.gray(inputImage.width, inputImage.height);
+        GrayRaster.convolveRows(inputImage.data, inputImage.offset, inputImage.stride, GrayRaster.DECODE,
+                inputImage.width, inputImage.height, kernel,
+                outputImage.data, 0, outputImage.stride, GrayRaster.ENCODE,
+                0, inputImage.height, lanes);
+        span.end(2L * inputImage.width * inputImage.height, (long) inputImage.width * inputImage.height);
+        return outputImage;
+    }
+
+    @Override
+    public BufferedImage processImage(String inputFilePath, int[][] kernel) {
+        try {
+            BufferedImage inputImage = ImageDecoder.read(inputFilePath);
+            BufferedImage grayImage = convertToGrayscale(inputImage);
+            BufferedImage outputImage = applyConvolution(grayImage, kernel);
+            BufferPool.SHARED.release(grayImage);
+            return outputImage;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public BufferedImage processImageFused(String inputFilePath, int[][] kernel) {
+        try {
+            BufferedImage inputImage = ImageDecoder.read(inputFilePath);
+            Metrics.Span span = Metrics.SHARED.start(Metrics.FUSED);
+            BufferedImage outputImage = FusedConvolver.process(inputImage, kernel);
+            long pixels = (long) inputImage.getWidth() * inputImage.getHeight();
+            span.end(5 * pixels, pixels);
+            return outputImage;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return lanes ? "Raster Image Processor (lanes)" : "Raster Image Processor";
+    }
+}
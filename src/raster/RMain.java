@@ -0,0 +1,23 @@
+package raster;
+
+import GUI.GUI;
+import Processing.IMGProcessor;
+import raster.RImgProcessing.RImgProcMethods;
+
+/**
+ * Usage: RMain [--lanes]
+ * --lanes switches the direct convolution loop to the SIMD-friendly LaneConvolver, which runs on
+ * the Vector API when the JVM is started with --add-modules jdk.incubator.vector.
+ */
+public class RMain {
+    public static void main(String[] args) {
+        boolean lanes = false;
+        for (String arg : args) {
+            if (arg.equals("--lanes")) lanes = true;
+            else System.err.println("Ignoring unknown argument: " + arg);
+        }
+
+        IMGProcessor processor = new RImgProcMethods(lanes);
+        GUI.run(processor);
+    }
+}
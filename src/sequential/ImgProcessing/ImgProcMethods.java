@@ -1,11 +1,12 @@
 package sequential.ImgProcessing;
 
+import Processing.FusedConvolver;
 import Processing.IMGProcessor;
+import Processing.ImageDecoder;
+import metrics.Metrics;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 
 public class ImgProcMethods implements IMGProcessor {
@@ -13,6 +14,7 @@ public class ImgProcMethods implements IMGProcessor {
     // converts a color image to grayscale using weighted average
     @Override
     public BufferedImage convertToGrayscale(BufferedImage colorImage) {
+        Metrics.Span span = Metrics.SHARED.start(Metrics.GRAYSCALE);
         int width = colorImage.getWidth();
         int height = colorImage.getHeight();
         BufferedImage grayImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
@@ -31,14 +33,19 @@ public class ImgProcMethods implements IMGProcessor {
                 grayImage.setRGB(x, y, grayColor.getRGB());
             }
         }
+        span.end(5L * width * height, (long) width * height);
         return grayImage;
     }
 
     // applies a basic convolution using the given kernel (no edge handling beyond bounds check)
+    // kernels can be any N x M size; the anchor is the middle tap (rounded down for even sizes)
     @Override
     public BufferedImage applyConvolution(BufferedImage inputImage, int[][] kernel) {
-        int kernelSize = kernel.length;
-        int halfKernelSize = kernelSize / 2;
+        Metrics.Span span = Metrics.SHARED.start(Metrics.CONVOLUTION);
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+        int halfKernelHeight = kernelHeight / 2;
+        int halfKernelWidth = kernelWidth / 2;
         BufferedImage outputImage = new BufferedImage(inputImage.getWidth(), inputImage.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
 
         for (int y = 0; y < inputImage.getHeight(); y++) {
@@ -46,10 +53,10 @@ public class ImgProcMethods implements IMGProcessor {
                 int accumulator = 0;
 
                 // loop through the kernel
-                for (int i = 0; i < kernelSize; i++) {
-                    for (int j = 0; j < kernelSize; j++) {
-                        int pixelX = x + j - halfKernelSize;
-                        int pixelY = y + i - halfKernelSize;
+                for (int i = 0; i < kernelHeight; i++) {
+                    for (int j = 0; j < kernelWidth; j++) {
+                        int pixelX = x + j - halfKernelWidth;
+                        int pixelY = y + i - halfKernelHeight;
 
                         // make sure we’re within bounds
                         if (pixelX >= 0 && pixelX < inputImage.getWidth() && pixelY >= 0 && pixelY < inputImage.getHeight()) {
@@ -65,6 +72,8 @@ public class ImgProcMethods implements IMGProcessor {
                 outputImage.setRGB(x, y, new Color(outputPixel, outputPixel, outputPixel).getRGB());
             }
         }
+        long pixels = (long) inputImage.getWidth() * inputImage.getHeight();
+        span.end(2 * pixels, pixels);
         return outputImage;
     }
 
@@ -72,7 +81,7 @@ public class ImgProcMethods implements IMGProcessor {
     @Override
     public BufferedImage processImage(String inputFilePath, int[][] kernel) {
         try {
-            BufferedImage inputImage = ImageIO.read(new File(inputFilePath));
+            BufferedImage inputImage = ImageDecoder.read(inputFilePath);
             BufferedImage grayImage = convertToGrayscale(inputImage);
             return applyConvolution(grayImage, kernel);
         } catch (IOException e) {
@@ -81,6 +90,22 @@ public class ImgProcMethods implements IMGProcessor {
         }
     }
 
+    // single streaming pass: gray rows go through a small ring buffer instead of a full gray image
+    @Override
+    public BufferedImage processImageFused(String inputFilePath, int[][] kernel) {
+        try {
+            BufferedImage inputImage = ImageDecoder.read(inputFilePath);
+            Metrics.Span span = Metrics.SHARED.start(Metrics.FUSED);
+            BufferedImage outputImage = FusedConvolver.process(inputImage, kernel);
+            long pixels = (long) inputImage.getWidth() * inputImage.getHeight();
+            span.end(5 * pixels, pixels);
+            return outputImage;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
 
     @Override
     public String toString() {